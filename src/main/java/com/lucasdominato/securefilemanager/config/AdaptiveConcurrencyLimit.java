@@ -0,0 +1,168 @@
+package com.lucasdominato.securefilemanager.config;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit adapted by AIMD. Each request released in time while the limit is in use raises it by 1/limit,
+ * so by one per full window, and an overloaded one, failed or slower than the latency threshold, cuts it by the
+ * backoff ratio, once per window. Requests over the limit wait in FIFO order for up to queueTimeout, at most
+ * queueSize of them, and are rejected otherwise.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueSize;
+    private final Duration queueTimeout;
+    private final Duration latencyThreshold;
+    private final double backoffRatio;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long lastDecreaseNanos;
+
+    /**
+     * A latencyThreshold of zero only takes failures for overload, for requests whose duration depends on their size.
+     */
+    public AdaptiveConcurrencyLimit(final int initialLimit, final int minLimit, final int maxLimit, final int queueSize,
+                                    final Duration queueTimeout, final Duration latencyThreshold, final double backoffRatio) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Concurrency limits must satisfy 1 <= min <= initial <= max");
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Backoff ratio must be between 0 and 1");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.queueSize = queueSize;
+        this.queueTimeout = queueTimeout;
+        this.latencyThreshold = latencyThreshold;
+        this.backoffRatio = backoffRatio;
+        this.limit = initialLimit;
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns a permit, once one is available within the queue timeout, or empty if the request is rejected.
+     */
+    public Optional<Permit> tryAcquire() throws InterruptedException {
+        lock.lock();
+        try {
+            // Newcomers don't overtake the queued requests
+            if (queued == 0 && inFlight < getLimit()) {
+                return Optional.of(admit());
+            }
+            if (queued >= queueSize) {
+                return Optional.empty();
+            }
+
+            queued++;
+            try {
+                long nanos = queueTimeout.toNanos();
+                while (inFlight >= getLimit()) {
+                    if (nanos <= 0) {
+                        return Optional.empty();
+                    }
+                    nanos = released.awaitNanos(nanos);
+                }
+                return Optional.of(admit());
+            } finally {
+                queued--;
+                // Hands a free slot over to the next in line, if this request did not take it
+                signalAvailable();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Permit admit() {
+        inFlight++;
+        return new Permit(System.nanoTime());
+    }
+
+    private void release(final long startNanos, final boolean failed) {
+        long latencyNanos = System.nanoTime() - startNanos;
+        boolean overloaded = failed || (!latencyThreshold.isZero() && latencyNanos > latencyThreshold.toNanos());
+
+        lock.lock();
+        try {
+            if (overloaded) {
+                // Requests admitted before the last decrease saw the same overload, the window is cut once
+                if (startNanos - lastDecreaseNanos > 0) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecreaseNanos = System.nanoTime();
+                }
+            } else if (inFlight * 2 >= (int) limit) {
+                // An idle window says nothing about the capacity, the limit only grows while it is in use
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            inFlight--;
+            signalAvailable();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalAvailable() {
+        for (int free = (int) limit - inFlight; free > 0; free--) {
+            released.signal();
+        }
+    }
+
+    /**
+     * A slot of the limit, held until the request completes. Releasing it more than once has no effect.
+     */
+    public final class Permit {
+
+        private final long startNanos;
+        private final AtomicBoolean releasedOnce = new AtomicBoolean();
+
+        private Permit(final long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Releases the slot. A failed request, one that hit an overloaded resource, lowers the limit.
+         */
+        public void release(final boolean failed) {
+            if (releasedOnce.compareAndSet(false, true)) {
+                AdaptiveConcurrencyLimit.this.release(startNanos, failed);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.lucasdominato.securefilemanager.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Concurrency budgets of the file endpoints, configured under securefilemanager.admission.{uploads,downloads,metadata}.
+ * Uploads and downloads last as long as their content is big, so only their failures lower their limit by default;
+ * metadata requests also do when slower than their latency threshold.
+ */
+@Configuration
+public class AdmissionControlConfig {
+
+    @Bean
+    public FilterRegistrationBean<AdmissionControlFilter> admissionControlFilter(final Environment environment,
+                                                                                 @Value("${securefilemanager.admission.backoff-ratio:0.9}") final double backoffRatio,
+                                                                                 @Value("${securefilemanager.admission.retry-after:PT1S}") final Duration retryAfter,
+                                                                                 final MeterRegistry meterRegistry) {
+        Map<AdmissionControlFilter.Budget, AdaptiveConcurrencyLimit> limits = new EnumMap<>(AdmissionControlFilter.Budget.class);
+        limits.put(AdmissionControlFilter.Budget.UPLOADS,
+                limit(environment, "uploads", 10, 2, 50, 20, Duration.ofSeconds(1), Duration.ZERO, backoffRatio));
+        limits.put(AdmissionControlFilter.Budget.DOWNLOADS,
+                limit(environment, "downloads", 50, 4, 200, 50, Duration.ofSeconds(1), Duration.ZERO, backoffRatio));
+        limits.put(AdmissionControlFilter.Budget.METADATA,
+                limit(environment, "metadata", 50, 4, 200, 100, Duration.ofMillis(500), Duration.ofSeconds(1), backoffRatio));
+
+        // Runs after the security filters, unauthenticated requests take no permit
+        FilterRegistrationBean<AdmissionControlFilter> registration =
+                new FilterRegistrationBean<>(new AdmissionControlFilter(limits, retryAfter, meterRegistry));
+        registration.addUrlPatterns(AdmissionControlFilter.FILES_PATH, AdmissionControlFilter.FILES_PATH + "/*");
+        return registration;
+    }
+
+    private static AdaptiveConcurrencyLimit limit(final Environment environment, final String budget,
+                                                  final int initialLimit, final int minLimit, final int maxLimit,
+                                                  final int queueSize, final Duration queueTimeout,
+                                                  final Duration latencyThreshold, final double backoffRatio) {
+        String prefix = "securefilemanager.admission." + budget + ".";
+        return new AdaptiveConcurrencyLimit(
+                environment.getProperty(prefix + "initial-limit", Integer.class, initialLimit),
+                environment.getProperty(prefix + "min-limit", Integer.class, minLimit),
+                environment.getProperty(prefix + "max-limit", Integer.class, maxLimit),
+                environment.getProperty(prefix + "queue-size", Integer.class, queueSize),
+                environment.getProperty(prefix + "queue-timeout", Duration.class, queueTimeout),
+                environment.getProperty(prefix + "latency-threshold", Duration.class, latencyThreshold),
+                backoffRatio);
+    }
+}
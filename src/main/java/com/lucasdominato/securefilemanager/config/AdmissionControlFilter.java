@@ -0,0 +1,192 @@
+package com.lucasdominato.securefilemanager.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.constraints.NotNull;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Admission control of the file endpoints. A request holds a permit of its budget, uploads, downloads or metadata,
+ * until its response is complete, streamed responses included. Requests finding no permit in time are answered
+ * 503 with a Retry-After header before their body is read. Long-polls of the change feed hold no database
+ * connection while they wait and are left out.
+ */
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    public static final String FILES_PATH = "/api/files";
+    private static final String CHANGES_PATH = FILES_PATH + "/changes";
+    // Tomcat, Spring MVC and Jetty exceptions for a client that went away, matched by name as only one server is on the classpath
+    private static final Set<String> CLIENT_ABORT_EXCEPTIONS = Set.of("ClientAbortException", "AsyncRequestNotUsableException", "EofException");
+
+    public enum Budget {
+        UPLOADS, DOWNLOADS, METADATA
+    }
+
+    private final Map<Budget, AdaptiveConcurrencyLimit> limits;
+    private final Map<Budget, Counter> rejections = new EnumMap<>(Budget.class);
+    private final String retryAfterSeconds;
+
+    public AdmissionControlFilter(final Map<Budget, AdaptiveConcurrencyLimit> limits,
+                                  final Duration retryAfter,
+                                  final MeterRegistry meterRegistry) {
+        this.limits = new EnumMap<>(limits);
+        this.retryAfterSeconds = String.valueOf(Math.max(1, retryAfter.toSeconds()));
+
+        this.limits.forEach((budget, limit) -> {
+            String tag = budget.name().toLowerCase(Locale.ROOT);
+            Gauge.builder("securefilemanager.admission.limit", limit, AdaptiveConcurrencyLimit::getLimit)
+                    .description("Current concurrency limit of the budget")
+                    .tag("budget", tag)
+                    .register(meterRegistry);
+            Gauge.builder("securefilemanager.admission.inflight", limit, AdaptiveConcurrencyLimit::getInFlight)
+                    .description("Requests of the budget in progress")
+                    .tag("budget", tag)
+                    .register(meterRegistry);
+            Gauge.builder("securefilemanager.admission.queued", limit, AdaptiveConcurrencyLimit::getQueued)
+                    .description("Requests of the budget waiting for a permit")
+                    .tag("budget", tag)
+                    .register(meterRegistry);
+            rejections.put(budget, Counter.builder("securefilemanager.admission.rejected")
+                    .description("Requests of the budget rejected with 503")
+                    .tag("budget", tag)
+                    .register(meterRegistry));
+        });
+    }
+
+    /**
+     * Downloads and exports stream their response, multipart requests upload a content, everything else only
+     * reads or changes metadata.
+     */
+    public static Budget budgetOf(final HttpServletRequest request) {
+        String path = pathOf(request);
+        if (HttpMethod.GET.matches(request.getMethod())
+                && (path.endsWith("/download") || path.equals(FILES_PATH + "/export"))) {
+            return Budget.DOWNLOADS;
+        }
+
+        String contentType = request.getContentType();
+        if (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            return Budget.UPLOADS;
+        }
+        return Budget.METADATA;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(@NotNull HttpServletRequest request) {
+        String path = pathOf(request);
+        return !(path.equals(FILES_PATH) || path.startsWith(FILES_PATH + "/"))
+                || path.equals(CHANGES_PATH) || path.startsWith(CHANGES_PATH + "/");
+    }
+
+    @Override
+    protected void doFilterInternal(@NotNull HttpServletRequest request,
+                                    @NotNull HttpServletResponse response,
+                                    @NotNull FilterChain filterChain) throws ServletException, IOException {
+        Budget budget = budgetOf(request);
+        Optional<AdaptiveConcurrencyLimit.Permit> permit;
+        try {
+            permit = limits.get(budget).tryAcquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            permit = Optional.empty();
+        }
+
+        if (permit.isEmpty()) {
+            rejections.get(budget).increment();
+            reject(response);
+            return;
+        }
+
+        try {
+            filterChain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException e) {
+            permit.get().release(!isClientAbort(e));
+            throw e;
+        }
+
+        if (request.isAsyncStarted()) {
+            // The response is written by another thread, the permit is held until it completes
+            request.getAsyncContext().addListener(new PermitReleasingListener(permit.get(), response));
+        } else {
+            permit.get().release(isFailed(response));
+        }
+    }
+
+    /**
+     * Whether the exception, or one of its causes, comes from a client that closed the connection: an abort of the
+     * servlet container or a broken pipe or reset connection. A client going away says nothing about the load of the
+     * server, so its request is not taken for overloaded.
+     */
+    public static boolean isClientAbort(final Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (CLIENT_ABORT_EXCEPTIONS.contains(cause.getClass().getSimpleName())) {
+                return true;
+            }
+            if (cause instanceof IOException && cause.getMessage() != null) {
+                String message = cause.getMessage().toLowerCase(Locale.ROOT);
+                if (message.contains("broken pipe") || message.contains("connection reset")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void reject(final HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader(HttpHeaders.RETRY_AFTER, retryAfterSeconds);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write("{\"error\":\"Service Unavailable\", \"message\":\"Too many requests in progress, please try again later.\"}");
+    }
+
+    // Server errors (pool timeouts, rejected streams) are taken for overload, client errors are not
+    private static boolean isFailed(final HttpServletResponse response) {
+        return response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    private static String pathOf(final HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    private record PermitReleasingListener(AdaptiveConcurrencyLimit.Permit permit,
+                                           HttpServletResponse response) implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            permit.release(isFailed(response));
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            permit.release(true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            permit.release(!isClientAbort(event.getThrowable()));
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
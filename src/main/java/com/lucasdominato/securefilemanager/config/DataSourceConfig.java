@@ -0,0 +1,167 @@
+package com.lucasdominato.securefilemanager.config;
+
+import com.lucasdominato.securefilemanager.data.repository.ContentShardStore;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Two connection pools on the same database: the metadata pool, used by JPA and every short query, and the blob
+ * pool, only used by the content store to transfer the encrypted contents. Large uploads and downloads can exhaust
+ * the blob pool without making metadata requests wait for a connection. Both pools report the hikaricp.* metrics,
+ * tagged with their pool name.
+ * When read replicas are configured, the metadata pool is fronted by a {@link ReplicaRoutingDataSource} sending
+ * read-only transactions to them. When content shards are configured, their pools back the {@link ContentShardStore}.
+ */
+@Configuration
+public class DataSourceConfig {
+
+    public static final String PRIMARY_DATA_SOURCE = "primaryDataSource";
+    public static final String BLOB_DATA_SOURCE = "blobDataSource";
+    private static final String SHARD_MIGRATIONS = "classpath:db/shard-migration";
+    private static final String SHARD_SCHEMA_HISTORY = "content_shard_schema_history";
+
+    @Bean(name = PRIMARY_DATA_SOURCE)
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(final DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    /**
+     * The metadata data source used by JPA and the JdbcTemplate. The lazy proxy only fetches the connection on the
+     * first statement, once the transaction is marked read-only, so the replica routing can see it.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier(PRIMARY_DATA_SOURCE) final DataSource primaryDataSource,
+                                 final ObjectProvider<ReplicaRoutingDataSource> replicaRoutingDataSource) {
+        ReplicaRoutingDataSource routingDataSource = replicaRoutingDataSource.getIfAvailable();
+        return routingDataSource != null ? new LazyConnectionDataSourceProxy(routingDataSource) : primaryDataSource;
+    }
+
+    /**
+     * One pool per replica url, configured like the metadata pool but read-only.
+     */
+    @Bean
+    @ConditionalOnProperty("securefilemanager.replicas.urls")
+    public ReplicaRoutingDataSource replicaRoutingDataSource(@Qualifier(PRIMARY_DATA_SOURCE) final DataSource primaryDataSource,
+                                                             @Value("${securefilemanager.replicas.urls}") final List<String> urls,
+                                                             @Value("${securefilemanager.replicas.read-your-writes-window:PT10S}") final Duration readYourWritesWindow,
+                                                             final MeterRegistry meterRegistry,
+                                                             final Environment environment) throws SQLException {
+        HikariDataSource primaryPool = primaryDataSource.unwrap(HikariDataSource.class);
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+
+        for (int i = 0; i < urls.size(); i++) {
+            String poolName = "replica-" + (i + 1);
+            replicas.put(poolName, createPool(primaryPool, poolName, urls.get(i), true, meterRegistry, environment));
+        }
+
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, readYourWritesWindow);
+    }
+
+    @Bean(name = BLOB_DATA_SOURCE)
+    @ConfigurationProperties("securefilemanager.blob-datasource.hikari")
+    public HikariDataSource blobDataSource(final DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    /**
+     * One pool per content shard url, configured like the blob pool. The shards are numbered from 1 in the order
+     * of the urls, so shards may only be appended to the list. Each shard's schema is migrated before it is used.
+     */
+    @Bean
+    public ContentShardStore contentShardStore(@Qualifier(BLOB_DATA_SOURCE) final DataSource blobDataSource,
+                                               @Value("${securefilemanager.shards.urls:}") final List<String> urls,
+                                               final MeterRegistry meterRegistry,
+                                               final Environment environment) throws SQLException {
+        HikariDataSource blobPool = blobDataSource.unwrap(HikariDataSource.class);
+        Map<Integer, DataSource> shards = new LinkedHashMap<>();
+
+        for (String url : urls) {
+            if (StringUtils.hasText(url)) {
+                int shard = shards.size() + 1;
+                DataSource pool = createPool(blobPool, "shard-" + shard, url, false, meterRegistry, environment);
+                migrateShard(pool);
+                shards.put(shard, pool);
+            }
+        }
+
+        return new ContentShardStore(shards);
+    }
+
+    /**
+     * Applies the shard migrations, with a history table of their own in case a shard shares the primary's database.
+     * Shards whose content_blobs table was created before the migrations are baselined at 0, as the first migration
+     * only creates what is missing.
+     */
+    private static void migrateShard(final DataSource shard) {
+        Flyway.configure()
+                .dataSource(shard)
+                .locations(SHARD_MIGRATIONS)
+                .table(SHARD_SCHEMA_HISTORY)
+                .baselineOnMigrate(true)
+                .baselineVersion("0")
+                .load()
+                .migrate();
+    }
+
+    private static DataSource createPool(final HikariDataSource template, final String poolName, final String url,
+                                         final boolean readOnly, final MeterRegistry meterRegistry, final Environment environment) {
+        HikariConfig config = new HikariConfig();
+        template.copyStateTo(config);
+        config.setPoolName(poolName);
+        config.setJdbcUrl(url.trim());
+        config.setReadOnly(readOnly);
+        config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+
+        HikariDataSource pool = new HikariDataSource(config);
+        if (Threading.VIRTUAL.isActive(environment)) {
+            return new ConnectionPermitDataSource(pool, pool.getMaximumPoolSize(), Duration.ofMillis(pool.getConnectionTimeout()));
+        }
+        return pool;
+    }
+
+    /**
+     * With virtual threads, request and executor threads are no longer bounded by a pool, so the connection pool
+     * limit is enforced by a semaphore in front of it, sized and timed out like the pool.
+     */
+    @Bean
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public static BeanPostProcessor connectionPermitDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource dataSource) {
+                    return new ConnectionPermitDataSource(dataSource, dataSource.getMaximumPoolSize(),
+                            Duration.ofMillis(dataSource.getConnectionTimeout()));
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,138 @@
+package com.lucasdominato.securefilemanager.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Executors of the background and download work. With spring.threads.virtual.enabled on Java 21+, the executors
+ * doing blocking I/O (database, storage, client sockets) start a virtual thread per task instead of pooling platform
+ * threads. The CPU-bound re-encryption and scrub workers keep their platform thread pools, sized as CPU budgets.
+ */
+@Configuration
+public class ExecutorConfig {
+
+    public static final String CHANGE_FEED_EXECUTOR = "changeFeedExecutor";
+    public static final String RE_ENCRYPTION_EXECUTOR = "reEncryptionExecutor";
+    public static final String SCRUB_EXECUTOR = "scrubExecutor";
+    public static final String DOWNLOAD_EXECUTOR = "downloadExecutor";
+    public static final String PREFETCH_EXECUTOR = "prefetchExecutor";
+    public static final String STREAMING_EXECUTOR = "streamingExecutor";
+
+    private final boolean virtualThreads;
+
+    public ExecutorConfig(final Environment environment) {
+        this.virtualThreads = Threading.VIRTUAL.isActive(environment);
+    }
+
+    /**
+     * Runs the change feed queries of woken up long-polls, off the thread that committed the change.
+     */
+    @Bean(name = CHANGE_FEED_EXECUTOR)
+    public AsyncTaskExecutor changeFeedExecutor(@Value("${securefilemanager.changes.executor.pool-size:4}") int poolSize,
+                                                @Value("${securefilemanager.changes.executor.queue-capacity:10000}") int queueCapacity) {
+        if (virtualThreads) {
+            return virtualThreadExecutor("change-feed-", SimpleAsyncTaskExecutor.UNBOUNDED_CONCURRENCY);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("change-feed-");
+        return executor;
+    }
+
+    /**
+     * Workers of the re-encryption job. Its pool size is the CPU budget of a key rotation.
+     */
+    @Bean(name = RE_ENCRYPTION_EXECUTOR)
+    public ThreadPoolTaskExecutor reEncryptionExecutor(@Value("${securefilemanager.reencryption.executor.pool-size:2}") int poolSize) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setThreadNamePrefix("re-encryption-");
+        return executor;
+    }
+
+    /**
+     * Workers of the integrity scrubber. Its pool size, with the bytes checked per run, is the CPU budget of the scrub.
+     */
+    @Bean(name = SCRUB_EXECUTOR)
+    public ThreadPoolTaskExecutor scrubExecutor(@Value("${securefilemanager.scrub.executor.pool-size:1}") int poolSize) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setThreadNamePrefix("scrub-");
+        return executor;
+    }
+
+    /**
+     * Fetches and decrypts the content of shared downloads, one thread per download being read.
+     * Without a queue: when every thread is busy, a download reads its content on its own request thread.
+     * With virtual threads every shared download gets its own thread.
+     */
+    @Bean(name = DOWNLOAD_EXECUTOR)
+    public AsyncTaskExecutor downloadExecutor(@Value("${securefilemanager.downloads.executor.pool-size:64}") int poolSize) {
+        if (virtualThreads) {
+            return virtualThreadExecutor("download-", SimpleAsyncTaskExecutor.UNBOUNDED_CONCURRENCY);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("download-");
+        return executor;
+    }
+
+    /**
+     * Reads the chunks of downloads ahead of their decryption, so storage reads overlap with the decryption.
+     * Reads beyond the queue capacity are rejected, and the download then reads the chunk itself.
+     */
+    @Bean(name = PREFETCH_EXECUTOR)
+    public AsyncTaskExecutor prefetchExecutor(@Value("${securefilemanager.downloads.prefetch.pool-size:16}") int poolSize,
+                                              @Value("${securefilemanager.downloads.prefetch.queue-capacity:64}") int queueCapacity) {
+        if (virtualThreads) {
+            return virtualThreadExecutor("prefetch-", SimpleAsyncTaskExecutor.UNBOUNDED_CONCURRENCY);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("prefetch-");
+        return executor;
+    }
+
+    /**
+     * Writes the streamed response bodies (downloads) off the servlet container threads, so slow clients don't hold
+     * the threads short requests need. Requests beyond the queue capacity are rejected with 503.
+     * With virtual threads, up to pool-size plus queue-capacity downloads are streamed at once, the next ones wait.
+     */
+    @Bean(name = STREAMING_EXECUTOR)
+    public AsyncTaskExecutor streamingExecutor(@Value("${securefilemanager.downloads.streaming.pool-size:200}") int poolSize,
+                                               @Value("${securefilemanager.downloads.streaming.queue-capacity:1000}") int queueCapacity) {
+        if (virtualThreads) {
+            return virtualThreadExecutor("streaming-", poolSize + queueCapacity);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("streaming-");
+        return executor;
+    }
+
+    /**
+     * Starts a virtual thread per task, running at most concurrencyLimit tasks at once: the next submitters wait.
+     */
+    private AsyncTaskExecutor virtualThreadExecutor(final String threadNamePrefix, final int concurrencyLimit) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        executor.setConcurrencyLimit(concurrencyLimit);
+        return executor;
+    }
+}
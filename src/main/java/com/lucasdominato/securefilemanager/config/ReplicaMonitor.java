@@ -0,0 +1,97 @@
+package com.lucasdominato.securefilemanager.config;
+
+import com.lucasdominato.securefilemanager.service.FileChangedEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Puts the read replicas in rotation while their replication lag is within maxLag, and out of it when they lag
+ * behind, stopped streaming from the primary or can't be reached. Also records the users whose changes were just committed on the primary.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty("securefilemanager.replicas.urls")
+public class ReplicaMonitor {
+
+    // A replica that replayed everything it received is not lagging, however old its last replayed transaction is,
+    // but only while it is still streaming from the primary: one cut off from it has nothing left to receive
+    private static final String LAG_SQL = """
+            SELECT CASE WHEN r.status = 'streaming'
+                             AND r.last_msg_receipt_time > now() - ? * interval '1 millisecond'
+                             AND pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                        ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) END
+            FROM (SELECT 1) AS probe LEFT JOIN pg_stat_wal_receiver r ON true
+            """;
+
+    private final ReplicaRoutingDataSource replicaRoutingDataSource;
+    private final Duration maxLag;
+    private final Duration maxReceiptAge;
+    private final Map<String, JdbcTemplate> probes = new LinkedHashMap<>();
+    private final Map<String, Double> lagSeconds = new ConcurrentHashMap<>();
+
+    public ReplicaMonitor(final ReplicaRoutingDataSource replicaRoutingDataSource,
+                          @Value("${securefilemanager.replicas.max-lag:PT5S}") final Duration maxLag,
+                          @Value("${securefilemanager.replicas.max-receipt-age:PT1M}") final Duration maxReceiptAge,
+                          final MeterRegistry meterRegistry) {
+        this.replicaRoutingDataSource = replicaRoutingDataSource;
+        this.maxLag = maxLag;
+        this.maxReceiptAge = maxReceiptAge;
+
+        replicaRoutingDataSource.getReplicas().forEach((replica, dataSource) -> {
+            JdbcTemplate probe = new JdbcTemplate(dataSource);
+            probe.setQueryTimeout((int) Math.max(1, maxLag.toSeconds()));
+            probes.put(replica, probe);
+            lagSeconds.put(replica, Double.NaN);
+            Gauge.builder("securefilemanager.replicas.lag", lagSeconds, lags -> lags.get(replica))
+                    .description("Replication lag of the read replica, NaN while it can't be reached")
+                    .baseUnit("seconds")
+                    .tag("replica", replica)
+                    .register(meterRegistry);
+        });
+        Gauge.builder("securefilemanager.replicas.available", replicaRoutingDataSource, ReplicaRoutingDataSource::getAvailableReplicaCount)
+                .description("Read replicas in rotation for the read-only transactions")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${securefilemanager.replicas.check-interval:PT1S}")
+    public void checkReplicas() {
+        probes.forEach((replica, probe) -> {
+            Double lag = null;
+            try {
+                lag = probe.queryForObject(LAG_SQL, Double.class, maxReceiptAge.toMillis());
+            } catch (DataAccessException e) {
+                log.warn("Failed to read the replication lag of replica {}", replica, e);
+            }
+
+            lagSeconds.put(replica, lag != null ? lag : Double.NaN);
+            if (lag != null && lag * 1000 <= maxLag.toMillis()) {
+                replicaRoutingDataSource.markAvailable(replica);
+            } else {
+                replicaRoutingDataSource.markUnavailable(replica);
+            }
+        });
+    }
+
+    // Runs before the change feed listeners are woken up, so their next read already goes to the primary
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onFileChanged(final FileChangedEvent event) {
+        replicaRoutingDataSource.recordWrite(event.getUsername());
+    }
+}
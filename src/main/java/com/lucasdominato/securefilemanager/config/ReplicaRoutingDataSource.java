@@ -0,0 +1,127 @@
+package com.lucasdominato.securefilemanager.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes the read-only transactions of authenticated users to the available read replicas, round-robin.
+ * Everything else goes to the primary: writes, background jobs, the reads of a user within readYourWritesWindow
+ * of their last write, and every read while no replica is available. Replicas are put in and out of rotation by
+ * {@link ReplicaMonitor} from their replication lag, and taken out as soon as they fail to hand out a connection.
+ * Must be used behind a LazyConnectionDataSourceProxy, as the read-only flag is only set once the transaction began.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractDataSource implements AutoCloseable {
+
+    private final DataSource primary;
+    private final Map<String, DataSource> replicas;
+    private final Cache<String, Boolean> recentWriters;
+    private final Set<String> availableReplicas = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    public ReplicaRoutingDataSource(final DataSource primary, final Map<String, DataSource> replicas,
+                                    final Duration readYourWritesWindow) {
+        this.primary = primary;
+        this.replicas = Collections.unmodifiableMap(new LinkedHashMap<>(replicas));
+        this.recentWriters = Caffeine.newBuilder().expireAfterWrite(readYourWritesWindow).build();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        String replica = selectReplica();
+        if (replica != null) {
+            try {
+                return replicas.get(replica).getConnection();
+            } catch (SQLException e) {
+                log.warn("Replica {} failed to hand out a connection, reading from the primary", replica, e);
+                markUnavailable(replica);
+            }
+        }
+        return primary.getConnection();
+    }
+
+    /**
+     * Connections with explicit credentials are not routed.
+     */
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    /**
+     * Sends the reads of the user to the primary for the read-your-writes window, so they see their own changes.
+     * The window is local to this instance, the other instances don't know about the write.
+     */
+    public void recordWrite(final String username) {
+        recentWriters.put(username, Boolean.TRUE);
+    }
+
+    public void markAvailable(final String replica) {
+        if (availableReplicas.add(replica)) {
+            log.info("Replica {} is in rotation", replica);
+        }
+    }
+
+    public void markUnavailable(final String replica) {
+        if (availableReplicas.remove(replica)) {
+            log.warn("Replica {} is out of rotation, its reads go to the primary", replica);
+        }
+    }
+
+    public Map<String, DataSource> getReplicas() {
+        return replicas;
+    }
+
+    public int getAvailableReplicaCount() {
+        return availableReplicas.size();
+    }
+
+    /**
+     * Closes the replica pools, the primary pool is a bean of its own.
+     */
+    @Override
+    public void close() throws Exception {
+        for (DataSource replica : replicas.values()) {
+            if (replica instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    private String selectReplica() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return null;
+        }
+
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()
+                || authentication instanceof AnonymousAuthenticationToken
+                || recentWriters.getIfPresent(authentication.getName()) != null) {
+            return null;
+        }
+
+        List<String> candidates = replicas.keySet().stream().filter(availableReplicas::contains).toList();
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        return candidates.get(Math.floorMod(nextReplica.getAndIncrement(), candidates.size()));
+    }
+}
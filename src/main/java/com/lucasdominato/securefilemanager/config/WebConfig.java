@@ -1,16 +1,31 @@
 package com.lucasdominato.securefilemanager.config;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.data.web.config.EnableSpringDataWebSupport;
 import org.springframework.web.servlet.LocaleResolver;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.springframework.web.servlet.i18n.SessionLocaleResolver;
 
+import java.time.Duration;
 import java.util.Locale;
 
 @Configuration
 @EnableSpringDataWebSupport(pageSerializationMode = EnableSpringDataWebSupport.PageSerializationMode.VIA_DTO)
-public class WebConfig {
+public class WebConfig implements WebMvcConfigurer {
+
+    private final AsyncTaskExecutor streamingExecutor;
+    private final Duration streamingTimeout;
+
+    public WebConfig(@Qualifier(ExecutorConfig.STREAMING_EXECUTOR) final AsyncTaskExecutor streamingExecutor,
+                     @Value("${securefilemanager.downloads.streaming.timeout:PT1H}") final Duration streamingTimeout) {
+        this.streamingExecutor = streamingExecutor;
+        this.streamingTimeout = streamingTimeout;
+    }
 
     @Bean
     public LocaleResolver localeResolver() {
@@ -18,4 +33,14 @@ public class WebConfig {
         slr.setDefaultLocale(Locale.ENGLISH);
         return slr;
     }
-}
\ No newline at end of file
+
+    /**
+     * Streamed response bodies run on the streaming executor and are aborted after the streaming timeout.
+     * Long-polls (DeferredResult) keep their own timeout.
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(streamingExecutor);
+        configurer.setDefaultTimeout(streamingTimeout.toMillis());
+    }
+}
@@ -0,0 +1,37 @@
+package com.lucasdominato.securefilemanager.data.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Result of the last integrity check of a stored content by the scrubber.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "content_integrity_checks", indexes = {
+        @Index(name = "idx_content_integrity_check_valid", columnList = "valid")
+})
+public class ContentIntegrityCheck {
+
+    @Id
+    @EqualsAndHashCode.Include
+    private Long contentId;
+
+    @Column(nullable = false)
+    private Boolean valid;
+
+    @Column
+    private String failureReason;
+
+    @Column(nullable = false)
+    private LocalDateTime checkedDate;
+}
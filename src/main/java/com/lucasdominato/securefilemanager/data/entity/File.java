@@ -6,11 +6,13 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.time.LocalDateTime;
+
 @Getter
 @Setter
 @Entity
 @Table(name = "files", indexes = {
-        @Index(name = "idx_file_id_username", columnList = "id, user_id")
+        @Index(name = "idx_files_user_id", columnList = "user_id, id")
 })
 public class File extends Auditable {
 
@@ -25,7 +27,7 @@ public class File extends Auditable {
     @Column
     private String description;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
     @JsonIgnore
     private User user;
@@ -35,4 +37,22 @@ public class File extends Auditable {
 
     @Column(nullable = false)
     private Long fileSize;
+
+    /**
+     * Number of the file_versions row holding the current content. Older versions are kept as history.
+     */
+    @Column(nullable = false)
+    private Integer currentVersion;
+
+    /**
+     * Set when the file is deleted. The file stays restorable until the purger removes it and its content.
+     */
+    @Column
+    private LocalDateTime deletedDate;
+
+    /**
+     * The bulk delete job that deleted the file, if any.
+     */
+    @Column
+    private Long deleteJobId;
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package com.lucasdominato.securefilemanager.data.entity;
+
+import jakarta.persistence.*;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@Entity
+@Table(name = "file_changes", indexes = {
+        @Index(name = "idx_file_change_user_sequence", columnList = "user_id, sequence_number", unique = true)
+})
+public class FileChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "file_changes_seq")
+    @SequenceGenerator(name = "file_changes_seq", sequenceName = "file_changes_seq", allocationSize = 50)
+    @EqualsAndHashCode.Include
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    /**
+     * Per-user, gap-free and monotonically increasing position of the change in the user's change log.
+     */
+    @Column(name = "sequence_number", nullable = false)
+    private Long sequenceNumber;
+
+    @Column(nullable = false)
+    private Long fileId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private FileChangeType changeType;
+
+    @Column(nullable = false)
+    private LocalDateTime changedAt;
+}
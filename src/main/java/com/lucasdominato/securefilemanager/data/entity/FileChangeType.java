@@ -0,0 +1,8 @@
+package com.lucasdominato.securefilemanager.data.entity;
+
+public enum FileChangeType {
+    CREATED,
+    UPDATED,
+    DELETED,
+    RESTORED
+}
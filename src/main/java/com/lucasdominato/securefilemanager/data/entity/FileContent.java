@@ -4,13 +4,23 @@ import jakarta.persistence.*;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.sql.Blob;
+import java.time.LocalDateTime;
 
+/**
+ * An encrypted chunk of file content, shared by every file version of its user containing the same plaintext chunk.
+ * It is deleted by the purger once no file version references it anymore.
+ * Its encrypted bytes are either in the content column (hot tier), on a content shard database or in a cold segment
+ * file (cold tier). The table is hash partitioned by user_id, see the db/migration scripts.
+ */
 @Getter
 @Setter
 @Entity
-@Table(name = "file_content")
+@Table(name = "file_content", indexes = {
+        @Index(name = "idx_file_content_user_fingerprint", columnList = "user_id, fingerprint", unique = true)
+})
 public class FileContent {
 
     @Id
@@ -18,11 +28,60 @@ public class FileContent {
     @EqualsAndHashCode.Include
     private Long id;
 
-    @Lob
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    /**
+     * Keyed fingerprint of the plaintext, see EncryptionService#fingerprint.
+     */
     @Column(nullable = false)
+    private byte[] fingerprint;
+
+    /**
+     * Null while the content is on a content shard or in the cold tier.
+     */
+    @Lob
+    @Column
     private Blob content;
 
-    @OneToOne(cascade = CascadeType.ALL, orphanRemoval = true)
-    @JoinColumn(name = "file_id", nullable = false)
-    private File file;
-}
\ No newline at end of file
+    /**
+     * Location of the content in the cold tier, see ColdSegmentStore. Null while the content is hot.
+     */
+    @Column
+    private String coldSegment;
+
+    @Column
+    private Long coldOffset;
+
+    @Column
+    private Long coldLength;
+
+    /**
+     * Content shard holding the content, see ContentShardStore. Null while the content is on the primary.
+     */
+    @Column
+    private Integer shard;
+
+    @Column
+    private Long shardLength;
+
+    /**
+     * Last download of the content, recorded with a delay, deciding when it moves to the cold tier.
+     */
+    @ColumnDefault("CURRENT_TIMESTAMP")
+    @Column(nullable = false)
+    private LocalDateTime lastAccessedDate;
+
+    /**
+     * Version of the encryption keys the content is encrypted with.
+     */
+    @ColumnDefault("1")
+    @Column(nullable = false)
+    private Integer keyVersion;
+
+    /**
+     * Number of file version manifest entries, of deleted files too until they are purged, pointing at this content.
+     */
+    @Column(nullable = false)
+    private Integer refCount;
+}
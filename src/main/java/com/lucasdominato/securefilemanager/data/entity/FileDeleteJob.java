@@ -0,0 +1,34 @@
+package com.lucasdominato.securefilemanager.data.entity;
+
+import jakarta.persistence.*;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * A bulk delete request. The files it deleted keep its id in files.delete_job_id until they are purged.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "file_delete_jobs", indexes = {
+        @Index(name = "idx_file_delete_job_user", columnList = "user_id")
+})
+public class FileDeleteJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @EqualsAndHashCode.Include
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(nullable = false)
+    private Integer totalFiles;
+
+    @Column(nullable = false)
+    private LocalDateTime createdDate;
+}
@@ -0,0 +1,55 @@
+package com.lucasdominato.securefilemanager.data.entity;
+
+import jakarta.persistence.*;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * One uploaded content of a file. Its bytes are stored as content-defined chunks listed, in order,
+ * by its file_version_chunks manifest.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "file_versions", indexes = {
+        @Index(name = "idx_file_version_file_number", columnList = "file_id, version_number", unique = true),
+        @Index(name = "idx_file_version_fingerprint", columnList = "fingerprint")
+})
+public class FileVersion {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @EqualsAndHashCode.Include
+    private Long id;
+
+    @Column(name = "file_id", nullable = false)
+    private Long fileId;
+
+    @Column(nullable = false)
+    private Integer versionNumber;
+
+    @Column(nullable = false)
+    private String name;
+
+    @Column(nullable = false)
+    private String contentType;
+
+    @Column(nullable = false)
+    private Long fileSize;
+
+    @Column(nullable = false)
+    private Integer chunkCount;
+
+    /**
+     * Keyed fingerprint of the whole plaintext, see EncryptionService#fingerprint. Null for versions written
+     * by a ranged write, whose plaintext is not read in full.
+     */
+    @Column
+    private byte[] fingerprint;
+
+    @Column(nullable = false)
+    private LocalDateTime createdDate;
+}
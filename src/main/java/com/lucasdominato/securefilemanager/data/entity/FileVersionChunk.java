@@ -0,0 +1,56 @@
+package com.lucasdominato.securefilemanager.data.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+/**
+ * Manifest entry of a file version: the chunk at the given position and the file_content holding it.
+ * Each entry holds one reference on its content.
+ */
+@Getter
+@Setter
+@Entity
+@IdClass(FileVersionChunk.Key.class)
+@Table(name = "file_version_chunks")
+public class FileVersionChunk {
+
+    @Id
+    @Column(name = "version_id")
+    private Long versionId;
+
+    @Id
+    @Column(name = "chunk_index")
+    private Integer chunkIndex;
+
+    /**
+     * Position of the chunk's first byte in the plain file content.
+     */
+    @Column(nullable = false)
+    private Long chunkOffset;
+
+    /**
+     * Plain size of the chunk.
+     */
+    @Column(nullable = false)
+    private Integer chunkSize;
+
+    @Column(nullable = false)
+    private Long contentId;
+
+    @Getter
+    @Setter
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Key implements Serializable {
+
+        private Long versionId;
+        private Integer chunkIndex;
+    }
+}
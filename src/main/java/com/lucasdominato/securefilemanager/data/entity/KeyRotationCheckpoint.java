@@ -0,0 +1,43 @@
+package com.lucasdominato.securefilemanager.data.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Progress of the re-encryption of all the stored contents with the keys of a given version.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "key_rotation_checkpoints")
+public class KeyRotationCheckpoint {
+
+    @Id
+    @EqualsAndHashCode.Include
+    private Integer keyVersion;
+
+    /**
+     * Every content up to this content id has been visited by the re-encryption job.
+     */
+    @Column(nullable = false)
+    private Long lastContentId;
+
+    @Column(nullable = false)
+    private Long reEncryptedContents;
+
+    @Column(nullable = false)
+    private Long reEncryptedBytes;
+
+    @Column(nullable = false)
+    private LocalDateTime startedDate;
+
+    @Column
+    private LocalDateTime completedDate;
+}
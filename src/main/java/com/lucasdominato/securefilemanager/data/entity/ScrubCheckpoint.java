@@ -0,0 +1,36 @@
+package com.lucasdominato.securefilemanager.data.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Position of the integrity scrubber in its current pass over the stored contents. There is a single row.
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "scrub_checkpoints")
+public class ScrubCheckpoint {
+
+    public static final long ID = 1L;
+
+    @Id
+    @EqualsAndHashCode.Include
+    private Long id;
+
+    @Column(nullable = false)
+    private Long lastContentId;
+
+    @Column(nullable = false)
+    private Long pass;
+
+    @Column(nullable = false)
+    private LocalDateTime passStartedDate;
+}
@@ -3,6 +3,7 @@ package com.lucasdominato.securefilemanager.data.entity;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
@@ -30,6 +31,21 @@ public class User extends Auditable {
     @Column(name = "date_of_birth", nullable = false)
     private LocalDate dateOfBirth;
 
+    /**
+     * Last sequence number handed out for this user's change log. Only ever incremented through
+     * UserRepository#incrementLastChangeSequence, never written back from the entity.
+     */
+    @Column(nullable = false, updatable = false)
+    @ColumnDefault("0")
+    private Long lastChangeSequence = 0L;
+
+    /**
+     * Content shard the user was moved to, where their new contents are written. When null, the shard is derived
+     * from the user id, see ContentShardService#resolveShard.
+     */
+    @Column(insertable = false, updatable = false)
+    private Integer contentShard;
+
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<File> files = new ArrayList<>();
 }
\ No newline at end of file
@@ -0,0 +1,16 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Where a cold content is stored: length bytes at offset in the given segment file.
+ */
+@Getter
+@AllArgsConstructor
+public class ColdSegmentLocation {
+
+    private final String segment;
+    private final long offset;
+    private final long length;
+}
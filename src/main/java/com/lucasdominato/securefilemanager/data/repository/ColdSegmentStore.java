@@ -0,0 +1,140 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cold tier of the encrypted contents: append-only segment files on a cheaper volume, shared by all the instances.
+ * Each instance appends to its own segment, named after a random instance id, and rolls to a new one once it reaches
+ * segment-size bytes or MAX_APPEND_AGE. Written bytes are never modified, a segment is only deleted as a whole.
+ */
+@Repository
+@Slf4j
+public class ColdSegmentStore {
+
+    /**
+     * How long a segment accepts appends after its creation. A segment not modified for longer than this is sealed,
+     * so none of the instances can append to it anymore.
+     */
+    public static final Duration MAX_APPEND_AGE = Duration.ofMinutes(10);
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final long segmentSize;
+    private final String instanceId = UUID.randomUUID().toString();
+    // a lock rather than a monitor, so a virtual thread blocked on the disk does not pin its carrier thread
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    private FileChannel activeChannel;
+    private String activeSegment;
+    private Instant activeCreated;
+    private int sequence;
+
+    public ColdSegmentStore(@Value("${securefilemanager.cold-storage.directory:cold-storage}") final String directory,
+                            @Value("${securefilemanager.cold-storage.segment-size:1073741824}") final long segmentSize) {
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Appends the content to the active segment and forces it to the disk, so the returned location stays readable
+     * after a crash. A failed append leaves at most unreferenced bytes behind.
+     */
+    public ColdSegmentLocation append(final InputStream content) throws IOException {
+        appendLock.lock();
+        try {
+            if (activeChannel == null || activeChannel.size() >= segmentSize
+                    || activeCreated.plus(MAX_APPEND_AGE).isBefore(Instant.now())) {
+                roll();
+            }
+
+            long offset = activeChannel.size();
+            long length = 0;
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                while (byteBuffer.hasRemaining()) {
+                    activeChannel.write(byteBuffer, offset + length + byteBuffer.position());
+                }
+                length += read;
+            }
+            activeChannel.force(true);
+
+            return new ColdSegmentLocation(activeSegment, offset, length);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    public InputStream read(final ColdSegmentLocation location) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(location.getSegment()), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(location.getLength()));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, location.getOffset() + buffer.position()) == -1) {
+                    throw new IOException("Cold segment " + location.getSegment() + " is shorter than expected");
+                }
+            }
+            return new ByteArrayInputStream(buffer.array());
+        }
+    }
+
+    /**
+     * Returns the segments, of every instance, not modified since the given instant.
+     */
+    public List<String> findSegmentsNotModifiedSince(final Instant instant) throws IOException {
+        List<String> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : paths) {
+                try {
+                    if (Files.getLastModifiedTime(path).toInstant().isBefore(instant)) {
+                        segments.add(path.getFileName().toString());
+                    }
+                } catch (NoSuchFileException e) {
+                    // deleted meanwhile by another instance
+                }
+            }
+        }
+        return segments;
+    }
+
+    public void delete(final String segment) throws IOException {
+        Files.deleteIfExists(directory.resolve(segment));
+    }
+
+    private void roll() throws IOException {
+        if (activeChannel != null) {
+            activeChannel.close();
+        }
+        Files.createDirectories(directory);
+
+        activeSegment = instanceId + "-" + (++sequence) + SEGMENT_SUFFIX;
+        activeChannel = FileChannel.open(directory.resolve(activeSegment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        activeCreated = Instant.now();
+        log.info("Appending cold contents to segment {}", activeSegment);
+    }
+}
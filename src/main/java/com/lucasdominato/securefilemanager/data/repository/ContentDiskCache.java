@@ -0,0 +1,189 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Node-local read-through cache of encrypted contents on local disk, so the most downloaded contents are not read
+ * from PostgreSQL again. Only ciphertext is cached, exactly as stored, never plaintext.
+ * Entries are keyed by (content id, key version): a content re-encrypted by another instance becomes a different
+ * entry and the stale one ages out. The cache holds at most max-size bytes, evicted with Caffeine's W-TinyLFU policy,
+ * so a scan over many contents read once does not flush the frequently read ones.
+ */
+@Repository
+@Slf4j
+public class ContentDiskCache {
+
+    private static final String ENTRY_SUFFIX = ".bin";
+    private static final Pattern ENTRY_FILE_NAME = Pattern.compile("\\d+-\\d+\\.(bin|tmp)");
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxEntrySize;
+    private final Cache<Key, Entry> cache;
+
+    public ContentDiskCache(final MeterRegistry meterRegistry,
+                            @Value("${securefilemanager.content-cache.enabled:false}") final boolean enabled,
+                            @Value("${securefilemanager.content-cache.directory:content-cache}") final String directory,
+                            @Value("${securefilemanager.content-cache.max-size:1073741824}") final long maxSize,
+                            @Value("${securefilemanager.content-cache.max-entry-size:16777216}") final long maxEntrySize) throws IOException {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.maxEntrySize = maxEntrySize;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSize)
+                .<Key, Entry>weigher((key, entry) -> (int) entry.size())
+                .removalListener((key, entry, cause) -> {
+                    if (entry != null) {
+                        deleteFile(entry.path());
+                    }
+                })
+                .executor(Runnable::run)
+                .recordStats()
+                .build();
+
+        if (enabled) {
+            clearDirectory();
+        }
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "content-disk-cache");
+        Gauge.builder("securefilemanager.content-cache.size", this, ContentDiskCache::weightedSize)
+                .description("Encrypted content held by the local disk cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the cached content, if it is cached with the given key version.
+     */
+    public Optional<EncryptedFileContent> get(final Long contentId, final int keyVersion) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+
+        Key key = new Key(contentId, keyVersion);
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(new EncryptedFileContent(keyVersion, Files.newInputStream(entry.path())));
+        } catch (IOException e) {
+            log.warn("Failed to read cached content {}, reading it from the database", contentId, e);
+            cache.asMap().remove(key, entry);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Caches the content read from the database and returns it, readable again.
+     */
+    public EncryptedFileContent put(final Long contentId, final EncryptedFileContent content) throws IOException {
+        if (!enabled) {
+            return content;
+        }
+
+        byte[] bytes;
+        try (InputStream inputStream = content.getContent()) {
+            bytes = inputStream.readAllBytes();
+        }
+
+        Key key = new Key(contentId, content.getKeyVersion());
+        if (bytes.length <= maxEntrySize && cache.getIfPresent(key) == null) {
+            try {
+                Files.createDirectories(directory);
+                Path temporary = Files.createTempFile(directory, contentId + "-", ".tmp");
+                Files.write(temporary, bytes);
+                Path path = Files.move(temporary, temporary.resolveSibling(temporary.getFileName().toString()
+                        .replace(".tmp", ENTRY_SUFFIX)), StandardCopyOption.ATOMIC_MOVE);
+
+                if (cache.asMap().putIfAbsent(key, new Entry(path, bytes.length)) != null) {
+                    deleteFile(path);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to cache content {}", contentId, e);
+            }
+        }
+
+        return new EncryptedFileContent(content.getKeyVersion(), new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Drops every cached key version of the given contents, e.g. after they were re-encrypted or purged.
+     */
+    public void invalidate(final Collection<Long> contentIds) {
+        if (enabled && !contentIds.isEmpty()) {
+            cache.asMap().keySet().removeIf(key -> contentIds.contains(key.contentId()));
+        }
+    }
+
+    private long weightedSize() {
+        return cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0))
+                .orElse(0L);
+    }
+
+    /**
+     * Deletes the entries left by a previous run. Refuses to touch a directory holding anything else, as it is
+     * likely a misconfiguration pointing at stored data.
+     */
+    private void clearDirectory() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path : paths) {
+                if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) || !ENTRY_FILE_NAME.matcher(path.getFileName().toString()).matches()) {
+                    throw new IllegalStateException("Content cache directory " + directory.toAbsolutePath()
+                            + " holds " + path.getFileName() + ", which is not a cache entry. Configure an empty directory of its own.");
+                }
+                entries.add(path);
+            }
+        }
+        entries.forEach(this::deleteFile);
+    }
+
+    private void deleteFile(final Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete cached content file {}", path, e);
+        }
+    }
+
+    private record Key(Long contentId, int keyVersion) {
+    }
+
+    /**
+     * A cached content: its file, named uniquely so deleting an evicted entry never removes the file of a newer one.
+     */
+    private record Entry(Path path, long size) {
+    }
+}
@@ -0,0 +1,9 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import com.lucasdominato.securefilemanager.data.entity.ContentIntegrityCheck;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface ContentIntegrityCheckRepository extends JpaRepository<ContentIntegrityCheck, Long> {
+
+    long countByValidFalse();
+}
@@ -0,0 +1,8 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+/**
+ * A stored content with its owner, the key file_content is partitioned by: lookups by both only probe
+ * the owner's partition.
+ */
+public record ContentKey(Long userId, Long contentId) {
+}
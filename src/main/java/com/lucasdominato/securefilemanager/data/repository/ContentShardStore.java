@@ -0,0 +1,135 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Encrypted contents stored on the shard databases, keyed by their file_content id. Shard 0 is the primary itself,
+ * whose contents stay in file_content, so the shards held here are numbered from 1. A shard holds no metadata:
+ * file_content tells which shard a content is on, and a shard row without a matching file_content is an orphan.
+ * The sweeper marks the orphans it finds and removes them once they stayed orphaned for the grace period.
+ * The shard schema is migrated by Flyway, from db/shard-migration, when the shard pools are created.
+ */
+public class ContentShardStore implements AutoCloseable {
+
+    public static final int PRIMARY_SHARD = 0;
+
+    private final Map<Integer, DataSource> dataSources;
+    private final Map<Integer, JdbcTemplate> jdbcTemplates = new LinkedHashMap<>();
+
+    public ContentShardStore(final Map<Integer, DataSource> dataSources) {
+        this.dataSources = Collections.unmodifiableMap(new LinkedHashMap<>(dataSources));
+        dataSources.forEach((shard, dataSource) -> jdbcTemplates.put(shard, new JdbcTemplate(dataSource)));
+    }
+
+    public Set<Integer> getShards() {
+        return dataSources.keySet();
+    }
+
+    public boolean contains(int shard) {
+        return dataSources.containsKey(shard);
+    }
+
+    /**
+     * Writes, or overwrites, the content and commits it right away. Returns its length in bytes.
+     */
+    public long write(int shard, long contentId, int keyVersion, InputStream inputStream) {
+        // An overwrite clears the orphan mark, so a content moved back to this shard starts out referenced again
+        final String sql = "INSERT INTO content_blobs (content_id, key_version, content) VALUES (?, ?, ?) " +
+                "ON CONFLICT (content_id) DO UPDATE SET key_version = EXCLUDED.key_version, content = EXCLUDED.content, " +
+                "written_date = CURRENT_TIMESTAMP, orphaned_date = NULL RETURNING octet_length(content)";
+
+        return jdbcTemplate(shard).query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setLong(1, contentId);
+            statement.setInt(2, keyVersion);
+            statement.setBinaryStream(3, inputStream);
+            return statement;
+        }, resultSet -> {
+            resultSet.next();
+            return resultSet.getLong(1);
+        });
+    }
+
+    public Optional<EncryptedFileContent> read(int shard, long contentId) {
+        final String sql = "SELECT key_version, content FROM content_blobs WHERE content_id = ?";
+
+        return jdbcTemplate(shard).query(sql, (resultSet, rowNum) -> new EncryptedFileContent(resultSet.getInt("key_version"),
+                        new ByteArrayInputStream(resultSet.getBytes("content"))), contentId)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Returns, in content id order, up to limit ids of contents after the given content id.
+     */
+    public List<Long> findContentIdsAfter(int shard, long afterContentId, int limit) {
+        final String sql = "SELECT content_id FROM content_blobs WHERE content_id > ? ORDER BY content_id LIMIT ?";
+
+        return jdbcTemplate(shard).queryForList(sql, Long.class, afterContentId, limit);
+    }
+
+    /**
+     * Marks the given contents as orphaned from now on, unless they already are. Returns the number of contents marked.
+     */
+    public int markOrphans(int shard, List<Long> contentIds) {
+        final String sql = "UPDATE content_blobs SET orphaned_date = CURRENT_TIMESTAMP WHERE content_id = ANY(?) AND orphaned_date IS NULL";
+
+        return jdbcTemplate(shard).update(sql, statement ->
+                statement.setArray(1, statement.getConnection().createArrayOf("bigint", contentIds.toArray())));
+    }
+
+    /**
+     * Clears the orphan mark of the given contents, referenced again since they were marked.
+     */
+    public int clearOrphans(int shard, List<Long> contentIds) {
+        final String sql = "UPDATE content_blobs SET orphaned_date = NULL WHERE content_id = ANY(?) AND orphaned_date IS NOT NULL";
+
+        return jdbcTemplate(shard).update(sql, statement ->
+                statement.setArray(1, statement.getConnection().createArrayOf("bigint", contentIds.toArray())));
+    }
+
+    /**
+     * Deletes the given contents if they were marked as orphaned for longer than the grace period, by the shard's clock.
+     */
+    public int deleteOrphans(int shard, List<Long> contentIds, Duration grace) {
+        final String sql = "DELETE FROM content_blobs WHERE content_id = ANY(?) " +
+                "AND orphaned_date < CURRENT_TIMESTAMP - ? * interval '1 millisecond'";
+
+        return jdbcTemplate(shard).update(sql, statement -> {
+            statement.setArray(1, statement.getConnection().createArrayOf("bigint", contentIds.toArray()));
+            statement.setLong(2, grace.toMillis());
+        });
+    }
+
+    /**
+     * Closes the shard pools with the application context.
+     */
+    @Override
+    public void close() throws Exception {
+        for (DataSource dataSource : dataSources.values()) {
+            if (dataSource instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    private JdbcTemplate jdbcTemplate(int shard) {
+        JdbcTemplate jdbcTemplate = jdbcTemplates.get(shard);
+        if (jdbcTemplate == null) {
+            throw new IllegalStateException("Content shard " + shard + " is not configured");
+        }
+        return jdbcTemplate;
+    }
+}
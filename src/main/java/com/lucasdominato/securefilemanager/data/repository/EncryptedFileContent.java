@@ -0,0 +1,14 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.InputStream;
+
+@Getter
+@AllArgsConstructor
+public class EncryptedFileContent {
+
+    private final int keyVersion;
+    private final InputStream content;
+}
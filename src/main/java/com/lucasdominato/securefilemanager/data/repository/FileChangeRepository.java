@@ -0,0 +1,18 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import com.lucasdominato.securefilemanager.data.entity.FileChange;
+import com.lucasdominato.securefilemanager.dto.response.FileChangeDTO;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface FileChangeRepository extends JpaRepository<FileChange, Long> {
+
+    @Query("SELECT new com.lucasdominato.securefilemanager.dto.response.FileChangeDTO(c.sequenceNumber, c.fileId, c.changeType, c.changedAt) " +
+            "FROM FileChange c WHERE c.userId = (SELECT u.id FROM User u WHERE u.username = :username) " +
+            "AND c.sequenceNumber > :after ORDER BY c.sequenceNumber")
+    List<FileChangeDTO> findChangesAfter(@Param("username") String username, @Param("after") long after, Pageable pageable);
+}
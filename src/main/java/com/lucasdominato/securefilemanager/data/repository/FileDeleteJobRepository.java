@@ -0,0 +1,19 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import com.lucasdominato.securefilemanager.data.entity.FileDeleteJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Optional;
+
+public interface FileDeleteJobRepository extends JpaRepository<FileDeleteJob, Long> {
+
+    @Query("SELECT j FROM FileDeleteJob j WHERE j.id = :id AND j.userId = (SELECT u.id FROM User u WHERE u.username = :username)")
+    Optional<FileDeleteJob> findByIdAndUsername(@Param("id") Long id, @Param("username") String username);
+
+    @Modifying
+    @Query(value = "UPDATE file_delete_jobs SET total_files = total_files + :count WHERE id = :id", nativeQuery = true)
+    int incrementTotalFiles(@Param("id") Long id, @Param("count") int count);
+}
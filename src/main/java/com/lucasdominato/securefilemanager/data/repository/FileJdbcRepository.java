@@ -1,54 +1,428 @@
 package com.lucasdominato.securefilemanager.data.repository;
 
+import com.lucasdominato.securefilemanager.config.DataSourceConfig;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
+/**
+ * Content store. The encrypted contents are written and read on the blob connection pool, or on their content shard,
+ * outside of the caller's transaction; the reference counting and the background moves of contents use the
+ * metadata pool. The file_content rows stay on the primary wherever the encrypted bytes are.
+ */
 @Repository
 @Slf4j
 public class FileJdbcRepository {
 
+    private static final String CONTENT_COLUMNS = "id, key_version, content, cold_segment, cold_offset, cold_length, shard";
+
     private final JdbcTemplate jdbcTemplate;
+    private final DataSource blobDataSource;
+    private final JdbcTemplate blobJdbcTemplate;
+    private final ColdSegmentStore coldSegmentStore;
+    private final ContentShardStore contentShardStore;
 
-    public FileJdbcRepository(JdbcTemplate jdbcTemplate) {
+    public FileJdbcRepository(JdbcTemplate jdbcTemplate,
+                              @Qualifier(DataSourceConfig.BLOB_DATA_SOURCE) DataSource blobDataSource,
+                              ColdSegmentStore coldSegmentStore,
+                              ContentShardStore contentShardStore) {
         this.jdbcTemplate = jdbcTemplate;
+        this.blobDataSource = blobDataSource;
+        this.blobJdbcTemplate = new JdbcTemplate(blobDataSource);
+        this.coldSegmentStore = coldSegmentStore;
+        this.contentShardStore = contentShardStore;
+    }
+
+    /**
+     * Inserts, and commits right away, a content without references. If the user already has a content with the
+     * same fingerprint, e.g. inserted concurrently, that one is touched instead. Returns the id of the content.
+     * The caller's transaction takes the reference; if it rolls back, the content is purged as unreferenced.
+     */
+    public Long insertContent(Long userId, byte[] fingerprint, InputStream inputStream, int keyVersion, int shard) {
+        if (shard != ContentShardStore.PRIMARY_SHARD) {
+            return insertShardContent(userId, fingerprint, inputStream, keyVersion, shard);
+        }
+
+        final String sql = "INSERT INTO file_content (user_id, fingerprint, content, key_version, ref_count) VALUES (?, ?, ?, ?, 0) " +
+                "ON CONFLICT (user_id, fingerprint) DO UPDATE SET last_accessed_date = CURRENT_TIMESTAMP RETURNING id";
+
+        return blobJdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setLong(1, userId);
+            statement.setBytes(2, fingerprint);
+            statement.setBinaryStream(3, inputStream);
+            statement.setInt(4, keyVersion);
+            return statement;
+        }, resultSet -> {
+            resultSet.next();
+            return resultSet.getLong(1);
+        });
+    }
+
+    /**
+     * Writes the content to the shard under a new content id before inserting its row, so the row is never visible
+     * before its bytes. If the user already has a content with the same fingerprint, that one is touched instead
+     * and the bytes just written are left to the shard sweeper.
+     */
+    private Long insertShardContent(Long userId, byte[] fingerprint, InputStream inputStream, int keyVersion, int shard) {
+        final String sequenceSql = "SELECT nextval(pg_get_serial_sequence('file_content', 'id'))";
+        final String sql = "INSERT INTO file_content (id, user_id, fingerprint, key_version, ref_count, shard, shard_length) " +
+                "VALUES (?, ?, ?, ?, 0, ?, ?) ON CONFLICT (user_id, fingerprint) DO UPDATE SET last_accessed_date = CURRENT_TIMESTAMP RETURNING id";
+
+        Long contentId = Objects.requireNonNull(blobJdbcTemplate.queryForObject(sequenceSql, Long.class));
+        long length = contentShardStore.write(shard, contentId, keyVersion, inputStream);
+
+        return blobJdbcTemplate.queryForObject(sql, Long.class, contentId, userId, fingerprint, keyVersion, shard, length);
+    }
+
+    /**
+     * Touches, and commits right away, the user's content with the given fingerprint, if there is one, so it is
+     * not purged before the caller's transaction takes its reference. Returns the id of the content.
+     */
+    public Optional<Long> touchContent(Long userId, byte[] fingerprint) {
+        final String sql = "UPDATE file_content SET last_accessed_date = CURRENT_TIMESTAMP WHERE user_id = ? AND fingerprint = ? RETURNING id";
+
+        return blobJdbcTemplate.queryForList(sql, Long.class, userId, fingerprint).stream().findFirst();
+    }
+
+    /**
+     * Deletes up to limit contents no file version references anymore and not touched for the grace period,
+     * skipping the ones locked by another purger. The ref_count is checked again on the locked row, so a content
+     * referenced meanwhile is kept. The grace is measured by the database clock, the one last_accessed_date is
+     * written with. Returns the (content id, size) pairs of the deleted contents.
+     */
+    public Map<Long, Long> deleteUnreferencedContents(Duration grace, int limit) {
+        final String sql = "WITH purged AS (DELETE FROM file_content WHERE ref_count = 0 AND id IN " +
+                "(SELECT id FROM file_content WHERE ref_count = 0 " +
+                "AND last_accessed_date < CURRENT_TIMESTAMP - ? * interval '1 millisecond' LIMIT ? FOR UPDATE SKIP LOCKED) " +
+                "RETURNING id, coalesce(octet_length(content), cold_length, shard_length) AS size) SELECT id, size FROM purged";
+
+        Map<Long, Long> sizesByContentId = new LinkedHashMap<>();
+        jdbcTemplate.query(sql, resultSet -> {
+            sizesByContentId.put(resultSet.getLong("id"), resultSet.getLong("size"));
+        }, grace.toMillis(), limit);
+        return sizesByContentId;
+    }
+
+    /**
+     * Returns the content from whichever tier it is stored in.
+     */
+    public EncryptedFileContent getFileContentById(Long userId, Long contentId) {
+        final String sql = "SELECT " + CONTENT_COLUMNS + " FROM file_content WHERE user_id = ? AND id = ?";
+
+        return getEncryptedContent(sql, userId, contentId);
+    }
+
+    /**
+     * Returns the key version of each of the given contents of the user that still exists.
+     */
+    public Map<Long, Integer> findKeyVersions(Long userId, List<Long> contentIds) {
+        final String sql = "SELECT id, key_version FROM file_content WHERE user_id = ? AND id = ANY(?)";
+
+        Map<Long, Integer> keyVersionsByContentId = new LinkedHashMap<>();
+        jdbcTemplate.query(sql, statement -> {
+                    statement.setLong(1, userId);
+                    statement.setArray(2, statement.getConnection().createArrayOf("bigint", contentIds.toArray()));
+                }, resultSet -> {
+                    keyVersionsByContentId.put(resultSet.getLong("id"), resultSet.getInt("key_version"));
+                });
+        return keyVersionsByContentId;
     }
 
-    public void upsertFileContent(Long fileId, InputStream inputStream) {
-        final String sql = "INSERT INTO file_content (file_id, content) VALUES (?, ?) ON CONFLICT (file_id) DO UPDATE SET content = EXCLUDED.content";
+    /**
+     * Returns, in content id order, up to limit (content, size) pairs after the given content id
+     * that are not encrypted with the given key version.
+     */
+    public Map<ContentKey, Long> findContentSizesToReEncrypt(long afterContentId, int keyVersion, int limit) {
+        final String sql = "SELECT id, user_id, coalesce(octet_length(content), cold_length, shard_length) AS size FROM file_content " +
+                "WHERE id > ? AND key_version <> ? ORDER BY id LIMIT ?";
+
+        Map<ContentKey, Long> sizesByContent = new LinkedHashMap<>();
+        jdbcTemplate.query(sql, resultSet -> {
+            sizesByContent.put(new ContentKey(resultSet.getLong("user_id"), resultSet.getLong("id")), resultSet.getLong("size"));
+        }, afterContentId, keyVersion, limit);
+        return sizesByContent;
+    }
+
+    /**
+     * Returns whether any stored content is still encrypted with another key version than the given one.
+     */
+    public boolean existsContentNotEncryptedWith(int keyVersion) {
+        final String sql = "SELECT EXISTS (SELECT 1 FROM file_content WHERE key_version <> ?)";
+
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(sql, Boolean.class, keyVersion));
+    }
+
+    /**
+     * Returns, in content id order, up to limit (content, size) pairs after the given content id.
+     */
+    public Map<ContentKey, Long> findContentSizesAfter(long afterContentId, int limit) {
+        final String sql = "SELECT id, user_id, coalesce(octet_length(content), cold_length, shard_length) AS size FROM file_content " +
+                "WHERE id > ? ORDER BY id LIMIT ?";
+
+        Map<ContentKey, Long> sizesByContent = new LinkedHashMap<>();
+        jdbcTemplate.query(sql, resultSet -> {
+            sizesByContent.put(new ContentKey(resultSet.getLong("user_id"), resultSet.getLong("id")), resultSet.getLong("size"));
+        }, afterContentId, limit);
+        return sizesByContent;
+    }
+
+    /**
+     * Returns, in content id order, up to limit (content id, fingerprint) pairs after the given content id.
+     */
+    public Map<Long, byte[]> findFingerprintsAfter(long afterContentId, int limit) {
+        final String sql = "SELECT id, fingerprint FROM file_content WHERE id > ? ORDER BY id LIMIT ?";
+
+        Map<Long, byte[]> fingerprintsByContentId = new LinkedHashMap<>();
+        jdbcTemplate.query(sql, resultSet -> {
+            fingerprintsByContentId.put(resultSet.getLong("id"), resultSet.getBytes("fingerprint"));
+        }, afterContentId, limit);
+        return fingerprintsByContentId;
+    }
+
+    /**
+     * Locks and returns the content unless it is already encrypted with the given key version,
+     * e.g. because another instance re-encrypted it since it was selected.
+     */
+    public Optional<EncryptedFileContent> lockContentToReEncrypt(Long userId, Long contentId, int keyVersion) {
+        final String sql = "SELECT " + CONTENT_COLUMNS + " FROM file_content WHERE user_id = ? AND id = ? AND key_version <> ? FOR UPDATE";
+
+        return jdbcTemplate.query(sql, (resultSet, rowNum) -> readEncryptedContent(resultSet), userId, contentId, keyVersion)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Replaces the content in the tier it is stored in: on its content shard, in a new cold segment, or in the hot
+     * tier of the primary. A shard commits the new content right away, along with its key version, so it stays
+     * readable even if the caller's transaction rolls back; a cold copy is forced to the disk before the row points
+     * at it, and the previous segment is left to the segment sweeper.
+     */
+    public void updateContent(Long userId, Long contentId, InputStream inputStream, int keyVersion) throws IOException {
+        final String tierSql = "SELECT shard, cold_segment FROM file_content WHERE user_id = ? AND id = ?";
+        ContentTier tier = jdbcTemplate.queryForObject(tierSql, (resultSet, rowNum) -> new ContentTier(
+                resultSet.getObject("shard", Integer.class), resultSet.getString("cold_segment")), userId, contentId);
+
+        if (tier.shard() != null) {
+            contentShardStore.write(tier.shard(), contentId, keyVersion, inputStream);
+            jdbcTemplate.update("UPDATE file_content SET key_version = ? WHERE user_id = ? AND id = ?", keyVersion, userId, contentId);
+            return;
+        }
+
+        if (tier.coldSegment() != null) {
+            final String coldSql = "UPDATE file_content SET key_version = ?, cold_segment = ?, cold_offset = ?, cold_length = ? " +
+                    "WHERE user_id = ? AND id = ?";
+
+            ColdSegmentLocation location = coldSegmentStore.append(inputStream);
+            jdbcTemplate.update(coldSql, keyVersion, location.getSegment(), location.getOffset(), location.getLength(), userId, contentId);
+            return;
+        }
+
+        final String sql = "UPDATE file_content SET content = ?, key_version = ? WHERE user_id = ? AND id = ?";
 
         jdbcTemplate.update(connection -> {
             PreparedStatement statement = connection.prepareStatement(sql);
-            statement.setLong(1, fileId);
-            statement.setBinaryStream(2, inputStream);
+            statement.setBinaryStream(1, inputStream);
+            statement.setInt(2, keyVersion);
+            statement.setLong(3, userId);
+            statement.setLong(4, contentId);
             return statement;
         });
     }
 
-    public InputStream getFileContentStreamByFileId(Long fileId) {
-        final String sql = "SELECT content FROM file_content WHERE file_id = ?";
+    /**
+     * Returns, least recently accessed first, up to limit hot contents of at least minSize bytes
+     * not accessed since the given date.
+     */
+    public List<Long> findContentsToDemote(LocalDateTime accessedBefore, long minSize, int limit) {
+        final String sql = "SELECT id FROM file_content WHERE cold_segment IS NULL AND shard IS NULL AND last_accessed_date < ? " +
+                "AND octet_length(content) >= ? ORDER BY last_accessed_date LIMIT ?";
+
+        return jdbcTemplate.queryForList(sql, Long.class, Timestamp.valueOf(accessedBefore), minSize, limit);
+    }
+
+    /**
+     * Locks and returns the encrypted bytes of the content if it is still hot and not accessed since the given date,
+     * skipping it if another instance is moving or re-encrypting it.
+     */
+    public Optional<byte[]> lockContentToDemote(Long contentId, LocalDateTime accessedBefore) {
+        final String sql = "SELECT content FROM file_content WHERE id = ? AND cold_segment IS NULL AND shard IS NULL " +
+                "AND last_accessed_date < ? FOR UPDATE SKIP LOCKED";
 
-        DataSource dataSource = Objects.requireNonNull(jdbcTemplate.getDataSource());
+        return jdbcTemplate.query(sql, (resultSet, rowNum) -> resultSet.getBytes("content"), contentId, Timestamp.valueOf(accessedBefore))
+                .stream()
+                .findFirst();
+    }
 
-        try (Connection connection = dataSource.getConnection()) {
+    public void moveContentToCold(Long contentId, ColdSegmentLocation location) {
+        final String sql = "UPDATE file_content SET content = NULL, cold_segment = ?, cold_offset = ?, cold_length = ? WHERE id = ?";
+
+        jdbcTemplate.update(sql, location.getSegment(), location.getOffset(), location.getLength(), contentId);
+    }
+
+    /**
+     * Locks and returns the location of the content if it is still cold, skipping it if another instance holds it.
+     */
+    public Optional<ColdSegmentLocation> lockContentToPromote(Long contentId) {
+        final String sql = "SELECT cold_segment, cold_offset, cold_length FROM file_content WHERE id = ? AND cold_segment IS NOT NULL " +
+                "FOR UPDATE SKIP LOCKED";
+
+        return jdbcTemplate.query(sql, (resultSet, rowNum) -> new ColdSegmentLocation(resultSet.getString("cold_segment"),
+                        resultSet.getLong("cold_offset"), resultSet.getLong("cold_length")), contentId)
+                .stream()
+                .findFirst();
+    }
+
+    public void moveContentToHot(Long contentId, InputStream inputStream) {
+        final String sql = "UPDATE file_content SET content = ?, cold_segment = NULL, cold_offset = NULL, cold_length = NULL WHERE id = ?";
+
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setBinaryStream(1, inputStream);
+            statement.setLong(2, contentId);
+            return statement;
+        });
+    }
+
+    /**
+     * Records the access of the given contents and returns the ones stored in the cold tier.
+     */
+    public List<Long> updateLastAccessedDate(List<Long> contentIds, LocalDateTime accessedDate) {
+        final String sql = "UPDATE file_content SET last_accessed_date = ? WHERE id = ANY(?) RETURNING id, cold_segment";
+
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setTimestamp(1, Timestamp.valueOf(accessedDate));
+            statement.setArray(2, connection.createArrayOf("bigint", contentIds.toArray()));
+            return statement;
+        }, (resultSet, rowNum) -> resultSet.getString("cold_segment") != null ? resultSet.getLong("id") : null)
+                .stream()
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    public boolean isColdSegmentReferenced(String segment) {
+        final String sql = "SELECT EXISTS (SELECT 1 FROM file_content WHERE cold_segment = ?)";
+
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(sql, Boolean.class, segment));
+    }
+
+    /**
+     * Returns, in content id order, up to limit ids after the given content id of the user's contents to move to
+     * the given shard. Contents in the cold tier stay there.
+     */
+    public List<Long> findContentIdsToMove(Long userId, int shard, long afterContentId, int limit) {
+        final String sql = "SELECT id FROM file_content WHERE user_id = ? AND id > ? AND cold_segment IS NULL " +
+                "AND coalesce(shard, 0) <> ? ORDER BY id LIMIT ?";
+
+        return jdbcTemplate.queryForList(sql, Long.class, userId, afterContentId, shard, limit);
+    }
+
+    /**
+     * Locks and returns the content unless it is already on the given shard or in the cold tier,
+     * skipping it if another instance is moving or re-encrypting it.
+     */
+    public Optional<EncryptedFileContent> lockContentToMove(Long contentId, int shard) {
+        final String sql = "SELECT " + CONTENT_COLUMNS + " FROM file_content WHERE id = ? AND cold_segment IS NULL " +
+                "AND coalesce(shard, 0) <> ? FOR UPDATE SKIP LOCKED";
+
+        return jdbcTemplate.query(sql, (resultSet, rowNum) -> readEncryptedContent(resultSet), contentId, shard)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Stores the content on the given shard and points its row at it. The copy left on the previous shard is
+     * removed by the shard sweeper, so downloads that already read the row can still read it.
+     */
+    public void moveContentToShard(Long contentId, int shard, EncryptedFileContent encryptedFileContent) {
+        if (shard == ContentShardStore.PRIMARY_SHARD) {
+            final String sql = "UPDATE file_content SET content = ?, key_version = ?, shard = NULL, shard_length = NULL WHERE id = ?";
+
+            jdbcTemplate.update(connection -> {
+                PreparedStatement statement = connection.prepareStatement(sql);
+                statement.setBinaryStream(1, encryptedFileContent.getContent());
+                statement.setInt(2, encryptedFileContent.getKeyVersion());
+                statement.setLong(3, contentId);
+                return statement;
+            });
+            return;
+        }
+
+        final String sql = "UPDATE file_content SET content = NULL, key_version = ?, shard = ?, shard_length = ? WHERE id = ?";
+
+        long length = contentShardStore.write(shard, contentId, encryptedFileContent.getKeyVersion(), encryptedFileContent.getContent());
+        jdbcTemplate.update(sql, encryptedFileContent.getKeyVersion(), shard, length, contentId);
+    }
+
+    /**
+     * Returns the given contents whose row still points at the given shard.
+     */
+    public List<Long> findContentIdsOnShard(List<Long> contentIds, int shard) {
+        final String sql = "SELECT id FROM file_content WHERE id = ANY(?) AND shard = ?";
+
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setArray(1, connection.createArrayOf("bigint", contentIds.toArray()));
+            statement.setInt(2, shard);
+            return statement;
+        }, (resultSet, rowNum) -> resultSet.getLong("id"));
+    }
+
+    private EncryptedFileContent readEncryptedContent(ResultSet resultSet) throws SQLException {
+        int shard = resultSet.getInt("shard");
+        if (resultSet.wasNull()) {
+            return new EncryptedFileContent(resultSet.getInt("key_version"), readContent(resultSet));
+        }
+
+        long contentId = resultSet.getLong("id");
+        return contentShardStore.read(shard, contentId)
+                .orElseThrow(() -> new SQLException("File content " + contentId + " not found on content shard " + shard));
+    }
+
+    private InputStream readContent(ResultSet resultSet) throws SQLException {
+        String coldSegment = resultSet.getString("cold_segment");
+        if (coldSegment == null) {
+            return resultSet.getBinaryStream("content");
+        }
+
+        try {
+            return coldSegmentStore.read(new ColdSegmentLocation(coldSegment, resultSet.getLong("cold_offset"), resultSet.getLong("cold_length")));
+        } catch (IOException e) {
+            throw new SQLException("Failed to read cold segment " + coldSegment, e);
+        }
+    }
+
+    private EncryptedFileContent getEncryptedContent(String sql, Long userId, Long id) {
+        try (Connection connection = blobDataSource.getConnection()) {
             connection.setAutoCommit(false);
             try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-                preparedStatement.setLong(1, fileId);
+                preparedStatement.setLong(1, userId);
+                preparedStatement.setLong(2, id);
                 preparedStatement.setFetchSize(1);
 
                 try (ResultSet resultSet = preparedStatement.executeQuery()) {
                     if (resultSet.next()) {
-                        return resultSet.getBinaryStream("content");
+                        return readEncryptedContent(resultSet);
                     } else {
-                        throw new SQLException("File content not found for ID: " + fileId);
+                        throw new SQLException("File content not found for ID: " + id);
                     }
                 }
             }
@@ -56,4 +430,7 @@ public class FileJdbcRepository {
             throw new RuntimeException(e);
         }
     }
-}
\ No newline at end of file
+
+    private record ContentTier(Integer shard, String coldSegment) {
+    }
+}
@@ -0,0 +1,192 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import com.lucasdominato.securefilemanager.dto.response.FileExportDTO;
+import com.lucasdominato.securefilemanager.dto.response.FileSearchResultDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+@Repository
+@Slf4j
+public class FileMetadataJdbcRepository {
+
+    private static final RowMapper<FileSearchResultDTO> SEARCH_RESULT_ROW_MAPPER = (resultSet, rowNum) -> new FileSearchResultDTO(
+            resultSet.getLong("id"),
+            resultSet.getString("name"),
+            resultSet.getString("description"),
+            resultSet.getString("content_type"),
+            resultSet.getLong("file_size"),
+            resultSet.getFloat("score")
+    );
+
+    private static final RowMapper<FileExportDTO> EXPORT_ROW_MAPPER = (resultSet, rowNum) -> new FileExportDTO(
+            resultSet.getLong("id"),
+            resultSet.getString("name"),
+            resultSet.getString("description"),
+            resultSet.getString("content_type"),
+            resultSet.getLong("file_size"),
+            resultSet.getTimestamp("created_date").toLocalDateTime(),
+            resultSet.getTimestamp("last_modified_date").toLocalDateTime()
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FileMetadataJdbcRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Ranked search over the user's file names and descriptions.
+     * Matches come from the GIN indexes on search_vector (full-text) and lower(name) (trigram prefix/fuzzy),
+     * results are ordered by (score, id) descending and paged with a keyset after the given score and id.
+     */
+    public List<FileSearchResultDTO> search(String username, String query, Float afterScore, Long afterId, int limit) {
+        StringBuilder sql = new StringBuilder("""
+                SELECT f.id, f.name, f.description, f.content_type, f.file_size, s.score
+                FROM files f
+                JOIN users u ON u.id = f.user_id
+                CROSS JOIN (SELECT websearch_to_tsquery('simple', ?) AS tsq, lower(?) AS term, lower(?) || '%' AS prefix) q
+                CROSS JOIN LATERAL (SELECT GREATEST(ts_rank(f.search_vector, q.tsq), similarity(lower(f.name), q.term)) AS score) s
+                WHERE u.username = ?
+                  AND f.deleted_date IS NULL
+                  AND (f.search_vector @@ q.tsq OR lower(f.name) LIKE q.prefix ESCAPE '\\' OR lower(f.name) % q.term)
+                """);
+
+        List<Object> args = new ArrayList<>(List.of(query, query, escapeLikePattern(query), username));
+
+        if (afterScore != null && afterId != null) {
+            sql.append("  AND (s.score, f.id) < (CAST(? AS real), ?)\n");
+            args.add(afterScore);
+            args.add(afterId);
+        }
+
+        sql.append("ORDER BY s.score DESC, f.id DESC LIMIT ?");
+        args.add(limit);
+
+        return jdbcTemplate.query(sql.toString(), SEARCH_RESULT_ROW_MAPPER, args.toArray());
+    }
+
+    /**
+     * Streams every file of the user, optionally modified since the given date, to the consumer row by row.
+     * Must run inside a transaction so PostgreSQL keeps a server-side cursor and only fetchSize rows are held in memory.
+     */
+    public void streamByUsername(String username, LocalDateTime since, int fetchSize, Consumer<FileExportDTO> consumer) {
+        StringBuilder sql = new StringBuilder("""
+                SELECT f.id, f.name, f.description, f.content_type, f.file_size, f.created_date, f.last_modified_date
+                FROM files f
+                JOIN users u ON u.id = f.user_id
+                WHERE u.username = ?
+                  AND f.deleted_date IS NULL
+                """);
+
+        if (since != null) {
+            sql.append("  AND f.last_modified_date >= ?\n");
+        }
+
+        sql.append("ORDER BY f.id");
+
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql.toString());
+            statement.setFetchSize(fetchSize);
+            statement.setString(1, username);
+            if (since != null) {
+                statement.setTimestamp(2, Timestamp.valueOf(since));
+            }
+            return statement;
+        }, resultSet -> {
+            consumer.accept(EXPORT_ROW_MAPPER.mapRow(resultSet, resultSet.getRow()));
+        });
+    }
+
+    /**
+     * Tombstones the next batch of at most limit live files of the user with an id above afterId matching all the
+     * given criteria (null criteria are ignored) and tags them with the delete job. Returns the ids of the deleted
+     * files, so the caller can continue after the highest one.
+     */
+    public List<Long> markDeleted(Long userId, String username, Long deleteJobId, LocalDateTime deletedDate,
+                                  List<Long> ids, LocalDateTime createdBefore, String contentType, String namePrefix,
+                                  long afterId, int limit) {
+        StringBuilder sql = new StringBuilder("""
+                UPDATE files
+                SET deleted_date = ?, delete_job_id = ?, last_modified_date = ?, last_modified_by = ?
+                WHERE user_id = ?
+                  AND id IN (
+                    SELECT id FROM files
+                    WHERE user_id = ?
+                      AND deleted_date IS NULL
+                      AND id > ?
+                """);
+
+        Timestamp deletedTimestamp = Timestamp.valueOf(deletedDate);
+        List<Object> args = new ArrayList<>(List.of(deletedTimestamp, deleteJobId, deletedTimestamp, username, userId, userId, afterId));
+
+        if (ids != null) {
+            sql.append("      AND id = ANY(?)\n");
+            args.add(ids.toArray(new Long[0]));
+        }
+        if (createdBefore != null) {
+            sql.append("      AND created_date < ?\n");
+            args.add(Timestamp.valueOf(createdBefore));
+        }
+        if (contentType != null) {
+            sql.append("      AND content_type = ?\n");
+            args.add(contentType);
+        }
+        if (namePrefix != null) {
+            sql.append("      AND lower(name) LIKE lower(?) || '%' ESCAPE '\\'\n");
+            args.add(escapeLikePattern(namePrefix));
+        }
+
+        sql.append("    ORDER BY id\n    LIMIT ?\n  )\nRETURNING id");
+        args.add(limit);
+
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql.toString());
+            for (int i = 0; i < args.size(); i++) {
+                Object arg = args.get(i);
+                if (arg instanceof Long[] array) {
+                    statement.setArray(i + 1, connection.createArrayOf("bigint", array));
+                } else {
+                    statement.setObject(i + 1, arg);
+                }
+            }
+            return statement;
+        }, (resultSet, rowNum) -> resultSet.getLong(1));
+    }
+
+    /**
+     * Locks up to limit files deleted before the given date, skipping rows already locked by another purger.
+     */
+    public List<Long> lockFilesDeletedBefore(LocalDateTime deletedBefore, int limit) {
+        final String sql = "SELECT id FROM files WHERE deleted_date < ? ORDER BY deleted_date LIMIT ? FOR UPDATE SKIP LOCKED";
+
+        return jdbcTemplate.queryForList(sql, Long.class, Timestamp.valueOf(deletedBefore), limit);
+    }
+
+    public int deleteFiles(List<Long> fileIds) {
+        final String sql = "DELETE FROM files WHERE id = ANY(?)";
+
+        return jdbcTemplate.update(sql, statement -> statement.setArray(1, statement.getConnection().createArrayOf("bigint", fileIds.toArray())));
+    }
+
+    public long countDeletedFiles() {
+        final String sql = "SELECT count(*) FROM files WHERE deleted_date IS NOT NULL";
+
+        return Objects.requireNonNull(jdbcTemplate.queryForObject(sql, Long.class));
+    }
+
+    private String escapeLikePattern(String value) {
+        return value.replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+    }
+}
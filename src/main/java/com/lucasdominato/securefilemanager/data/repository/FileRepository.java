@@ -1,13 +1,54 @@
 package com.lucasdominato.securefilemanager.data.repository;
 
 import com.lucasdominato.securefilemanager.data.entity.File;
+import com.lucasdominato.securefilemanager.dto.response.FileResponseDTO;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface FileRepository extends JpaRepository<File, Long> {
-    Page<File> findAllByUserUsername(String username, Pageable pageable);
-    Optional<File> findByIdAndUserUsername(Long id, String username);
+    Optional<File> findByIdAndUserUsernameAndDeletedDateIsNull(Long id, String username);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<File> findForUpdateByIdAndUserUsernameAndDeletedDateIsNull(Long id, String username);
+
+    List<File> findAllByIdInAndUserUsernameAndDeletedDateIsNull(Collection<Long> ids, String username);
+
+    @Query(value = "SELECT new com.lucasdominato.securefilemanager.dto.response.FileResponseDTO(f.id, f.name, f.description, f.contentType, f.fileSize) " +
+            "FROM File f WHERE f.user.username = :username AND f.deletedDate IS NULL",
+            countQuery = "SELECT count(f) FROM File f WHERE f.user.username = :username AND f.deletedDate IS NULL")
+    Page<FileResponseDTO> findDtoPageByUsername(@Param("username") String username, Pageable pageable);
+
+    @Query("SELECT new com.lucasdominato.securefilemanager.dto.response.FileResponseDTO(f.id, f.name, f.description, f.contentType, f.fileSize) " +
+            "FROM File f WHERE f.id = :id AND f.user.username = :username AND f.deletedDate IS NULL")
+    Optional<FileResponseDTO> findDtoByIdAndUsername(@Param("id") Long id, @Param("username") String username);
+
+    @Query("SELECT new com.lucasdominato.securefilemanager.dto.response.FileResponseDTO(f.id, f.name, f.description, f.contentType, f.fileSize) " +
+            "FROM File f WHERE f.id IN :ids AND f.user.username = :username AND f.deletedDate IS NULL")
+    List<FileResponseDTO> findDtosByIdsAndUsername(@Param("ids") Collection<Long> ids, @Param("username") String username);
+
+    /**
+     * Clears the tombstone of a file deleted after the given date, i.e. still inside the undo window.
+     * Returns 0 when the file does not exist, is not deleted, or is already eligible for purging.
+     */
+    @Modifying
+    @Query("UPDATE File f SET f.deletedDate = NULL, f.deleteJobId = NULL, f.lastModifiedDate = :now, f.lastModifiedBy = :username " +
+            "WHERE f.id = :id AND f.user.id = (SELECT u.id FROM User u WHERE u.username = :username) " +
+            "AND f.deletedDate >= :deletedAfter")
+    int restoreDeleted(@Param("id") Long id,
+                       @Param("username") String username,
+                       @Param("deletedAfter") LocalDateTime deletedAfter,
+                       @Param("now") LocalDateTime now);
+
+    long countByDeleteJobId(Long deleteJobId);
 }
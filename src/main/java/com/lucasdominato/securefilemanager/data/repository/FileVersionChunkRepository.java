@@ -0,0 +1,9 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import com.lucasdominato.securefilemanager.data.entity.FileVersionChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface FileVersionChunkRepository extends JpaRepository<FileVersionChunk, FileVersionChunk.Key> {
+}
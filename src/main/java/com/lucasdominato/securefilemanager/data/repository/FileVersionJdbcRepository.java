@@ -0,0 +1,145 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import com.lucasdominato.securefilemanager.data.entity.FileVersionChunk;
+import org.springframework.jdbc.JdbcUpdateAffectedIncorrectNumberOfRowsException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public class FileVersionJdbcRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FileVersionJdbcRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void insertChunks(Long versionId, List<FileVersionChunk> chunks) {
+        final String sql = "INSERT INTO file_version_chunks (version_id, chunk_index, chunk_offset, chunk_size, content_id) VALUES (?, ?, ?, ?, ?)";
+
+        jdbcTemplate.batchUpdate(sql, chunks, 500, (statement, chunk) -> {
+            statement.setLong(1, versionId);
+            statement.setInt(2, chunk.getChunkIndex());
+            statement.setLong(3, chunk.getChunkOffset());
+            statement.setInt(4, chunk.getChunkSize());
+            statement.setLong(5, chunk.getContentId());
+        });
+    }
+
+    public Optional<Long> findCurrentVersionId(Long fileId) {
+        final String sql = "SELECT v.id FROM files f " +
+                "JOIN file_versions v ON v.file_id = f.id AND v.version_number = f.current_version WHERE f.id = ?";
+
+        return jdbcTemplate.queryForList(sql, Long.class, fileId).stream().findFirst();
+    }
+
+    /**
+     * Owner of the file the version belongs to.
+     */
+    public Optional<Long> findUserId(Long versionId) {
+        final String sql = "SELECT f.user_id FROM file_versions v JOIN files f ON f.id = v.file_id WHERE v.id = ?";
+
+        return jdbcTemplate.queryForList(sql, Long.class, versionId).stream().findFirst();
+    }
+
+    public Optional<Long> findVersionId(Long fileId, int versionNumber) {
+        final String sql = "SELECT id FROM file_versions WHERE file_id = ? AND version_number = ?";
+
+        return jdbcTemplate.queryForList(sql, Long.class, fileId, versionNumber).stream().findFirst();
+    }
+
+    /**
+     * Manifest of the version, in file order.
+     */
+    public List<FileVersionChunk> findChunks(Long versionId) {
+        final String sql = "SELECT chunk_index, chunk_offset, chunk_size, content_id FROM file_version_chunks " +
+                "WHERE version_id = ? ORDER BY chunk_index";
+
+        return jdbcTemplate.query(sql, (resultSet, rowNum) -> {
+            FileVersionChunk chunk = new FileVersionChunk();
+            chunk.setVersionId(versionId);
+            chunk.setChunkIndex(resultSet.getInt("chunk_index"));
+            chunk.setChunkOffset(resultSet.getLong("chunk_offset"));
+            chunk.setChunkSize(resultSet.getInt("chunk_size"));
+            chunk.setContentId(resultSet.getLong("content_id"));
+            return chunk;
+        }, versionId);
+    }
+
+    /**
+     * Takes, with a single statement, one more reference on each given content of the user (several for repeated ids).
+     * Fails if one of them no longer exists, purged while unreferenced, so the transaction referencing it rolls back.
+     */
+    public void referenceContents(Long userId, List<Long> contentIds) {
+        final String sql = "UPDATE file_content c SET ref_count = c.ref_count + r.refs " +
+                "FROM (SELECT id, count(*) AS refs FROM unnest(?) AS id GROUP BY id) r WHERE c.user_id = ? AND c.id = r.id";
+
+        int expected = (int) contentIds.stream().distinct().count();
+        int updated = jdbcTemplate.update(sql, statement -> {
+            statement.setArray(1, statement.getConnection().createArrayOf("bigint", contentIds.toArray()));
+            statement.setLong(2, userId);
+        });
+        if (updated != expected) {
+            throw new JdbcUpdateAffectedIncorrectNumberOfRowsException(sql, expected, updated);
+        }
+    }
+
+    /**
+     * Contents holding the chunks of the version, in file order.
+     */
+    public List<Long> findChunkContentIds(Long versionId) {
+        final String sql = "SELECT content_id FROM file_version_chunks WHERE version_id = ? ORDER BY chunk_index";
+
+        return jdbcTemplate.queryForList(sql, Long.class, versionId);
+    }
+
+    /**
+     * Finds a version of one of the user's live files with the given whole-content fingerprint and locks it
+     * in share mode, so its manifest can't be purged before it is copied.
+     */
+    public Optional<Long> lockVersionWithFingerprint(Long userId, byte[] fingerprint) {
+        final String sql = "SELECT v.id FROM file_versions v JOIN files f ON f.id = v.file_id " +
+                "WHERE v.fingerprint = ? AND f.user_id = ? AND f.deleted_date IS NULL LIMIT 1 FOR SHARE OF v";
+
+        return jdbcTemplate.queryForList(sql, Long.class, fingerprint, userId).stream().findFirst();
+    }
+
+    /**
+     * Copies the manifest of a version to another one of the same user and takes the references of the new
+     * manifest entries on their contents.
+     */
+    public void copyChunks(Long userId, Long sourceVersionId, Long targetVersionId) {
+        final String copySql = "INSERT INTO file_version_chunks (version_id, chunk_index, chunk_offset, chunk_size, content_id) " +
+                "SELECT ?, chunk_index, chunk_offset, chunk_size, content_id FROM file_version_chunks WHERE version_id = ?";
+        final String referenceSql = "UPDATE file_content c SET ref_count = c.ref_count + r.refs " +
+                "FROM (SELECT content_id, count(*) AS refs FROM file_version_chunks WHERE version_id = ? GROUP BY content_id) r " +
+                "WHERE c.user_id = ? AND c.id = r.content_id";
+
+        jdbcTemplate.update(copySql, targetVersionId, sourceVersionId);
+        jdbcTemplate.update(referenceSql, targetVersionId, userId);
+    }
+
+    /**
+     * Releases, with a single statement, the references the manifests of all the versions of the given files
+     * hold on their contents.
+     */
+    public void releaseContentsOfFiles(List<Long> fileIds) {
+        final String sql = "UPDATE file_content c SET ref_count = c.ref_count - r.refs " +
+                "FROM (SELECT f.user_id, ch.content_id, count(*) AS refs FROM files f JOIN file_versions v ON v.file_id = f.id " +
+                "JOIN file_version_chunks ch ON ch.version_id = v.id WHERE f.id = ANY(?) GROUP BY f.user_id, ch.content_id) r " +
+                "WHERE c.user_id = r.user_id AND c.id = r.content_id";
+
+        jdbcTemplate.update(sql, statement -> statement.setArray(1, statement.getConnection().createArrayOf("bigint", fileIds.toArray())));
+    }
+
+    public void deleteVersionsOfFiles(List<Long> fileIds) {
+        final String chunksSql = "DELETE FROM file_version_chunks WHERE version_id IN (SELECT id FROM file_versions WHERE file_id = ANY(?))";
+        final String versionsSql = "DELETE FROM file_versions WHERE file_id = ANY(?)";
+
+        jdbcTemplate.update(chunksSql, statement -> statement.setArray(1, statement.getConnection().createArrayOf("bigint", fileIds.toArray())));
+        jdbcTemplate.update(versionsSql, statement -> statement.setArray(1, statement.getConnection().createArrayOf("bigint", fileIds.toArray())));
+    }
+}
@@ -0,0 +1,28 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import com.lucasdominato.securefilemanager.data.entity.FileVersion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface FileVersionRepository extends JpaRepository<FileVersion, Long> {
+
+    Optional<FileVersion> findByFileIdAndVersionNumber(Long fileId, Integer versionNumber);
+
+    /**
+     * Versions of the user's live file, newest first. Empty when the file is not found.
+     */
+    @Query("SELECT v FROM FileVersion v WHERE v.fileId = " +
+            "(SELECT f.id FROM File f WHERE f.id = :fileId AND f.user.username = :username AND f.deletedDate IS NULL) " +
+            "ORDER BY v.versionNumber DESC")
+    List<FileVersion> findAllByFileIdAndUsername(@Param("fileId") Long fileId, @Param("username") String username);
+
+    @Query("SELECT v FROM FileVersion v WHERE v.versionNumber = :versionNumber AND v.fileId = " +
+            "(SELECT f.id FROM File f WHERE f.id = :fileId AND f.user.username = :username AND f.deletedDate IS NULL)")
+    Optional<FileVersion> findByFileIdAndVersionNumberAndUsername(@Param("fileId") Long fileId,
+                                                                  @Param("versionNumber") Integer versionNumber,
+                                                                  @Param("username") String username);
+}
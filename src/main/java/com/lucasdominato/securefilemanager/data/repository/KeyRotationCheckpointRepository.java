@@ -0,0 +1,7 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import com.lucasdominato.securefilemanager.data.entity.KeyRotationCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface KeyRotationCheckpointRepository extends JpaRepository<KeyRotationCheckpoint, Integer> {
+}
@@ -0,0 +1,7 @@
+package com.lucasdominato.securefilemanager.data.repository;
+
+import com.lucasdominato.securefilemanager.data.entity.ScrubCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface ScrubCheckpointRepository extends JpaRepository<ScrubCheckpoint, Long> {
+}
@@ -2,9 +2,39 @@ package com.lucasdominato.securefilemanager.data.repository;
 
 import com.lucasdominato.securefilemanager.data.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
-}
\ No newline at end of file
+
+    /**
+     * Reserves the next {@code count} change sequence numbers of the user. The row lock taken here is held
+     * until commit, so the user's changes become visible in the same order as their sequence numbers.
+     */
+    @Modifying
+    @Query(value = "UPDATE users SET last_change_sequence = last_change_sequence + :count WHERE id = :userId", nativeQuery = true)
+    int incrementLastChangeSequence(@Param("userId") Long userId, @Param("count") int count);
+
+    @Query(value = "SELECT last_change_sequence FROM users WHERE id = :userId", nativeQuery = true)
+    long findLastChangeSequence(@Param("userId") Long userId);
+
+    @Query(value = "SELECT content_shard FROM users WHERE id = :userId", nativeQuery = true)
+    Optional<Integer> findContentShard(@Param("userId") Long userId);
+
+    @Modifying
+    @Query(value = "UPDATE users SET content_shard = :shard WHERE id = :userId", nativeQuery = true)
+    int updateContentShard(@Param("userId") Long userId, @Param("shard") int shard);
+
+    /**
+     * Records the shard of a user not placed yet. Returns 0 if the user already has a shard.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE users SET content_shard = :shard WHERE id = :userId AND content_shard IS NULL", nativeQuery = true)
+    int placeContentShard(@Param("userId") Long userId, @Param("shard") int shard);
+}
@@ -0,0 +1,20 @@
+package com.lucasdominato.securefilemanager.dto.command;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchGetFilesCommand {
+
+    @NotEmpty
+    private List<@NotNull Long> ids;
+}
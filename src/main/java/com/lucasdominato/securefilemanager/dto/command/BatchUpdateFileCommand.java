@@ -0,0 +1,22 @@
+package com.lucasdominato.securefilemanager.dto.command;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Metadata-only change of one file in a batch update. Fields left null are not changed.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchUpdateFileCommand {
+
+    @NotNull
+    private Long id;
+    private String name;
+    private String description;
+}
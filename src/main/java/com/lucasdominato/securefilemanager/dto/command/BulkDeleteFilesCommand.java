@@ -0,0 +1,31 @@
+package com.lucasdominato.securefilemanager.dto.command;
+
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Selects the files to delete. The given criteria are combined with AND, and at least one of them is required.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class BulkDeleteFilesCommand {
+
+    private List<@NotNull Long> ids;
+
+    private LocalDateTime createdBefore;
+
+    private String contentType;
+
+    /**
+     * Case-insensitive prefix of the file name.
+     */
+    private String namePrefix;
+}
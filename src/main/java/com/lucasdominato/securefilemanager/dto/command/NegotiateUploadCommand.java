@@ -0,0 +1,36 @@
+package com.lucasdominato.securefilemanager.dto.command;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Metadata of a file the client is about to upload, with the SHA-256 of its content.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class NegotiateUploadCommand {
+
+    @NotBlank
+    private String name;
+    private String description;
+    private String contentType;
+
+    @NotNull
+    @PositiveOrZero
+    private Long fileSize;
+
+    /**
+     * Hex encoded SHA-256 of the plain file content.
+     */
+    @NotNull
+    @Pattern(regexp = "[0-9a-fA-F]{64}", message = "must be a hex encoded SHA-256")
+    private String sha256;
+}
@@ -0,0 +1,32 @@
+package com.lucasdominato.securefilemanager.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.http.HttpStatus;
+
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchFileResultDTO {
+
+    private Long id;
+
+    /**
+     * HTTP status of this item: 200 when processed, 400 or 404 otherwise.
+     */
+    private int status;
+
+    private String error;
+    private FileResponseDTO file;
+
+    public static BatchFileResultDTO ok(FileResponseDTO file) {
+        return new BatchFileResultDTO(file.getId(), HttpStatus.OK.value(), null, file);
+    }
+
+    public static BatchFileResultDTO failed(Long id, HttpStatus status, String error) {
+        return new BatchFileResultDTO(id, status.value(), error, null);
+    }
+}
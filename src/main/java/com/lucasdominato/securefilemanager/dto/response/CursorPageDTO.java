@@ -0,0 +1,22 @@
+package com.lucasdominato.securefilemanager.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPageDTO<T> {
+
+    private List<T> content;
+
+    /**
+     * Opaque cursor for the next page, null when there are no more results.
+     */
+    private String nextCursor;
+}
@@ -0,0 +1,21 @@
+package com.lucasdominato.securefilemanager.dto.response;
+
+import com.lucasdominato.securefilemanager.data.entity.FileChangeType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileChangeDTO {
+
+    private Long sequence;
+    private Long fileId;
+    private FileChangeType changeType;
+    private LocalDateTime changedAt;
+}
@@ -0,0 +1,24 @@
+package com.lucasdominato.securefilemanager.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileChangesDTO {
+
+    private List<FileChangeDTO> changes;
+
+    /**
+     * Sequence of the last returned change, to be sent back as "after" on the next poll.
+     */
+    private long cursor;
+
+    private boolean hasMore;
+}
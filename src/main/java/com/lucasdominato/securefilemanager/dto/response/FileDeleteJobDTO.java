@@ -0,0 +1,28 @@
+package com.lucasdominato.securefilemanager.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileDeleteJobDTO {
+
+    private Long id;
+
+    private int totalFiles;
+
+    /**
+     * Files of the job whose content has not been purged yet. Restored files are no longer counted.
+     */
+    private long pendingFiles;
+
+    private boolean completed;
+
+    private LocalDateTime createdDate;
+}
@@ -0,0 +1,23 @@
+package com.lucasdominato.securefilemanager.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileExportDTO {
+
+    private Long id;
+    private String name;
+    private String description;
+    private String contentType;
+    private Long fileSize;
+    private LocalDateTime createdDate;
+    private LocalDateTime lastModifiedDate;
+}
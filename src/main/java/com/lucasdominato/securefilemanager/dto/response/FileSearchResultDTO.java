@@ -0,0 +1,20 @@
+package com.lucasdominato.securefilemanager.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileSearchResultDTO {
+
+    private Long id;
+    private String name;
+    private String description;
+    private String contentType;
+    private Long fileSize;
+    private float score;
+}
@@ -0,0 +1,25 @@
+package com.lucasdominato.securefilemanager.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileVersionDTO {
+
+    private Integer versionNumber;
+
+    private String name;
+
+    private String contentType;
+
+    private Long fileSize;
+
+    private LocalDateTime createdDate;
+}
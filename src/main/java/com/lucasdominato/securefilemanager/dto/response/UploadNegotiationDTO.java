@@ -0,0 +1,22 @@
+package com.lucasdominato.securefilemanager.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Either the file created from content the user already has, or the URL the content must be uploaded to.
+ */
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadNegotiationDTO {
+
+    private boolean contentKnown;
+
+    private FileResponseDTO file;
+
+    private String uploadUrl;
+}
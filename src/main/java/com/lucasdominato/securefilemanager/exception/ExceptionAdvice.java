@@ -1,16 +1,28 @@
 package com.lucasdominato.securefilemanager.exception;
 
+import com.lucasdominato.securefilemanager.config.AdmissionControlFilter;
 import com.lucasdominato.securefilemanager.dto.error.ErrorResponse;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+import org.springframework.web.method.HandlerMethod;
 import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
 import org.springframework.web.multipart.support.MissingServletRequestPartException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -18,6 +30,12 @@ import java.util.Map;
 @RestControllerAdvice
 public class ExceptionAdvice {
 
+    private final String retryAfterSeconds;
+
+    public ExceptionAdvice(@Value("${securefilemanager.admission.retry-after:PT1S}") final Duration retryAfter) {
+        this.retryAfterSeconds = String.valueOf(Math.max(1, retryAfter.toSeconds()));
+    }
+
     /**
      * Handles missing servlet request part exceptions and returns a response with error details.
      */
@@ -29,6 +47,28 @@ public class ExceptionAdvice {
                 .body(errorResponse);
     }
 
+    /**
+     * Handles missing request parameter exceptions and returns a response with error details.
+     */
+    @ExceptionHandler(MissingServletRequestParameterException.class)
+    public ResponseEntity<ErrorResponse> handleMissingServletRequestParameterException(MissingServletRequestParameterException ex) {
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.BAD_REQUEST.getReasonPhrase(), ex.getMessage());
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(errorResponse);
+    }
+
+    /**
+     * Handles unreadable request bodies and returns a response with error details.
+     */
+    @ExceptionHandler(HttpMessageNotReadableException.class)
+    public ResponseEntity<ErrorResponse> handleHttpMessageNotReadableException(HttpMessageNotReadableException ex) {
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.BAD_REQUEST.getReasonPhrase(), "Malformed request body");
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(errorResponse);
+    }
+
     /**
      * Handles validation exceptions for parameters variables and returns a response with error details.
      */
@@ -68,6 +108,17 @@ public class ExceptionAdvice {
                 .body(errorResponse);
     }
 
+    /**
+     * Handles writes that raced with another change of the same file and returns a response with error details.
+     */
+    @ExceptionHandler(FileConflictException.class)
+    public ResponseEntity<ErrorResponse> handleFileConflictException(FileConflictException ex) {
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.CONFLICT.getReasonPhrase(), ex.getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(errorResponse);
+    }
+
     /**
      * Handles illegal argument exceptions and returns a response with error details.
      */
@@ -81,10 +132,36 @@ public class ExceptionAdvice {
     }
 
     /**
-     * Handles all other exceptions and returns a response with error details.
+     * Handles tasks rejected by a saturated executor, among them the downloads refused by the streaming executor,
+     * and streamed responses that timed out before anything was written. The attachment headers of a refused
+     * download are dropped.
+     */
+    @ExceptionHandler({TaskRejectedException.class, AsyncRequestTimeoutException.class})
+    public ResponseEntity<ErrorResponse> handleStreamingUnavailable(Exception ex, HttpServletResponse response, HandlerMethod handlerMethod) {
+        if (!response.isCommitted()) {
+            response.reset();
+        }
+        String message = isStreamingDownload(handlerMethod)
+                ? "Too many downloads in progress, please try again later."
+                : "The service is busy, please try again later.";
+        ErrorResponse errorResponse = new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE.getReasonPhrase(), message);
+        return ResponseEntity
+                .status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(errorResponse);
+    }
+
+    /**
+     * Handles all other exceptions and returns a response with error details. Nothing is sent to a client that
+     * closed the connection, so its request does not end as a server error.
      */
     @ExceptionHandler(Exception.class)
     public ResponseEntity<ErrorResponse> handleAllExceptions(Exception ex) {
+        if (AdmissionControlFilter.isClientAbort(ex)) {
+            log.debug("Client closed the connection", ex);
+            return null;
+        }
         ErrorResponse errorResponse = new ErrorResponse(HttpStatus.INTERNAL_SERVER_ERROR.getReasonPhrase(), "An Internal Server Error occurred, please try again later. If the problem persists, contact support.");
         log.error("An unexpected error occurred", ex);
         return ResponseEntity
@@ -106,14 +183,32 @@ public class ExceptionAdvice {
     }
 
     /**
-     * Handles file processing exceptions
+     * Handles file processing exceptions, other than a client closing the connection during the transfer
      */
     @ExceptionHandler(FileProcessingException.class)
     public ResponseEntity<ErrorResponse> handleFileProcessingException(FileProcessingException ex) {
+        if (AdmissionControlFilter.isClientAbort(ex)) {
+            log.debug("Client closed the connection", ex);
+            return null;
+        }
         ErrorResponse errorResponse = new ErrorResponse(HttpStatus.INTERNAL_SERVER_ERROR.getReasonPhrase(), ex.getMessage());
         return ResponseEntity
                 .status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(errorResponse);
     }
-}
\ No newline at end of file
+
+    /**
+     * Whether the handler streams its response body, as the downloads do, on the streaming executor.
+     */
+    private static boolean isStreamingDownload(HandlerMethod handlerMethod) {
+        if (handlerMethod == null) {
+            return false;
+        }
+        ResolvableType returnType = ResolvableType.forMethodReturnType(handlerMethod.getMethod());
+        if (ResponseEntity.class.equals(returnType.resolve())) {
+            returnType = returnType.getGeneric(0);
+        }
+        return StreamingResponseBody.class.equals(returnType.resolve());
+    }
+}
@@ -0,0 +1,7 @@
+package com.lucasdominato.securefilemanager.exception;
+
+public class FileConflictException extends RuntimeException {
+    public FileConflictException(final String message) {
+        super(message);
+    }
+}
@@ -4,4 +4,8 @@ public class FileProcessingException extends RuntimeException {
     public FileProcessingException(final String message) {
         super(message);
     }
+
+    public FileProcessingException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
 }
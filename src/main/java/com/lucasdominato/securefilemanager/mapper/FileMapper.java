@@ -1,8 +1,10 @@
 package com.lucasdominato.securefilemanager.mapper;
 
 import com.lucasdominato.securefilemanager.data.entity.File;
+import com.lucasdominato.securefilemanager.data.entity.FileVersion;
 import com.lucasdominato.securefilemanager.dto.command.UpdateFileCommand;
 import com.lucasdominato.securefilemanager.dto.response.FileResponseDTO;
+import com.lucasdominato.securefilemanager.dto.response.FileVersionDTO;
 import org.mapstruct.*;
 
 @Mapper(componentModel = MappingConstants.ComponentModel.SPRING)
@@ -10,12 +12,17 @@ public interface FileMapper {
 
     FileResponseDTO fileToFileDto(File file);
 
+    FileVersionDTO fileVersionToFileVersionDto(FileVersion fileVersion);
+
     @Mapping(target = "id", ignore = true)
     @Mapping(target = "user", ignore = true)
     @Mapping(target = "createdDate", ignore = true)
     @Mapping(target = "createdBy", ignore = true)
     @Mapping(target = "lastModifiedDate", ignore = true)
     @Mapping(target = "lastModifiedBy", ignore = true)
+    @Mapping(target = "deletedDate", ignore = true)
+    @Mapping(target = "deleteJobId", ignore = true)
+    @Mapping(target = "currentVersion", ignore = true)
     @BeanMapping(nullValuePropertyMappingStrategy = NullValuePropertyMappingStrategy.IGNORE)
     void updateFileFromCommand(UpdateFileCommand updateFileCommand, @MappingTarget File file);
 }
\ No newline at end of file
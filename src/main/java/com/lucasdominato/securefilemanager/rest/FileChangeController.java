@@ -0,0 +1,87 @@
+package com.lucasdominato.securefilemanager.rest;
+
+import com.lucasdominato.securefilemanager.config.ExecutorConfig;
+import com.lucasdominato.securefilemanager.dto.response.FileChangesDTO;
+import com.lucasdominato.securefilemanager.service.FileChangeLogService;
+import com.lucasdominato.securefilemanager.service.FileChangeNotifier;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RestController
+@RequestMapping("/api/files/changes")
+@Tag(name = "File API", description = "API for file management")
+public class FileChangeController {
+
+    private final FileChangeLogService fileChangeLogService;
+    private final FileChangeNotifier fileChangeNotifier;
+    private final TaskExecutor changeFeedExecutor;
+    private final long maxWaitSeconds;
+
+    public FileChangeController(final FileChangeLogService fileChangeLogService,
+                                final FileChangeNotifier fileChangeNotifier,
+                                @Qualifier(ExecutorConfig.CHANGE_FEED_EXECUTOR) final TaskExecutor changeFeedExecutor,
+                                @Value("${securefilemanager.changes.max-wait-seconds:60}") final long maxWaitSeconds) {
+        this.fileChangeLogService = fileChangeLogService;
+        this.fileChangeNotifier = fileChangeNotifier;
+        this.changeFeedExecutor = changeFeedExecutor;
+        this.maxWaitSeconds = maxWaitSeconds;
+    }
+
+    @GetMapping
+    @Operation(summary = "Get file changes",
+            description = "Returns the changes (creates, updates and deletes) of the user's files after the given cursor. " +
+                    "When wait is greater than zero and there are no changes yet, the request is held open until a change happens or the wait elapses (long-poll).",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Changes retrieved successfully",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = FileChangesDTO.class))),
+                    @ApiResponse(responseCode = "400", description = "Bad request"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "500", description = "Internal server error")
+            },
+            tags = {"File API"})
+    public DeferredResult<FileChangesDTO> getChanges(Authentication authentication,
+                                                     @RequestParam(defaultValue = "0") long after,
+                                                     @RequestParam(defaultValue = "100") int limit,
+                                                     @RequestParam(defaultValue = "0") long wait) {
+        if (after < 0 || wait < 0) {
+            throw new IllegalArgumentException("Parameters 'after' and 'wait' must not be negative");
+        }
+
+        final String username = authentication.getName();
+        final long waitSeconds = Math.min(wait, maxWaitSeconds);
+
+        DeferredResult<FileChangesDTO> result = new DeferredResult<>(TimeUnit.SECONDS.toMillis(waitSeconds),
+                () -> new FileChangesDTO(List.of(), after, false));
+
+        if (waitSeconds > 0) {
+            // Subscribe before querying, so a change committed in between still wakes this request up
+            Runnable listener = () -> changeFeedExecutor.execute(() ->
+                    result.setResult(fileChangeLogService.getChangesAfter(username, after, limit)));
+            fileChangeNotifier.subscribe(username, listener);
+            result.onCompletion(() -> fileChangeNotifier.unsubscribe(username, listener));
+        }
+
+        FileChangesDTO changes = fileChangeLogService.getChangesAfter(username, after, limit);
+        if (!changes.getChanges().isEmpty() || waitSeconds == 0) {
+            result.setResult(changes);
+        }
+
+        return result;
+    }
+}
@@ -1,35 +1,59 @@
 package com.lucasdominato.securefilemanager.rest;
 
+import com.lucasdominato.securefilemanager.dto.command.BatchGetFilesCommand;
+import com.lucasdominato.securefilemanager.dto.command.BatchUpdateFilesCommand;
+import com.lucasdominato.securefilemanager.dto.command.BulkDeleteFilesCommand;
 import com.lucasdominato.securefilemanager.dto.command.CreateFileCommand;
+import com.lucasdominato.securefilemanager.dto.command.NegotiateUploadCommand;
 import com.lucasdominato.securefilemanager.dto.command.UpdateFileCommand;
+import com.lucasdominato.securefilemanager.dto.response.BatchFileResultDTO;
+import com.lucasdominato.securefilemanager.dto.response.CursorPageDTO;
+import com.lucasdominato.securefilemanager.dto.response.FileDeleteJobDTO;
 import com.lucasdominato.securefilemanager.dto.response.FileResponseDTO;
+import com.lucasdominato.securefilemanager.dto.response.FileSearchResultDTO;
+import com.lucasdominato.securefilemanager.dto.response.FileVersionDTO;
+import com.lucasdominato.securefilemanager.dto.response.UploadNegotiationDTO;
 import com.lucasdominato.securefilemanager.exception.FileProcessingException;
 import com.lucasdominato.securefilemanager.mapper.AuthenticationMapper;
+import com.lucasdominato.securefilemanager.service.FileBatchService;
+import com.lucasdominato.securefilemanager.service.FileBulkDeleteService;
+import com.lucasdominato.securefilemanager.service.FileDeletionService;
+import com.lucasdominato.securefilemanager.service.FileExportService;
+import com.lucasdominato.securefilemanager.service.FileSearchService;
 import com.lucasdominato.securefilemanager.service.FileService;
+import com.lucasdominato.securefilemanager.service.FileVersionService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
 import org.apache.commons.lang3.StringUtils;
 import org.springdoc.core.annotations.ParameterObject;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.GeneralSecurityException;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Objects;
 
 @RestController
@@ -40,9 +64,27 @@ public class FileController {
     public static final int UPLOAD_FILE_BUFFER_SIZE = 8192;
 
     private final FileService fileService;
+    private final FileSearchService fileSearchService;
+    private final FileExportService fileExportService;
+    private final FileBatchService fileBatchService;
+    private final FileDeletionService fileDeletionService;
+    private final FileBulkDeleteService fileBulkDeleteService;
+    private final FileVersionService fileVersionService;
 
-    public FileController(final FileService fileService) {
+    public FileController(final FileService fileService,
+                          final FileSearchService fileSearchService,
+                          final FileExportService fileExportService,
+                          final FileBatchService fileBatchService,
+                          final FileDeletionService fileDeletionService,
+                          final FileBulkDeleteService fileBulkDeleteService,
+                          final FileVersionService fileVersionService) {
         this.fileService = fileService;
+        this.fileSearchService = fileSearchService;
+        this.fileExportService = fileExportService;
+        this.fileBatchService = fileBatchService;
+        this.fileDeletionService = fileDeletionService;
+        this.fileBulkDeleteService = fileBulkDeleteService;
+        this.fileVersionService = fileVersionService;
     }
 
     @GetMapping
@@ -60,6 +102,140 @@ public class FileController {
         return fileService.getFilesByUsername(authentication.getName(), pageable);
     }
 
+    @GetMapping("/search")
+    @Operation(summary = "Search files",
+            description = "Full-text and fuzzy search over the name and description of the user's files. Results are ranked by relevance and paged with an opaque cursor.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Search executed successfully",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = CursorPageDTO.class))),
+                    @ApiResponse(responseCode = "400", description = "Bad request"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "500", description = "Internal server error")
+            },
+            tags = {"File API"})
+    public CursorPageDTO<FileSearchResultDTO> searchFiles(Authentication authentication,
+                                                          @RequestParam String q,
+                                                          @RequestParam(required = false) String cursor,
+                                                          @RequestParam(defaultValue = "20") int size) {
+        return fileSearchService.search(authentication.getName(), q, cursor, size);
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @Operation(summary = "Export all files metadata",
+            description = "Streams the metadata of all the user's files as NDJSON, one file per line. Optionally only files modified since the given date-time are exported.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Files exported successfully"),
+                    @ApiResponse(responseCode = "400", description = "Bad request"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "500", description = "Internal server error")
+            },
+            tags = {"File API"})
+    public void exportFiles(Authentication authentication,
+                            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime since,
+                            HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+
+        try (OutputStream outputStream = response.getOutputStream()) {
+            fileExportService.exportFiles(authentication.getName(), since, outputStream);
+        }
+    }
+
+    @PostMapping(path = "/negotiate-upload", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Negotiate a file upload",
+            description = "Checks, from the SHA-256 and size of the content, whether the user already has it. If so the file is created by reference without transferring the content, otherwise the URL to upload it to is returned.",
+            responses = {
+                    @ApiResponse(responseCode = "201", description = "Content already stored, file created",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = UploadNegotiationDTO.class))),
+                    @ApiResponse(responseCode = "200", description = "Content unknown, it must be uploaded",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = UploadNegotiationDTO.class))),
+                    @ApiResponse(responseCode = "400", description = "Bad request"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "500", description = "Internal server error")
+            },
+            tags = {"File API"})
+    public ResponseEntity<UploadNegotiationDTO> negotiateUpload(Authentication authentication,
+                                                                @Valid @RequestBody NegotiateUploadCommand command) {
+        CreateFileCommand createFileDTO = new CreateFileCommand();
+        createFileDTO.setName(command.getName());
+        createFileDTO.setDescription(command.getDescription());
+        createFileDTO.setContentType(command.getContentType());
+        createFileDTO.setFileSize(command.getFileSize());
+
+        try {
+            return fileService.createFileByReference(createFileDTO, HexFormat.of().parseHex(command.getSha256()),
+                            AuthenticationMapper.toUserDTO(authentication))
+                    .map(file -> ResponseEntity.status(HttpStatus.CREATED).body(new UploadNegotiationDTO(true, file, null)))
+                    .orElseGet(() -> ResponseEntity.ok(new UploadNegotiationDTO(false, null,
+                            ServletUriComponentsBuilder.fromCurrentContextPath().path("/api/files").toUriString())));
+        } catch (GeneralSecurityException e) {
+            throw new FileProcessingException("Failed to process file hash", e);
+        }
+    }
+
+    @PostMapping(path = "/batch-get", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Get files by ids",
+            description = "Returns the files for all the given ids with a single lookup. Each item carries its own status (200 or 404), in the order of the requested ids.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Batch processed successfully",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = BatchFileResultDTO.class))),
+                    @ApiResponse(responseCode = "400", description = "Bad request"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "500", description = "Internal server error")
+            },
+            tags = {"File API"})
+    public List<BatchFileResultDTO> batchGetFiles(Authentication authentication,
+                                                  @Valid @RequestBody BatchGetFilesCommand command) {
+        return fileBatchService.getFiles(command.getIds(), authentication.getName());
+    }
+
+    @PatchMapping(path = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Partial update files metadata in batch",
+            description = "Updates the name and/or description of several files in one transaction. Each item carries its own status (200, 400 or 404), in the order of the request items.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Batch processed successfully",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = BatchFileResultDTO.class))),
+                    @ApiResponse(responseCode = "400", description = "Bad request"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "500", description = "Internal server error")
+            },
+            tags = {"File API"})
+    public List<BatchFileResultDTO> batchUpdateFiles(Authentication authentication,
+                                                     @Valid @RequestBody BatchUpdateFilesCommand command) {
+        return fileBatchService.updateFiles(command.getItems(), authentication.getName());
+    }
+
+    @PostMapping(path = "/bulk-delete", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Delete files in bulk",
+            description = "Deletes every file matching the given ids and filters, and returns a job to follow the purge of their content",
+            responses = {
+                    @ApiResponse(responseCode = "202", description = "Files deleted, content purge scheduled",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = FileDeleteJobDTO.class))),
+                    @ApiResponse(responseCode = "400", description = "Bad request"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "500", description = "Internal server error")
+            },
+            tags = {"File API"})
+    public ResponseEntity<FileDeleteJobDTO> bulkDeleteFiles(Authentication authentication,
+                                                            @Valid @RequestBody BulkDeleteFilesCommand command) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(fileBulkDeleteService.deleteFiles(command, authentication.getName()));
+    }
+
+    @GetMapping("/delete-jobs/{jobId}")
+    @Operation(summary = "Get bulk delete job progress",
+            description = "Returns how many files of a bulk delete are still waiting to be purged",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Job retrieved successfully",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = FileDeleteJobDTO.class))),
+                    @ApiResponse(responseCode = "400", description = "Bad request"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "404", description = "Delete job not found"),
+                    @ApiResponse(responseCode = "500", description = "Internal server error")
+            },
+            tags = {"File API"})
+    public FileDeleteJobDTO getDeleteJob(Authentication authentication, @NotNull @PathVariable Long jobId) {
+        return fileBulkDeleteService.getJob(jobId, authentication.getName());
+    }
+
     @GetMapping("/{id}")
     @Operation(summary = "Get file by id",
             description = "Returns a file by id",
@@ -84,22 +260,63 @@ public class FileController {
                     @ApiResponse(responseCode = "400", description = "Bad request"),
                     @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
                     @ApiResponse(responseCode = "404", description = "File not found"),
+                    @ApiResponse(responseCode = "503", description = "Too many downloads in progress"),
                     @ApiResponse(responseCode = "500", description = "Internal server error")
             },
             tags = {"File API"})
-    public void downloadFile(Authentication authentication,
-                             @NotNull @PathVariable Long id,
-                             HttpServletResponse response) throws IOException {
+    public ResponseEntity<StreamingResponseBody> downloadFile(Authentication authentication,
+                                                              @NotNull @PathVariable Long id) {
         FileResponseDTO fileInfo = fileService.getFileByIdAndUsername(id, authentication.getName());
 
-        response.setContentType(fileInfo.getContentType());
-        response.setHeader("Content-Disposition", "attachment; filename=\"" + fileInfo.getName() + "\"");
+        return attachment(fileInfo.getName(), fileInfo.getContentType(), outputStream -> {
+            try {
+                fileService.downloadFile(id, outputStream);
+            } catch (SQLException | GeneralSecurityException e) {
+                throw new FileProcessingException("Failed to process file content");
+            }
+        });
+    }
 
-        try (OutputStream outputStream = response.getOutputStream()) {
-            fileService.downloadFile(id, outputStream);
-        } catch (SQLException | GeneralSecurityException e) {
-            throw new FileProcessingException("Failed to process file content");
-        }
+    @GetMapping("/{id}/versions")
+    @Operation(summary = "List file versions",
+            description = "Returns every stored version of the file, newest first. Each upload of new content creates a version.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Versions retrieved successfully",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = FileVersionDTO.class))),
+                    @ApiResponse(responseCode = "400", description = "Bad request"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "404", description = "File not found"),
+                    @ApiResponse(responseCode = "500", description = "Internal server error")
+            },
+            tags = {"File API"})
+    public List<FileVersionDTO> getFileVersions(Authentication authentication, @NotNull @PathVariable Long id) {
+        return fileVersionService.getVersions(id, authentication.getName());
+    }
+
+    @GetMapping("/{id}/versions/{versionNumber}/download")
+    @Operation(summary = "Download a file version",
+            description = "Downloads the content of the given version of the file. The content is streamed securely to the client.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "File version retrieved successfully"),
+                    @ApiResponse(responseCode = "400", description = "Bad request"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "404", description = "File version not found"),
+                    @ApiResponse(responseCode = "503", description = "Too many downloads in progress"),
+                    @ApiResponse(responseCode = "500", description = "Internal server error")
+            },
+            tags = {"File API"})
+    public ResponseEntity<StreamingResponseBody> downloadFileVersion(Authentication authentication,
+                                                                     @NotNull @PathVariable Long id,
+                                                                     @NotNull @PathVariable Integer versionNumber) {
+        FileVersionDTO version = fileVersionService.getVersion(id, versionNumber, authentication.getName());
+
+        return attachment(version.getName(), version.getContentType(), outputStream -> {
+            try {
+                fileService.downloadFileVersion(id, versionNumber, outputStream);
+            } catch (GeneralSecurityException e) {
+                throw new FileProcessingException("Failed to process file content");
+            }
+        });
     }
 
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
@@ -110,6 +327,7 @@ public class FileController {
                             content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = CreateFileCommand.class))),
                     @ApiResponse(responseCode = "400", description = "Bad request"),
                     @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "503", description = "Too many uploads in progress"),
                     @ApiResponse(responseCode = "500", description = "Internal server error")
             },
             tags = {"File API"})
@@ -135,6 +353,24 @@ public class FileController {
         }
     }
 
+    @PostMapping("/{id}/copy")
+    @Operation(summary = "Copy a file by id",
+            description = "Creates a new file with the current content of the given one, optionally under another name. The content is shared in storage, it is neither transferred nor re-encrypted.",
+            responses = {
+                    @ApiResponse(responseCode = "201", description = "File copied successfully",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = FileResponseDTO.class))),
+                    @ApiResponse(responseCode = "400", description = "Bad request"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "404", description = "File not found"),
+                    @ApiResponse(responseCode = "500", description = "Internal server error")
+            },
+            tags = {"File API"})
+    public ResponseEntity<FileResponseDTO> copyFile(Authentication authentication,
+                                                    @NotNull @PathVariable Long id,
+                                                    @RequestParam(required = false) String name) {
+        return ResponseEntity.status(HttpStatus.CREATED).body(fileService.copyFile(id, name, authentication.getName()));
+    }
+
     @PatchMapping(path = "/{id}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     @Operation(summary = "Partial update a file by id",
             description = "Partially update a file by id",
@@ -144,6 +380,7 @@ public class FileController {
                     @ApiResponse(responseCode = "400", description = "Bad request"),
                     @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
                     @ApiResponse(responseCode = "404", description = "File not found"),
+                    @ApiResponse(responseCode = "503", description = "Too many uploads in progress"),
                     @ApiResponse(responseCode = "500", description = "Internal server error")
             },
             tags = {"File API"})
@@ -180,6 +417,31 @@ public class FileController {
         return ResponseEntity.ok(fileService.updateFile(id, updateFileCommand, authentication.getName()));
     }
 
+    @PatchMapping(path = "/{id}/content", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @Operation(summary = "Write a range of a file content",
+            description = "Writes the data at the given offset of the file content, overwriting existing bytes and growing the file past its end. Without offset the data is appended. Only the chunks around the written range are re-encrypted, and the result is stored as a new version.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "File content written successfully",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = FileResponseDTO.class))),
+                    @ApiResponse(responseCode = "400", description = "Bad request"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "404", description = "File not found"),
+                    @ApiResponse(responseCode = "409", description = "File content changed while the range was written"),
+                    @ApiResponse(responseCode = "503", description = "Too many uploads in progress"),
+                    @ApiResponse(responseCode = "500", description = "Internal server error")
+            },
+            tags = {"File API"})
+    public ResponseEntity<FileResponseDTO> writeFileContent(Authentication authentication,
+                                                            @NotNull @PathVariable Long id,
+                                                            @RequestParam(required = false) Long offset,
+                                                            @RequestParam MultipartFile file) {
+        try (BufferedInputStream bufferedInput = new BufferedInputStream(file.getInputStream(), UPLOAD_FILE_BUFFER_SIZE)) {
+            return ResponseEntity.ok(fileService.writeFileContent(id, offset, file.getSize(), bufferedInput, authentication.getName()));
+        } catch (IOException | GeneralSecurityException e) {
+            throw new FileProcessingException("Failed to process file stream", e);
+        }
+    }
+
     @DeleteMapping("/{id}")
     @Operation(summary = "Delete a file by id",
             description = "Deletes a file by id",
@@ -195,4 +457,31 @@ public class FileController {
         fileService.deleteFile(id, authentication.getName());
         return ResponseEntity.noContent().build();
     }
-}
\ No newline at end of file
+
+    @PostMapping("/{id}/restore")
+    @Operation(summary = "Restore a deleted file by id",
+            description = "Restores a file deleted within the undo window",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "File restored successfully",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = FileResponseDTO.class))),
+                    @ApiResponse(responseCode = "400", description = "Bad request"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content()),
+                    @ApiResponse(responseCode = "404", description = "File not found"),
+                    @ApiResponse(responseCode = "500", description = "Internal server error")
+            },
+            tags = {"File API"})
+    public ResponseEntity<FileResponseDTO> restoreFile(Authentication authentication, @NotNull @PathVariable Long id) {
+        return ResponseEntity.ok(fileDeletionService.restoreFile(id, authentication.getName()));
+    }
+
+    /**
+     * The body is written by the streaming executor once the handler returns, releasing the servlet thread
+     * for the whole transfer. Authorization and not found errors are raised before, on the request thread.
+     */
+    private ResponseEntity<StreamingResponseBody> attachment(String name, String contentType, StreamingResponseBody body) {
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + name + "\"")
+                .body(body);
+    }
+}
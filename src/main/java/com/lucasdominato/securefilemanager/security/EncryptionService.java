@@ -1,6 +1,7 @@
 package com.lucasdominato.securefilemanager.security;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -10,11 +11,15 @@ import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @Service
 @Slf4j
@@ -26,21 +31,55 @@ public class EncryptionService {
     private static final int IV_SIZE = 16;
     private static final int BUFFER_SIZE = 8192;
     private static final int HMAC_SIZE = 32;
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int SHA256_SIZE = 32;
 
-    private final SecretKey aesKey;
-    private final SecretKey hmacKey;
+    private final int currentKeyVersion;
+    private final Map<Integer, KeySet> keysByVersion;
+    private final SecretKey fingerprintKey;
     private final SecureRandom secureRandom;
 
+    public EncryptionService(String base64EncodedAesKey, String base64EncodedHmacKey, String base64EncodedFingerprintKey) {
+        this(base64EncodedAesKey, base64EncodedHmacKey, 1, List.of(), base64EncodedFingerprintKey);
+    }
+
+    /**
+     * The aes-key and hmac-key properties hold the keys of the current key version, used for every new encryption.
+     * Keys of previous versions are kept in retired-keys, as "version:base64AesKey:base64HmacKey" entries, so content
+     * not yet re-encrypted by the ContentReEncryptionScheduler can still be read. The fingerprint key is required and
+     * must differ from the HMAC key: it never changes with the key rotations, since stored fingerprints are not
+     * rewritten.
+     */
+    @Autowired
     public EncryptionService(@Value("${encryption.aes-key}") String base64EncodedAesKey,
-                             @Value("${encryption.hmac-key}") String base64EncodedHmacKey) {
+                             @Value("${encryption.hmac-key}") String base64EncodedHmacKey,
+                             @Value("${encryption.key-version:1}") int currentKeyVersion,
+                             @Value("${encryption.retired-keys:}") List<String> retiredKeys,
+                             @Value("${encryption.fingerprint-key}") String base64EncodedFingerprintKey) {
         try {
-            byte[] decodedAesKey = Base64.getDecoder().decode(base64EncodedAesKey);
-            validateKeySize(decodedAesKey.length, "AES");
-            this.aesKey = new SecretKeySpec(decodedAesKey, ALGORITHM);
+            this.currentKeyVersion = currentKeyVersion;
+            this.keysByVersion = new HashMap<>();
+            this.keysByVersion.put(currentKeyVersion, createKeySet(base64EncodedAesKey, base64EncodedHmacKey));
 
-            byte[] decodedHmacKey = Base64.getDecoder().decode(base64EncodedHmacKey);
-            validateKeySize(decodedHmacKey.length, "HMAC");
-            this.hmacKey = new SecretKeySpec(decodedHmacKey, HMAC_ALGORITHM);
+            for (String retiredKey : retiredKeys) {
+                String[] parts = retiredKey.trim().split(":");
+                if (parts.length != 3) {
+                    throw new IllegalArgumentException("Retired keys must be formatted as version:aesKey:hmacKey");
+                }
+                if (keysByVersion.putIfAbsent(Integer.parseInt(parts[0]), createKeySet(parts[1], parts[2])) != null) {
+                    throw new IllegalArgumentException("Key version " + parts[0] + " is configured more than once");
+                }
+            }
+
+            if (base64EncodedFingerprintKey == null || base64EncodedFingerprintKey.isBlank()) {
+                throw new IllegalArgumentException("Fingerprint key must be configured");
+            }
+            byte[] decodedFingerprintKey = Base64.getDecoder().decode(base64EncodedFingerprintKey);
+            validateKeySize(decodedFingerprintKey.length, "HMAC");
+            if (MessageDigest.isEqual(decodedFingerprintKey, Base64.getDecoder().decode(base64EncodedHmacKey))) {
+                throw new IllegalArgumentException("Fingerprint key must differ from the HMAC key, which changes with the key rotations");
+            }
+            this.fingerprintKey = new SecretKeySpec(decodedFingerprintKey, HMAC_ALGORITHM);
 
             this.secureRandom = SecureRandom.getInstanceStrong();
         } catch (Exception e) {
@@ -48,6 +87,20 @@ public class EncryptionService {
         }
     }
 
+    private KeySet createKeySet(String base64EncodedAesKey, String base64EncodedHmacKey) {
+        byte[] decodedAesKey = Base64.getDecoder().decode(base64EncodedAesKey);
+        validateKeySize(decodedAesKey.length, "AES");
+
+        byte[] decodedHmacKey = Base64.getDecoder().decode(base64EncodedHmacKey);
+        validateKeySize(decodedHmacKey.length, "HMAC");
+
+        return new KeySet(new SecretKeySpec(decodedAesKey, ALGORITHM), new SecretKeySpec(decodedHmacKey, HMAC_ALGORITHM));
+    }
+
+    public int getCurrentKeyVersion() {
+        return currentKeyVersion;
+    }
+
     private void validateKeySize(int keySize, String keyType) {
         if (keyType.equals("AES") && keySize != 32) {
             throw new IllegalArgumentException("AES key must be 256 bits");
@@ -58,14 +111,51 @@ public class EncryptionService {
     }
 
     public InputStream encryptStream(InputStream inputStream) throws GeneralSecurityException, IOException {
+        return new ByteArrayInputStream(encrypt(inputStream));
+    }
+
+    /**
+     * Size of the stored form of a plaintext of the given size: the IV, the ciphertext and the HMAC.
+     */
+    public long getEncryptedSize(long plaintextSize) {
+        return IV_SIZE + plaintextSize + HMAC_SIZE;
+    }
+
+    /**
+     * Keyed fingerprint of a content held in memory, computed without encrypting it.
+     */
+    public byte[] fingerprint(long userId, byte[] content) throws GeneralSecurityException {
+        return fingerprint(userId, MessageDigest.getInstance(DIGEST_ALGORITHM).digest(content), content.length);
+    }
+
+    /**
+     * Keyed fingerprint of a content, from its SHA-256 and size. The user id is part of the MAC input, so
+     * identical contents of different users get unrelated fingerprints and stored fingerprints can't be
+     * compared across users.
+     */
+    public byte[] fingerprint(long userId, byte[] sha256, long size) throws GeneralSecurityException {
+        if (sha256.length != SHA256_SIZE) {
+            throw new IllegalArgumentException("SHA-256 digest must be " + SHA256_SIZE + " bytes");
+        }
+
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(fingerprintKey);
+        mac.update(ByteBuffer.allocate(Long.BYTES * 2).putLong(userId).putLong(size).array());
+        mac.update(sha256);
+        return mac.doFinal();
+    }
+
+    private byte[] encrypt(InputStream inputStream) throws GeneralSecurityException, IOException {
         byte[] iv = new byte[IV_SIZE];
         secureRandom.nextBytes(iv);
 
+        KeySet keySet = keysByVersion.get(currentKeyVersion);
+
         Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-        cipher.init(Cipher.ENCRYPT_MODE, aesKey, new IvParameterSpec(iv));
+        cipher.init(Cipher.ENCRYPT_MODE, keySet.aesKey(), new IvParameterSpec(iv));
 
         Mac mac = Mac.getInstance(HMAC_ALGORITHM);
-        mac.init(hmacKey);
+        mac.init(keySet.hmacKey());
 
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         outputStream.write(iv);
@@ -89,21 +179,31 @@ public class EncryptionService {
 
         outputStream.write(mac.doFinal());
 
-        return new ByteArrayInputStream(outputStream.toByteArray());
+        return outputStream.toByteArray();
     }
 
     public void decryptStream(InputStream encryptedInputStream, OutputStream outputStream)
             throws GeneralSecurityException, IOException {
+        decryptStream(currentKeyVersion, encryptedInputStream, outputStream);
+    }
+
+    /**
+     * Decrypts content encrypted with the keys of the given version, current or retired.
+     */
+    public void decryptStream(int keyVersion, InputStream encryptedInputStream, OutputStream outputStream)
+            throws GeneralSecurityException, IOException {
+        KeySet keySet = getKeySet(keyVersion);
+
         byte[] iv = new byte[IV_SIZE];
         if (readFully(encryptedInputStream, iv) != IV_SIZE) {
             throw new IOException("Invalid encrypted data: IV missing");
         }
 
         Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-        cipher.init(Cipher.DECRYPT_MODE, aesKey, new IvParameterSpec(iv));
+        cipher.init(Cipher.DECRYPT_MODE, keySet.aesKey(), new IvParameterSpec(iv));
 
         Mac mac = Mac.getInstance(HMAC_ALGORITHM);
-        mac.init(hmacKey);
+        mac.init(keySet.hmacKey());
         mac.update(iv);
 
         ByteArrayOutputStream tempStream = new ByteArrayOutputStream();
@@ -140,6 +240,67 @@ public class EncryptionService {
         outputStream.flush();
     }
 
+    /**
+     * Decrypts content encrypted with the keys of the given version and encrypts it again with the current keys.
+     */
+    public InputStream reEncryptStream(int keyVersion, InputStream encryptedInputStream) throws GeneralSecurityException, IOException {
+        ByteArrayOutputStream decryptedOutputStream = new ByteArrayOutputStream();
+        decryptStream(keyVersion, encryptedInputStream, decryptedOutputStream);
+
+        return encryptStream(new ByteArrayInputStream(decryptedOutputStream.toByteArray()));
+    }
+
+    /**
+     * Checks the HMAC of encrypted content without decrypting it. The content is streamed, only the trailing
+     * HMAC_SIZE bytes are held back, so any size can be verified with constant memory.
+     */
+    public boolean verifyIntegrity(int keyVersion, InputStream encryptedInputStream) throws GeneralSecurityException, IOException {
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(getKeySet(keyVersion).hmacKey());
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] tail = new byte[HMAC_SIZE];
+        int tailLength = 0;
+        long totalBytes = 0;
+        int bytesRead;
+
+        while ((bytesRead = encryptedInputStream.read(buffer)) > 0) {
+            totalBytes += bytesRead;
+
+            int bytesToAuthenticate = tailLength + bytesRead - HMAC_SIZE;
+            if (bytesToAuthenticate <= 0) {
+                System.arraycopy(buffer, 0, tail, tailLength, bytesRead);
+                tailLength += bytesRead;
+                continue;
+            }
+
+            int fromTail = Math.min(bytesToAuthenticate, tailLength);
+            int fromBuffer = bytesToAuthenticate - fromTail;
+            mac.update(tail, 0, fromTail);
+            mac.update(buffer, 0, fromBuffer);
+
+            byte[] newTail = new byte[HMAC_SIZE];
+            System.arraycopy(tail, fromTail, newTail, 0, tailLength - fromTail);
+            System.arraycopy(buffer, fromBuffer, newTail, tailLength - fromTail, bytesRead - fromBuffer);
+            tail = newTail;
+            tailLength = HMAC_SIZE;
+        }
+
+        if (totalBytes < IV_SIZE + HMAC_SIZE) {
+            return false;
+        }
+
+        return MessageDigest.isEqual(mac.doFinal(), tail);
+    }
+
+    private KeySet getKeySet(int keyVersion) throws GeneralSecurityException {
+        KeySet keySet = keysByVersion.get(keyVersion);
+        if (keySet == null) {
+            throw new GeneralSecurityException("No key configured for key version " + keyVersion);
+        }
+        return keySet;
+    }
+
     private int readFully(InputStream input, byte[] buffer) throws IOException {
         int totalBytesRead = 0;
         int bytesRemaining = buffer.length;
@@ -153,4 +314,7 @@ public class EncryptionService {
         }
         return totalBytesRead;
     }
-}
\ No newline at end of file
+
+    private record KeySet(SecretKey aesKey, SecretKey hmacKey) {
+    }
+}
@@ -0,0 +1,51 @@
+package com.lucasdominato.securefilemanager.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects in memory the contents read by downloads, so the tiering job records their access in one batch update
+ * instead of every download writing to the content rows.
+ */
+@Component
+public class ContentAccessTracker {
+
+    private final boolean enabled;
+    private final Set<Long> accessedContentIds = ConcurrentHashMap.newKeySet();
+
+    public ContentAccessTracker(@Value("${securefilemanager.cold-storage.enabled:false}") final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void recordAccess(final Long contentId) {
+        if (enabled) {
+            accessedContentIds.add(contentId);
+        }
+    }
+
+    public void recordAccesses(final Collection<Long> contentIds) {
+        if (enabled) {
+            accessedContentIds.addAll(contentIds);
+        }
+    }
+
+    /**
+     * Removes and returns the contents accessed since the previous call.
+     */
+    public List<Long> drain() {
+        List<Long> contentIds = new ArrayList<>();
+        Iterator<Long> iterator = accessedContentIds.iterator();
+        while (iterator.hasNext()) {
+            contentIds.add(iterator.next());
+            iterator.remove();
+        }
+        return contentIds;
+    }
+}
@@ -0,0 +1,46 @@
+package com.lucasdominato.securefilemanager.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * One run of a background job over the stored contents: the contents are taken in order until the byte budget
+ * of the run is spent, and are then processed in parallel on the job's executor.
+ */
+public final class ContentBatch {
+
+    private ContentBatch() {
+    }
+
+    /**
+     * Takes the contents, in the map's order, while their sizes fit in maxBytes. The first content is always
+     * taken, so a content larger than the budget still gets processed alone.
+     */
+    public static <K> List<K> selectWithinBudget(final Map<K, Long> sizesByContent, final long maxBytes) {
+        List<K> contents = new ArrayList<>();
+        long selectedBytes = 0;
+        for (Map.Entry<K, Long> entry : sizesByContent.entrySet()) {
+            if (!contents.isEmpty() && selectedBytes + entry.getValue() > maxBytes) {
+                break;
+            }
+            contents.add(entry.getKey());
+            selectedBytes += entry.getValue();
+        }
+        return contents;
+    }
+
+    /**
+     * Submits the task of every content to the executor. The results are in the same order as the contents.
+     */
+    public static <K, T> List<CompletableFuture<T>> submit(final List<K> contents,
+                                                           final Function<K, T> task,
+                                                           final Executor executor) {
+        return contents.stream()
+                .map(content -> CompletableFuture.supplyAsync(() -> task.apply(content), executor))
+                .toList();
+    }
+}
@@ -0,0 +1,95 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory Bloom filter of the stored content fingerprints, so uploads of new content skip the dedup lookup.
+ * It is loaded incrementally from file_content, which also picks up the contents stored by other instances.
+ * Until the first load completes every fingerprint is reported as possibly present.
+ */
+@Component
+@Slf4j
+public class ContentBloomFilter {
+
+    private static final int LOAD_PAGE_SIZE = 10_000;
+
+    private final FileJdbcRepository fileJdbcRepository;
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    private volatile boolean loaded;
+    private long lastLoadedContentId;
+
+    public ContentBloomFilter(final FileJdbcRepository fileJdbcRepository,
+                              @Value("${securefilemanager.dedup.bloom-filter.expected-contents:1000000}") final long expectedContents,
+                              @Value("${securefilemanager.dedup.bloom-filter.false-positive-probability:0.01}") final double falsePositiveProbability) {
+        this.fileJdbcRepository = fileJdbcRepository;
+
+        long optimalBitCount = (long) Math.ceil(-expectedContents * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        this.bits = new AtomicLongArray((int) Math.max(1, (optimalBitCount + Long.SIZE - 1) / Long.SIZE));
+        this.bitCount = (long) bits.length() * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedContents * Math.log(2)));
+    }
+
+    public boolean mightContain(byte[] fingerprint) {
+        if (!loaded) {
+            return true;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(fingerprint);
+        long hash1 = buffer.getLong();
+        long hash2 = buffer.getLong();
+        for (int i = 0; i < hashCount; i++) {
+            long index = Math.floorMod(hash1 + i * hash2, bitCount);
+            if ((bits.get((int) (index / Long.SIZE)) & (1L << (index % Long.SIZE))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fingerprints are HMAC outputs, so their first two longs are used directly as the two hashes
+     * of the double hashing scheme.
+     */
+    public void put(byte[] fingerprint) {
+        ByteBuffer buffer = ByteBuffer.wrap(fingerprint);
+        long hash1 = buffer.getLong();
+        long hash2 = buffer.getLong();
+        for (int i = 0; i < hashCount; i++) {
+            long index = Math.floorMod(hash1 + i * hash2, bitCount);
+            long mask = 1L << (index % Long.SIZE);
+            bits.getAndUpdate((int) (index / Long.SIZE), word -> word | mask);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${securefilemanager.dedup.bloom-filter.refresh-interval:PT30S}")
+    public void refresh() {
+        try {
+            Map<Long, byte[]> fingerprints;
+            do {
+                fingerprints = fileJdbcRepository.findFingerprintsAfter(lastLoadedContentId, LOAD_PAGE_SIZE);
+                for (Map.Entry<Long, byte[]> entry : fingerprints.entrySet()) {
+                    put(entry.getValue());
+                    lastLoadedContentId = entry.getKey();
+                }
+            } while (fingerprints.size() == LOAD_PAGE_SIZE);
+
+            if (!loaded) {
+                log.info("Content Bloom filter loaded up to content id {}", lastLoadedContentId);
+                loaded = true;
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to refresh the content Bloom filter", e);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.lucasdominato.securefilemanager.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a stream into content-defined chunks with the FastCDC algorithm: a cut point is placed where a gear
+ * rolling hash of the last 64 bytes matches a mask, so boundaries move with the content and an edit only
+ * changes the chunks around it. Normalized chunking (a stricter mask before the average size, a looser one
+ * after it) keeps chunk sizes close to the average. Only one chunk of at most maxSize bytes is held in memory.
+ */
+public class ContentDefinedChunker {
+
+    private static final long[] GEAR = createGearTable();
+
+    private final InputStream inputStream;
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long strictMask;
+    private final long looseMask;
+    private final byte[] buffer;
+    private int length;
+    private boolean endOfStream;
+
+    public ContentDefinedChunker(InputStream inputStream, int minSize, int avgSize, int maxSize) {
+        if (minSize <= 0 || minSize > avgSize || avgSize > maxSize) {
+            throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min <= avg <= max");
+        }
+        this.inputStream = inputStream;
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+
+        int bits = 31 - Integer.numberOfLeadingZeros(avgSize);
+        this.strictMask = topBitsMask(bits + 2);
+        this.looseMask = topBitsMask(Math.max(1, bits - 2));
+        this.buffer = new byte[maxSize];
+    }
+
+    /**
+     * Returns the next chunk, or null once the stream is exhausted.
+     */
+    public byte[] nextChunk() throws IOException {
+        fill();
+        if (length == 0) {
+            return null;
+        }
+
+        int cutPoint = findCutPoint();
+        byte[] chunk = Arrays.copyOf(buffer, cutPoint);
+        System.arraycopy(buffer, cutPoint, buffer, 0, length - cutPoint);
+        length -= cutPoint;
+        return chunk;
+    }
+
+    private void fill() throws IOException {
+        while (!endOfStream && length < maxSize) {
+            int bytesRead = inputStream.read(buffer, length, maxSize - length);
+            if (bytesRead < 0) {
+                endOfStream = true;
+            } else {
+                length += bytesRead;
+            }
+        }
+    }
+
+    private int findCutPoint() {
+        if (length <= minSize) {
+            return length;
+        }
+
+        int normalSize = Math.min(avgSize, length);
+        long hash = 0;
+        int i = minSize;
+        for (; i < normalSize; i++) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+            if ((hash & strictMask) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < length; i++) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+            if ((hash & looseMask) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * The gear hash shifts left, so its top bits depend on the most bytes: masks test the top bits.
+     */
+    private static long topBitsMask(int bits) {
+        return -1L << (Long.SIZE - bits);
+    }
+
+    /**
+     * Chunk boundaries must be the same on every instance and across restarts for chunks to be shared,
+     * so the table is generated by splitmix64 from a fixed seed instead of being random.
+     */
+    private static long[] createGearTable() {
+        long[] gear = new long[256];
+        long state = 0x5EC0_4EF1_1E5A_1E00L;
+        for (int i = 0; i < gear.length; i++) {
+            state += 0x9E37_79B9_7F4A_7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58_476D_1CE4_E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D0_49BB_1331_11EBL;
+            gear[i] = z ^ (z >>> 31);
+        }
+        return gear;
+    }
+}
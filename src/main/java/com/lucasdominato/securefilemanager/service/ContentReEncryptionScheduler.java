@@ -0,0 +1,127 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.config.ExecutorConfig;
+import com.lucasdominato.securefilemanager.data.entity.KeyRotationCheckpoint;
+import com.lucasdominato.securefilemanager.data.repository.ContentKey;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-encrypts, online, the stored contents still encrypted with retired keys. The contents are walked in id
+ * order, and each run re-encrypts at most batch-size contents and max-bytes-per-run bytes in parallel before saving
+ * its position in a checkpoint, so the job is throttled and resumes where it stopped after a restart. The checkpoint
+ * stops before a content that failed, which is retried on the next run, and the rotation is only complete once no
+ * content is left on a retired key version.
+ */
+@Component
+@Slf4j
+public class ContentReEncryptionScheduler {
+
+    private final ContentReEncryptionService contentReEncryptionService;
+    private final TaskExecutor reEncryptionExecutor;
+    private final int batchSize;
+    private final long maxBytesPerRun;
+    private final Counter reEncryptedContentsCounter;
+    private final Counter reEncryptedBytesCounter;
+    private final Counter failuresCounter;
+    private final AtomicLong checkpointContentId = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    public ContentReEncryptionScheduler(final ContentReEncryptionService contentReEncryptionService,
+                                        @Qualifier(ExecutorConfig.RE_ENCRYPTION_EXECUTOR) final TaskExecutor reEncryptionExecutor,
+                                        final MeterRegistry meterRegistry,
+                                        @Value("${securefilemanager.reencryption.batch-size:100}") final int batchSize,
+                                        @Value("${securefilemanager.reencryption.max-bytes-per-run:268435456}") final long maxBytesPerRun) {
+        this.contentReEncryptionService = contentReEncryptionService;
+        this.reEncryptionExecutor = reEncryptionExecutor;
+        this.batchSize = batchSize;
+        this.maxBytesPerRun = maxBytesPerRun;
+        this.reEncryptedContentsCounter = Counter.builder("securefilemanager.reencryption.contents")
+                .description("Stored contents re-encrypted with the current keys")
+                .register(meterRegistry);
+        this.reEncryptedBytesCounter = Counter.builder("securefilemanager.reencryption.processed")
+                .description("Encrypted content re-encrypted with the current keys")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.failuresCounter = Counter.builder("securefilemanager.reencryption.failures")
+                .description("Attempts to re-encrypt a stored content that failed and will be retried")
+                .register(meterRegistry);
+        Gauge.builder("securefilemanager.reencryption.checkpoint", checkpointContentId, AtomicLong::get)
+                .description("Last content id visited by the re-encryption to the current key version")
+                .register(meterRegistry);
+        Gauge.builder("securefilemanager.reencryption.completed", completed, AtomicLong::get)
+                .description("1 once no stored content is left encrypted with a retired key version")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${securefilemanager.reencryption.interval:PT5S}")
+    public void reEncrypt() {
+        try {
+            KeyRotationCheckpoint checkpoint = contentReEncryptionService.getOrStartCheckpoint();
+            updateGauges(checkpoint);
+
+            if (checkpoint.getCompletedDate() != null) {
+                return;
+            }
+
+            Map<ContentKey, Long> sizesByContent = contentReEncryptionService.findNextContents(checkpoint.getLastContentId(), batchSize);
+            if (sizesByContent.isEmpty()) {
+                // Contents written with a retired key by an instance not yet restarted are behind the checkpoint
+                if (contentReEncryptionService.hasContentsToReEncrypt()) {
+                    updateGauges(contentReEncryptionService.restartCheckpoint(checkpoint.getKeyVersion()));
+                    log.warn("Contents are left on retired key versions, starting another re-encryption pass to key version {}", checkpoint.getKeyVersion());
+                    return;
+                }
+                updateGauges(contentReEncryptionService.advanceCheckpoint(checkpoint.getKeyVersion(), checkpoint.getLastContentId(), 0, 0, true));
+                log.info("Re-encryption to key version {} completed", checkpoint.getKeyVersion());
+                return;
+            }
+
+            List<ContentKey> contents = ContentBatch.selectWithinBudget(sizesByContent, maxBytesPerRun);
+            List<CompletableFuture<Boolean>> results = ContentBatch.submit(contents, contentReEncryptionService::reEncrypt, reEncryptionExecutor);
+
+            long reEncryptedContents = 0;
+            long reEncryptedBytes = 0;
+            long lastContentId = contents.get(contents.size() - 1).contentId();
+            for (int i = contents.size() - 1; i >= 0; i--) {
+                try {
+                    if (results.get(i).join()) {
+                        reEncryptedContents++;
+                        reEncryptedBytes += sizesByContent.get(contents.get(i));
+                    }
+                } catch (CompletionException e) {
+                    failuresCounter.increment();
+                    log.error("Failed to re-encrypt content {}, retrying it on the next run", contents.get(i).contentId(), e.getCause());
+                    // The checkpoint stops just before the first failed content
+                    lastContentId = i > 0 ? contents.get(i - 1).contentId() : checkpoint.getLastContentId();
+                }
+            }
+
+            reEncryptedContentsCounter.increment(reEncryptedContents);
+            reEncryptedBytesCounter.increment(reEncryptedBytes);
+
+            updateGauges(contentReEncryptionService.advanceCheckpoint(checkpoint.getKeyVersion(), lastContentId,
+                    reEncryptedContents, reEncryptedBytes, false));
+        } catch (RuntimeException e) {
+            log.error("Failed to run the content re-encryption", e);
+        }
+    }
+
+    private void updateGauges(KeyRotationCheckpoint checkpoint) {
+        checkpointContentId.set(checkpoint.getLastContentId());
+        completed.set(checkpoint.getCompletedDate() != null ? 1 : 0);
+    }
+}
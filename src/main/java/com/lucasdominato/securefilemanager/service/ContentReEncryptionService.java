@@ -0,0 +1,125 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.data.entity.KeyRotationCheckpoint;
+import com.lucasdominato.securefilemanager.data.repository.ContentDiskCache;
+import com.lucasdominato.securefilemanager.data.repository.ContentKey;
+import com.lucasdominato.securefilemanager.data.repository.EncryptedFileContent;
+import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
+import com.lucasdominato.securefilemanager.data.repository.KeyRotationCheckpointRepository;
+import com.lucasdominato.securefilemanager.exception.FileProcessingException;
+import com.lucasdominato.securefilemanager.security.EncryptionService;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+@Service
+public class ContentReEncryptionService {
+
+    private final FileJdbcRepository fileJdbcRepository;
+    private final KeyRotationCheckpointRepository keyRotationCheckpointRepository;
+    private final EncryptionService encryptionService;
+    private final ContentDiskCache contentDiskCache;
+
+    public ContentReEncryptionService(final FileJdbcRepository fileJdbcRepository,
+                                      final KeyRotationCheckpointRepository keyRotationCheckpointRepository,
+                                      final EncryptionService encryptionService,
+                                      final ContentDiskCache contentDiskCache) {
+        this.fileJdbcRepository = fileJdbcRepository;
+        this.keyRotationCheckpointRepository = keyRotationCheckpointRepository;
+        this.encryptionService = encryptionService;
+        this.contentDiskCache = contentDiskCache;
+    }
+
+    /**
+     * Returns the checkpoint of the rotation to the current key version, starting the rotation if needed.
+     */
+    @Transactional
+    public KeyRotationCheckpoint getOrStartCheckpoint() {
+        int keyVersion = encryptionService.getCurrentKeyVersion();
+
+        return keyRotationCheckpointRepository.findById(keyVersion).orElseGet(() -> {
+            KeyRotationCheckpoint checkpoint = new KeyRotationCheckpoint();
+            checkpoint.setKeyVersion(keyVersion);
+            checkpoint.setLastContentId(0L);
+            checkpoint.setReEncryptedContents(0L);
+            checkpoint.setReEncryptedBytes(0L);
+            checkpoint.setStartedDate(LocalDateTime.now());
+            return keyRotationCheckpointRepository.save(checkpoint);
+        });
+    }
+
+    @Transactional(readOnly = true)
+    public Map<ContentKey, Long> findNextContents(final long afterContentId, final int limit) {
+        return fileJdbcRepository.findContentSizesToReEncrypt(afterContentId, encryptionService.getCurrentKeyVersion(), limit);
+    }
+
+    /**
+     * Returns whether any stored content is still encrypted with a retired key version.
+     */
+    @Transactional(readOnly = true)
+    public boolean hasContentsToReEncrypt() {
+        return fileJdbcRepository.existsContentNotEncryptedWith(encryptionService.getCurrentKeyVersion());
+    }
+
+    /**
+     * Re-encrypts one stored content with the current keys, holding its row lock so a concurrent re-encryption
+     * by another instance is either applied before (and skipped here) or waits for this one to commit.
+     * Returns whether the content was re-encrypted.
+     */
+    @Transactional
+    public boolean reEncrypt(final ContentKey content) {
+        Long contentId = content.contentId();
+        int keyVersion = encryptionService.getCurrentKeyVersion();
+
+        Optional<EncryptedFileContent> encryptedFileContent = fileJdbcRepository.lockContentToReEncrypt(content.userId(), contentId, keyVersion);
+        if (encryptedFileContent.isEmpty()) {
+            return false;
+        }
+
+        try (InputStream reEncryptedInputStream = encryptionService.reEncryptStream(encryptedFileContent.get().getKeyVersion(),
+                encryptedFileContent.get().getContent())) {
+            fileJdbcRepository.updateContent(content.userId(), contentId, reEncryptedInputStream, keyVersion);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new FileProcessingException("Failed to re-encrypt content " + contentId, e);
+        }
+        contentDiskCache.invalidate(List.of(contentId));
+        return true;
+    }
+
+    @Transactional
+    public KeyRotationCheckpoint advanceCheckpoint(final int keyVersion,
+                                                   final long lastContentId,
+                                                   final long reEncryptedContents,
+                                                   final long reEncryptedBytes,
+                                                   final boolean completed) {
+        KeyRotationCheckpoint checkpoint = keyRotationCheckpointRepository.findById(keyVersion)
+                .orElseThrow(() -> new IllegalStateException("No key rotation checkpoint for key version " + keyVersion));
+
+        checkpoint.setLastContentId(Math.max(checkpoint.getLastContentId(), lastContentId));
+        checkpoint.setReEncryptedContents(checkpoint.getReEncryptedContents() + reEncryptedContents);
+        checkpoint.setReEncryptedBytes(checkpoint.getReEncryptedBytes() + reEncryptedBytes);
+        if (completed) {
+            checkpoint.setCompletedDate(LocalDateTime.now());
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Starts another pass over every content, to retry the contents left on a retired key version.
+     */
+    @Transactional
+    public KeyRotationCheckpoint restartCheckpoint(final int keyVersion) {
+        KeyRotationCheckpoint checkpoint = keyRotationCheckpointRepository.findById(keyVersion)
+                .orElseThrow(() -> new IllegalStateException("No key rotation checkpoint for key version " + keyVersion));
+
+        checkpoint.setLastContentId(0L);
+        return checkpoint;
+    }
+}
@@ -0,0 +1,137 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.config.DataSourceConfig;
+import com.lucasdominato.securefilemanager.config.ExecutorConfig;
+import com.lucasdominato.securefilemanager.data.entity.ScrubCheckpoint;
+import com.lucasdominato.securefilemanager.data.repository.ContentKey;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies the HMAC of every stored content, pass after pass, so corruption is found before a download hits it.
+ * Each run checks at most batch-size contents and max-bytes-per-run bytes on a small pool, and the run
+ * is skipped while the foreground traffic keeps more than max-busy-connections database connections busy.
+ */
+@Component
+@Slf4j
+public class ContentScrubScheduler {
+
+    private final ContentScrubService contentScrubService;
+    private final TaskExecutor scrubExecutor;
+    private final DataSource dataSource;
+    private final int batchSize;
+    private final long maxBytesPerRun;
+    private final int maxBusyConnections;
+    private final Counter scrubbedContentsCounter;
+    private final Counter scrubbedBytesCounter;
+    private final Counter corruptedContentsCounter;
+    private final Counter errorsCounter;
+    private final AtomicLong corruptedContents = new AtomicLong();
+
+    public ContentScrubScheduler(final ContentScrubService contentScrubService,
+                                 @Qualifier(ExecutorConfig.SCRUB_EXECUTOR) final TaskExecutor scrubExecutor,
+                                 @Qualifier(DataSourceConfig.PRIMARY_DATA_SOURCE) final DataSource dataSource,
+                                 final MeterRegistry meterRegistry,
+                                 @Value("${securefilemanager.scrub.batch-size:50}") final int batchSize,
+                                 @Value("${securefilemanager.scrub.max-bytes-per-run:67108864}") final long maxBytesPerRun,
+                                 @Value("${securefilemanager.scrub.max-busy-connections:5}") final int maxBusyConnections) {
+        this.contentScrubService = contentScrubService;
+        this.scrubExecutor = scrubExecutor;
+        this.dataSource = dataSource;
+        this.batchSize = batchSize;
+        this.maxBytesPerRun = maxBytesPerRun;
+        this.maxBusyConnections = maxBusyConnections;
+        this.scrubbedContentsCounter = Counter.builder("securefilemanager.scrub.contents")
+                .description("Stored contents verified by the scrubber")
+                .register(meterRegistry);
+        this.scrubbedBytesCounter = Counter.builder("securefilemanager.scrub.verified")
+                .description("Encrypted content verified by the scrubber")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.corruptedContentsCounter = Counter.builder("securefilemanager.scrub.failures")
+                .description("Stored contents whose integrity check failed")
+                .register(meterRegistry);
+        this.errorsCounter = Counter.builder("securefilemanager.scrub.errors")
+                .description("Stored contents that could not be read by the scrubber")
+                .register(meterRegistry);
+        Gauge.builder("securefilemanager.scrub.corrupted", corruptedContents, AtomicLong::get)
+                .description("Stored contents whose last integrity check failed")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${securefilemanager.scrub.interval:PT10S}")
+    public void scrub() {
+        try {
+            if (isForegroundBusy()) {
+                log.debug("Skipping scrub run, the database connection pool is busy");
+                return;
+            }
+
+            ScrubCheckpoint checkpoint = contentScrubService.getOrStartCheckpoint();
+
+            Map<ContentKey, Long> sizesByContent = contentScrubService.findNextContents(checkpoint.getLastContentId(), batchSize);
+            if (sizesByContent.isEmpty()) {
+                contentScrubService.advanceCheckpoint(checkpoint.getLastContentId(), true);
+                corruptedContents.set(contentScrubService.countCorruptedContents());
+                log.info("Scrub pass {} completed, {} corrupted contents", checkpoint.getPass(), corruptedContents.get());
+                return;
+            }
+
+            List<ContentKey> contents = ContentBatch.selectWithinBudget(sizesByContent, maxBytesPerRun);
+            List<CompletableFuture<Boolean>> results = ContentBatch.submit(contents, contentScrubService::scrub, scrubExecutor);
+
+            for (int i = 0; i < contents.size(); i++) {
+                Long contentId = contents.get(i).contentId();
+                try {
+                    if (!results.get(i).join()) {
+                        corruptedContentsCounter.increment();
+                        log.error("Integrity check failed for content {}", contentId);
+                    }
+                    scrubbedContentsCounter.increment();
+                    scrubbedBytesCounter.increment(sizesByContent.get(contents.get(i)));
+                } catch (CompletionException e) {
+                    errorsCounter.increment();
+                    log.warn("Failed to scrub content {}", contentId, e.getCause());
+                }
+            }
+
+            contentScrubService.advanceCheckpoint(contents.get(contents.size() - 1).contentId(), false);
+            corruptedContents.set(contentScrubService.countCorruptedContents());
+        } catch (RuntimeException e) {
+            log.error("Failed to run the integrity scrubber", e);
+        }
+    }
+
+    /**
+     * Whether the metadata pool has more than maxBusyConnections in use. The pool is unwrapped, as it is wrapped in
+     * a ConnectionPermitDataSource on virtual threads. The primary pool is taken, not the replica routing in front.
+     */
+    private boolean isForegroundBusy() {
+        try {
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                HikariPoolMXBean pool = dataSource.unwrap(HikariDataSource.class).getHikariPoolMXBean();
+                return pool != null && pool.getActiveConnections() > maxBusyConnections;
+            }
+        } catch (SQLException e) {
+            log.warn("Failed to read the metadata pool usage", e);
+        }
+        return false;
+    }
+}
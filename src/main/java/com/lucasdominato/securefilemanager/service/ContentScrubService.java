@@ -0,0 +1,105 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.data.entity.ContentIntegrityCheck;
+import com.lucasdominato.securefilemanager.data.entity.ScrubCheckpoint;
+import com.lucasdominato.securefilemanager.data.repository.ContentKey;
+import com.lucasdominato.securefilemanager.data.repository.EncryptedFileContent;
+import com.lucasdominato.securefilemanager.data.repository.ContentIntegrityCheckRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
+import com.lucasdominato.securefilemanager.data.repository.ScrubCheckpointRepository;
+import com.lucasdominato.securefilemanager.security.EncryptionService;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.GeneralSecurityException;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+@Service
+public class ContentScrubService {
+
+    private final FileJdbcRepository fileJdbcRepository;
+    private final ContentIntegrityCheckRepository contentIntegrityCheckRepository;
+    private final ScrubCheckpointRepository scrubCheckpointRepository;
+    private final EncryptionService encryptionService;
+
+    public ContentScrubService(final FileJdbcRepository fileJdbcRepository,
+                               final ContentIntegrityCheckRepository contentIntegrityCheckRepository,
+                               final ScrubCheckpointRepository scrubCheckpointRepository,
+                               final EncryptionService encryptionService) {
+        this.fileJdbcRepository = fileJdbcRepository;
+        this.contentIntegrityCheckRepository = contentIntegrityCheckRepository;
+        this.scrubCheckpointRepository = scrubCheckpointRepository;
+        this.encryptionService = encryptionService;
+    }
+
+    @Transactional
+    public ScrubCheckpoint getOrStartCheckpoint() {
+        return scrubCheckpointRepository.findById(ScrubCheckpoint.ID).orElseGet(() -> {
+            ScrubCheckpoint checkpoint = new ScrubCheckpoint();
+            checkpoint.setId(ScrubCheckpoint.ID);
+            checkpoint.setLastContentId(0L);
+            checkpoint.setPass(1L);
+            checkpoint.setPassStartedDate(LocalDateTime.now());
+            return scrubCheckpointRepository.save(checkpoint);
+        });
+    }
+
+    @Transactional(readOnly = true)
+    public Map<ContentKey, Long> findNextContents(final long afterContentId, final int limit) {
+        return fileJdbcRepository.findContentSizesAfter(afterContentId, limit);
+    }
+
+    /**
+     * Verifies the HMAC of the stored content and records the result. Errors reading the content are thrown,
+     * not recorded, as they do not tell anything about the stored ciphertext.
+     */
+    @Transactional
+    public boolean scrub(final ContentKey content) {
+        EncryptedFileContent encryptedFileContent = fileJdbcRepository.getFileContentById(content.userId(), content.contentId());
+
+        ContentIntegrityCheck check = new ContentIntegrityCheck();
+        check.setContentId(content.contentId());
+        check.setCheckedDate(LocalDateTime.now());
+
+        try (InputStream inputStream = encryptedFileContent.getContent()) {
+            check.setValid(encryptionService.verifyIntegrity(encryptedFileContent.getKeyVersion(), inputStream));
+            if (!check.getValid()) {
+                check.setFailureReason("Data integrity check failed");
+            }
+        } catch (GeneralSecurityException e) {
+            check.setValid(false);
+            check.setFailureReason(e.getMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        contentIntegrityCheckRepository.save(check);
+        return check.getValid();
+    }
+
+    /**
+     * Moves the checkpoint after the given content id or, at the end of a pass, back to the start for the next one.
+     */
+    @Transactional
+    public ScrubCheckpoint advanceCheckpoint(final long lastContentId, final boolean endOfPass) {
+        ScrubCheckpoint checkpoint = getOrStartCheckpoint();
+
+        if (endOfPass) {
+            checkpoint.setLastContentId(0L);
+            checkpoint.setPass(checkpoint.getPass() + 1);
+            checkpoint.setPassStartedDate(LocalDateTime.now());
+        } else {
+            checkpoint.setLastContentId(lastContentId);
+        }
+        return checkpoint;
+    }
+
+    @Transactional(readOnly = true)
+    public long countCorruptedContents() {
+        return contentIntegrityCheckRepository.countByValidFalse();
+    }
+}
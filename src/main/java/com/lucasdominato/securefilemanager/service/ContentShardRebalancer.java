@@ -0,0 +1,103 @@
+package com.lucasdominato.securefilemanager.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * One-shot tool moving a user to another content shard while the other instances keep serving, including the user:
+ * their new contents go to the target shard once the placement caches of the instances expired, which the tool waits
+ * for before copying, and each content is copied in its own transaction, staying readable from its previous shard
+ * until the sweeper removes the old copy.
+ * Runs when securefilemanager.shards.move.username is set, then exits.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty("securefilemanager.shards.move.username")
+public class ContentShardRebalancer implements ApplicationRunner {
+
+    private static final int MAX_PASSES = 10;
+
+    private final ContentShardService contentShardService;
+    private final ConfigurableApplicationContext applicationContext;
+    private final String username;
+    private final int shard;
+    private final int batchSize;
+
+    public ContentShardRebalancer(final ContentShardService contentShardService,
+                                  final ConfigurableApplicationContext applicationContext,
+                                  @Value("${securefilemanager.shards.move.username}") final String username,
+                                  @Value("${securefilemanager.shards.move.to}") final int shard,
+                                  @Value("${securefilemanager.shards.move.batch-size:100}") final int batchSize) {
+        this.contentShardService = contentShardService;
+        this.applicationContext = applicationContext;
+        this.username = username;
+        this.shard = shard;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run(final ApplicationArguments args) {
+        int exitCode = 0;
+        try {
+            Long userId = contentShardService.assignShard(username, shard);
+            log.info("Waiting {} for the instances to send the new contents of user {} to content shard {}",
+                    contentShardService.getPlacementCacheTtl(), username, shard);
+            Thread.sleep(contentShardService.getPlacementCacheTtl().toMillis());
+            log.info("Moving the contents of user {} to content shard {}", username, shard);
+
+            // Uploads that resolved the previous shard before the assignment, and contents locked by another
+            // instance, are picked up by the next pass
+            long moved = 0;
+            boolean remaining = true;
+            for (int pass = 1; pass <= MAX_PASSES && remaining; pass++) {
+                long movedInPass = movePass(userId);
+                moved += movedInPass;
+                remaining = !contentShardService.findContentsToMove(userId, shard, 0, 1).isEmpty();
+                log.info("Pass {} moved {} contents", pass, movedInPass);
+            }
+
+            if (remaining) {
+                log.warn("Moved {} contents of user {}, some are still elsewhere, run the move again", moved, username);
+                exitCode = 1;
+            } else {
+                log.info("Moved {} contents of user {} to content shard {}", moved, username, shard);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while moving user {} to content shard {}", username, shard);
+            exitCode = 1;
+        } catch (RuntimeException e) {
+            log.error("Failed to move user {} to content shard {}", username, shard, e);
+            exitCode = 1;
+        }
+
+        int status = exitCode;
+        System.exit(SpringApplication.exit(applicationContext, () -> status));
+    }
+
+    private long movePass(final Long userId) {
+        long moved = 0;
+        long afterContentId = 0;
+        List<Long> contentIds;
+        do {
+            contentIds = contentShardService.findContentsToMove(userId, shard, afterContentId, batchSize);
+            for (Long contentId : contentIds) {
+                if (contentShardService.moveContent(contentId, shard)) {
+                    moved++;
+                }
+            }
+            if (!contentIds.isEmpty()) {
+                afterContentId = contentIds.get(contentIds.size() - 1);
+            }
+        } while (contentIds.size() == batchSize);
+        return moved;
+    }
+}
@@ -0,0 +1,58 @@
+package com.lucasdominato.securefilemanager.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Sweeps every content shard for contents no row points at anymore, left behind by the purge, by moves between
+ * shards and by failed uploads. Each run goes through every shard once, batch-size contents at a time.
+ */
+@Component
+@Slf4j
+public class ContentShardScheduler {
+
+    private final ContentShardService contentShardService;
+    private final int batchSize;
+    private final Counter sweptContentsCounter;
+
+    public ContentShardScheduler(final ContentShardService contentShardService,
+                                 final MeterRegistry meterRegistry,
+                                 @Value("${securefilemanager.shards.sweep-batch-size:1000}") final int batchSize) {
+        this.contentShardService = contentShardService;
+        this.batchSize = batchSize;
+        this.sweptContentsCounter = Counter.builder("securefilemanager.shards.swept")
+                .description("Orphaned contents deleted from the content shards")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${securefilemanager.shards.sweep-interval:PT10M}")
+    public void sweep() {
+        for (int shard : contentShardService.getShards()) {
+            try {
+                int swept = 0;
+                long afterContentId = 0;
+                List<Long> contentIds;
+                do {
+                    contentIds = contentShardService.findShardContentsAfter(shard, afterContentId, batchSize);
+                    swept += contentShardService.deleteOrphans(shard, contentIds);
+                    if (!contentIds.isEmpty()) {
+                        afterContentId = contentIds.get(contentIds.size() - 1);
+                    }
+                } while (contentIds.size() == batchSize);
+
+                sweptContentsCounter.increment(swept);
+                if (swept > 0) {
+                    log.info("Deleted {} orphaned contents from content shard {}", swept, shard);
+                }
+            } catch (RuntimeException e) {
+                log.error("Failed to sweep content shard {}", shard, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.lucasdominato.securefilemanager.data.entity.User;
+import com.lucasdominato.securefilemanager.data.repository.ContentShardStore;
+import com.lucasdominato.securefilemanager.data.repository.EncryptedFileContent;
+import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
+import com.lucasdominato.securefilemanager.data.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Places the users' contents on the content shards. A user is placed on a shard derived from the user id when their
+ * first content is written, and that shard is recorded in users.content_shard, so appending shards does not re-home
+ * anyone: new contents go to the recorded shard until the user is moved. Existing contents stay where they are until
+ * the user is moved, and every content is read from wherever its row points at. The placements are cached for
+ * placement-cache-ttl, so instances pick up a move within that time.
+ */
+@Service
+public class ContentShardService {
+
+    private final UserRepository userRepository;
+    private final FileJdbcRepository fileJdbcRepository;
+    private final ContentShardStore contentShardStore;
+    private final Duration orphanGrace;
+    private final Duration placementCacheTtl;
+    private final Cache<Long, Integer> shardsByUserId;
+
+    public ContentShardService(final UserRepository userRepository,
+                               final FileJdbcRepository fileJdbcRepository,
+                               final ContentShardStore contentShardStore,
+                               @Value("${securefilemanager.shards.orphan-grace:PT1H}") final Duration orphanGrace,
+                               @Value("${securefilemanager.shards.placement-cache-ttl:PT1M}") final Duration placementCacheTtl) {
+        this.userRepository = userRepository;
+        this.fileJdbcRepository = fileJdbcRepository;
+        this.contentShardStore = contentShardStore;
+        this.orphanGrace = orphanGrace;
+        this.placementCacheTtl = placementCacheTtl;
+        this.shardsByUserId = Caffeine.newBuilder()
+                .expireAfterWrite(placementCacheTtl)
+                .maximumSize(100_000)
+                .build();
+    }
+
+    /**
+     * Returns the shard new contents of the user are written to. The primary until content shards are configured,
+     * then the shard recorded for the user, placing the user on first use.
+     */
+    public int resolveShard(final Long userId) {
+        if (contentShardStore.getShards().isEmpty()) {
+            return ContentShardStore.PRIMARY_SHARD;
+        }
+        return shardsByUserId.get(userId, this::findOrPlaceShard);
+    }
+
+    /**
+     * How long an instance may keep writing a moved user's new contents to their previous shard.
+     */
+    public Duration getPlacementCacheTtl() {
+        return placementCacheTtl;
+    }
+
+    public Set<Integer> getShards() {
+        return contentShardStore.getShards();
+    }
+
+    /**
+     * Sends the new contents of the user to the given shard. Returns the user id.
+     */
+    @Transactional
+    public Long assignShard(final String username, final int shard) {
+        if (!isShard(shard)) {
+            throw new IllegalArgumentException("Content shard " + shard + " is not configured");
+        }
+
+        User user = userRepository.findByUsername(username)
+                .orElseThrow(() -> new IllegalArgumentException("User " + username + " not found"));
+        userRepository.updateContentShard(user.getId(), shard);
+        shardsByUserId.invalidate(user.getId());
+        return user.getId();
+    }
+
+    public List<Long> findContentsToMove(final Long userId, final int shard, final long afterContentId, final int limit) {
+        return fileJdbcRepository.findContentIdsToMove(userId, shard, afterContentId, limit);
+    }
+
+    /**
+     * Moves one content to the given shard. Returns false if it is already there, cold, or locked by another instance.
+     */
+    @Transactional
+    public boolean moveContent(final Long contentId, final int shard) {
+        Optional<EncryptedFileContent> encryptedFileContent = fileJdbcRepository.lockContentToMove(contentId, shard);
+        if (encryptedFileContent.isEmpty()) {
+            return false;
+        }
+
+        fileJdbcRepository.moveContentToShard(contentId, shard, encryptedFileContent.get());
+        return true;
+    }
+
+    /**
+     * Returns, in content id order, up to limit ids after the given content id of the contents stored on the shard.
+     */
+    public List<Long> findShardContentsAfter(final int shard, final long afterContentId, final int limit) {
+        return contentShardStore.findContentIdsAfter(shard, afterContentId, limit);
+    }
+
+    /**
+     * Deletes from the shard the given contents no row pointed at for the orphan grace period: purged, moved to
+     * another shard, or written by an upload that lost a race or failed. Contents found orphaned are marked, the
+     * grace runs from that mark, and the mark is cleared once a row points at them again. Returns the number of
+     * contents deleted.
+     */
+    public int deleteOrphans(final int shard, final List<Long> contentIds) {
+        if (contentIds.isEmpty()) {
+            return 0;
+        }
+
+        Set<Long> referenced = new HashSet<>(fileJdbcRepository.findContentIdsOnShard(contentIds, shard));
+        if (!referenced.isEmpty()) {
+            contentShardStore.clearOrphans(shard, List.copyOf(referenced));
+        }
+
+        List<Long> orphans = contentIds.stream().filter(contentId -> !referenced.contains(contentId)).toList();
+        if (orphans.isEmpty()) {
+            return 0;
+        }
+        int deleted = contentShardStore.deleteOrphans(shard, orphans, orphanGrace);
+        contentShardStore.markOrphans(shard, orphans);
+        return deleted;
+    }
+
+    /**
+     * The recorded shard of the user, or a shard chosen from the user id, recorded unless another instance placed
+     * the user first. A recorded shard no longer configured falls back to the one chosen from the user id.
+     */
+    private int findOrPlaceShard(final Long userId) {
+        Optional<Integer> placed = userRepository.findContentShard(userId);
+        if (placed.isEmpty() && userRepository.placeContentShard(userId, shardOf(userId)) == 0) {
+            placed = userRepository.findContentShard(userId);
+        }
+        return placed.filter(this::isShard).orElseGet(() -> shardOf(userId));
+    }
+
+    private int shardOf(final Long userId) {
+        return 1 + (int) Math.floorMod(userId, (long) contentShardStore.getShards().size());
+    }
+
+    private boolean isShard(final int shard) {
+        return shard == ContentShardStore.PRIMARY_SHARD || contentShardStore.contains(shard);
+    }
+}
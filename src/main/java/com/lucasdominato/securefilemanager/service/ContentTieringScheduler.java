@@ -0,0 +1,146 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.data.repository.ColdSegmentStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tier migrator. Each run promotes the cold contents downloaded since the previous run, demotes up to batch-size
+ * hot contents of at least min-size bytes not downloaded for cold-after, and deletes the segments no content points
+ * at anymore. A segment is only deleted when it was already unreferenced on the previous run, so a download that
+ * looked up its location just before a promotion can still read it.
+ */
+@Component
+@Slf4j
+public class ContentTieringScheduler {
+
+    private final ContentTieringService contentTieringService;
+    private final ContentAccessTracker contentAccessTracker;
+    private final ColdSegmentStore coldSegmentStore;
+    private final boolean enabled;
+    private final int batchSize;
+    private final Counter demotedContentsCounter;
+    private final Counter demotedBytesCounter;
+    private final Counter promotedContentsCounter;
+    private final Counter promotedBytesCounter;
+    private final Counter deletedSegmentsCounter;
+    private final Counter errorsCounter;
+    private Set<String> unreferencedSegments = Set.of();
+
+    public ContentTieringScheduler(final ContentTieringService contentTieringService,
+                                   final ContentAccessTracker contentAccessTracker,
+                                   final ColdSegmentStore coldSegmentStore,
+                                   final MeterRegistry meterRegistry,
+                                   @Value("${securefilemanager.cold-storage.enabled:false}") final boolean enabled,
+                                   @Value("${securefilemanager.cold-storage.batch-size:100}") final int batchSize) {
+        this.contentTieringService = contentTieringService;
+        this.contentAccessTracker = contentAccessTracker;
+        this.coldSegmentStore = coldSegmentStore;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.demotedContentsCounter = Counter.builder("securefilemanager.cold-storage.demotions")
+                .description("Contents moved to the cold tier")
+                .register(meterRegistry);
+        this.demotedBytesCounter = Counter.builder("securefilemanager.cold-storage.demoted")
+                .description("Encrypted content moved to the cold tier")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.promotedContentsCounter = Counter.builder("securefilemanager.cold-storage.promotions")
+                .description("Contents moved back to the hot tier after a download")
+                .register(meterRegistry);
+        this.promotedBytesCounter = Counter.builder("securefilemanager.cold-storage.promoted")
+                .description("Encrypted content moved back to the hot tier")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.deletedSegmentsCounter = Counter.builder("securefilemanager.cold-storage.deleted-segments")
+                .description("Cold segments deleted once no content pointed at them")
+                .register(meterRegistry);
+        this.errorsCounter = Counter.builder("securefilemanager.cold-storage.errors")
+                .description("Contents that could not be moved between tiers")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${securefilemanager.cold-storage.interval:PT1M}")
+    public void migrate() {
+        if (!enabled) {
+            return;
+        }
+
+        try {
+            promoteAccessedContents();
+            demoteColdContents();
+            deleteUnreferencedSegments();
+        } catch (RuntimeException e) {
+            log.error("Failed to run the tier migrator", e);
+        }
+    }
+
+    private void promoteAccessedContents() {
+        List<Long> accessedContentIds = contentAccessTracker.drain();
+        if (accessedContentIds.isEmpty()) {
+            return;
+        }
+
+        List<Long> coldContentIds;
+        try {
+            coldContentIds = contentTieringService.recordAccesses(accessedContentIds);
+        } catch (RuntimeException e) {
+            contentAccessTracker.recordAccesses(accessedContentIds);
+            throw e;
+        }
+
+        for (Long contentId : coldContentIds) {
+            try {
+                long promotedBytes = contentTieringService.promote(contentId);
+                if (promotedBytes > 0) {
+                    promotedContentsCounter.increment();
+                    promotedBytesCounter.increment(promotedBytes);
+                }
+            } catch (RuntimeException e) {
+                errorsCounter.increment();
+                log.warn("Failed to promote content {}", contentId, e);
+            }
+        }
+    }
+
+    private void demoteColdContents() {
+        for (Long contentId : contentTieringService.findContentsToDemote(batchSize)) {
+            try {
+                long demotedBytes = contentTieringService.demote(contentId);
+                if (demotedBytes > 0) {
+                    demotedContentsCounter.increment();
+                    demotedBytesCounter.increment(demotedBytes);
+                }
+            } catch (RuntimeException e) {
+                errorsCounter.increment();
+                log.warn("Failed to demote content {}", contentId, e);
+            }
+        }
+    }
+
+    private void deleteUnreferencedSegments() {
+        Set<String> stillUnreferencedSegments = new HashSet<>(contentTieringService.findUnreferencedSegments());
+
+        for (String segment : stillUnreferencedSegments) {
+            if (unreferencedSegments.contains(segment)) {
+                try {
+                    coldSegmentStore.delete(segment);
+                    deletedSegmentsCounter.increment();
+                    log.info("Deleted unreferenced cold segment {}", segment);
+                } catch (IOException e) {
+                    log.warn("Failed to delete cold segment {}", segment, e);
+                }
+            }
+        }
+        unreferencedSegments = stillUnreferencedSegments;
+    }
+}
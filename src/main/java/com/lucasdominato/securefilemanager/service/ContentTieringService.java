@@ -0,0 +1,115 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.data.repository.ColdSegmentLocation;
+import com.lucasdominato.securefilemanager.data.repository.ColdSegmentStore;
+import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
+import com.lucasdominato.securefilemanager.exception.FileProcessingException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Moves contents between the hot tier (the file_content table) and the cold tier (segment files, see ColdSegmentStore).
+ * Every move of a content runs in its own transaction holding the content row lock, and the cold copy is forced to the
+ * disk before the row points at it, so a crash at any point leaves the content readable from one of the tiers.
+ */
+@Service
+public class ContentTieringService {
+
+    /**
+     * How long a segment stays on disk after its last append before it may be deleted, longer than any demotion
+     * transaction between its append and its commit.
+     */
+    private static final Duration SEGMENT_DELETION_GRACE = Duration.ofHours(1);
+
+    private final FileJdbcRepository fileJdbcRepository;
+    private final ColdSegmentStore coldSegmentStore;
+    private final Duration coldAfter;
+    private final long minSize;
+
+    public ContentTieringService(final FileJdbcRepository fileJdbcRepository,
+                                 final ColdSegmentStore coldSegmentStore,
+                                 @Value("${securefilemanager.cold-storage.cold-after:P30D}") final Duration coldAfter,
+                                 @Value("${securefilemanager.cold-storage.min-size:65536}") final long minSize) {
+        this.fileJdbcRepository = fileJdbcRepository;
+        this.coldSegmentStore = coldSegmentStore;
+        this.coldAfter = coldAfter;
+        this.minSize = minSize;
+    }
+
+    /**
+     * Records the access of the given contents and returns the ones to promote to the hot tier.
+     */
+    @Transactional
+    public List<Long> recordAccesses(final List<Long> contentIds) {
+        return fileJdbcRepository.updateLastAccessedDate(contentIds, LocalDateTime.now());
+    }
+
+    @Transactional(readOnly = true)
+    public List<Long> findContentsToDemote(final int limit) {
+        return fileJdbcRepository.findContentsToDemote(LocalDateTime.now().minus(coldAfter), minSize, limit);
+    }
+
+    /**
+     * Moves one content to the cold tier. Returns the number of bytes moved, 0 if the content was accessed, moved or
+     * locked by another instance since it was selected.
+     */
+    @Transactional
+    public long demote(final Long contentId) {
+        Optional<byte[]> content = fileJdbcRepository.lockContentToDemote(contentId, LocalDateTime.now().minus(coldAfter));
+        if (content.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            ColdSegmentLocation location = coldSegmentStore.append(new ByteArrayInputStream(content.get()));
+            fileJdbcRepository.moveContentToCold(contentId, location);
+            return location.getLength();
+        } catch (IOException e) {
+            throw new FileProcessingException("Failed to move content " + contentId + " to the cold tier", e);
+        }
+    }
+
+    /**
+     * Moves one content back to the hot tier. Its bytes stay in the segment until the whole segment is deleted.
+     * Returns the number of bytes moved, 0 if the content is no longer cold or locked by another instance.
+     */
+    @Transactional
+    public long promote(final Long contentId) {
+        Optional<ColdSegmentLocation> location = fileJdbcRepository.lockContentToPromote(contentId);
+        if (location.isEmpty()) {
+            return 0;
+        }
+
+        try (InputStream inputStream = coldSegmentStore.read(location.get())) {
+            fileJdbcRepository.moveContentToHot(contentId, inputStream);
+            return location.get().getLength();
+        } catch (IOException e) {
+            throw new FileProcessingException("Failed to move content " + contentId + " to the hot tier", e);
+        }
+    }
+
+    /**
+     * Returns the sealed segments no content points at anymore.
+     */
+    @Transactional(readOnly = true)
+    public List<String> findUnreferencedSegments() {
+        try {
+            return coldSegmentStore.findSegmentsNotModifiedSince(Instant.now().minus(SEGMENT_DELETION_GRACE))
+                    .stream()
+                    .filter(segment -> !fileJdbcRepository.isColdSegmentReferenced(segment))
+                    .toList();
+        } catch (IOException e) {
+            throw new FileProcessingException("Failed to list the cold segments", e);
+        }
+    }
+}
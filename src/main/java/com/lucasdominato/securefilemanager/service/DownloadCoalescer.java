@@ -0,0 +1,130 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.config.ExecutorConfig;
+import com.lucasdominato.securefilemanager.data.repository.FileVersionJdbcRepository;
+import com.lucasdominato.securefilemanager.exception.FileNotFoundException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces concurrent downloads of the same file version: the first download starts a fetch of the version's
+ * chunks on the download executor, and the downloads arriving while its first chunk is still buffered read the
+ * same decrypted chunks instead of fetching and decrypting them again. See SharedDownload for the back-pressure.
+ * A version's content never changes, and every download is authorized before it gets here.
+ */
+@Component
+@Slf4j
+public class DownloadCoalescer {
+
+    private final FileVersionService fileVersionService;
+    private final FileVersionJdbcRepository fileVersionJdbcRepository;
+    private final TaskExecutor downloadExecutor;
+    private final long maxBufferSize;
+    private final Map<Long, SharedDownload> sharedDownloads = new ConcurrentHashMap<>();
+    private final Counter coalescedDownloadsCounter;
+    private final Counter detachedDownloadsCounter;
+
+    public DownloadCoalescer(final FileVersionService fileVersionService,
+                             final FileVersionJdbcRepository fileVersionJdbcRepository,
+                             @Qualifier(ExecutorConfig.DOWNLOAD_EXECUTOR) final TaskExecutor downloadExecutor,
+                             final MeterRegistry meterRegistry,
+                             @Value("${securefilemanager.downloads.coalescing.buffer-size:4194304}") final long maxBufferSize) {
+        this.fileVersionService = fileVersionService;
+        this.fileVersionJdbcRepository = fileVersionJdbcRepository;
+        this.downloadExecutor = downloadExecutor;
+        this.maxBufferSize = maxBufferSize;
+        this.coalescedDownloadsCounter = Counter.builder("securefilemanager.downloads.coalesced")
+                .description("Downloads served from the fetch of a concurrent download of the same file version")
+                .register(meterRegistry);
+        this.detachedDownloadsCounter = Counter.builder("securefilemanager.downloads.detached")
+                .description("Downloads that fell behind a shared fetch and read the rest of the content on their own")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Writes the content of the file version to the output.
+     */
+    public void download(final Long versionId, final OutputStream outputStream) throws GeneralSecurityException, IOException {
+        SharedDownload existing = sharedDownloads.get(versionId);
+        if (existing != null) {
+            SharedDownload.Reader reader = existing.join();
+            if (reader != null) {
+                coalescedDownloadsCounter.increment();
+                read(existing, reader, outputStream);
+                return;
+            }
+        }
+
+        Long userId = fileVersionJdbcRepository.findUserId(versionId)
+                .orElseThrow(() -> new FileNotFoundException("File version not found"));
+        List<Long> contentIds = fileVersionJdbcRepository.findChunkContentIds(versionId);
+        SharedDownload created = new SharedDownload(userId, contentIds, maxBufferSize,
+                sharedDownload -> sharedDownloads.remove(versionId, sharedDownload));
+        SharedDownload.Reader reader = created.join();
+
+        try {
+            downloadExecutor.execute(() -> fetch(versionId, created));
+        } catch (TaskRejectedException e) {
+            log.debug("No download thread available, reading version {} on the request thread", versionId);
+            fileVersionService.writeContent(userId, contentIds, outputStream);
+            return;
+        }
+
+        // a download registering its own fetch concurrently wins, this one is then read alone
+        if (existing == null) {
+            sharedDownloads.putIfAbsent(versionId, created);
+        } else {
+            sharedDownloads.replace(versionId, existing, created);
+        }
+        read(created, reader, outputStream);
+    }
+
+    private void fetch(final Long versionId, final SharedDownload sharedDownload) {
+        try {
+            fileVersionService.readChunks(sharedDownload.getUserId(), sharedDownload.getContentIds(), chunk -> {
+                try {
+                    return sharedDownload.publish(chunk);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            });
+            sharedDownload.complete();
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            log.warn("Failed to fetch version {} for a shared download", versionId, e);
+            sharedDownload.fail(e);
+        }
+    }
+
+    private void read(final SharedDownload sharedDownload,
+                      final SharedDownload.Reader reader,
+                      final OutputStream outputStream) throws GeneralSecurityException, IOException {
+        int nextChunkIndex;
+        try {
+            nextChunkIndex = sharedDownload.read(reader, outputStream);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        if (nextChunkIndex >= 0) {
+            detachedDownloadsCounter.increment();
+            List<Long> contentIds = sharedDownload.getContentIds();
+            fileVersionService.writeContent(sharedDownload.getUserId(), contentIds.subList(nextChunkIndex, contentIds.size()), outputStream);
+        }
+    }
+}
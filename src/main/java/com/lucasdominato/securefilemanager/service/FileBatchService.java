@@ -0,0 +1,117 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.data.entity.File;
+import com.lucasdominato.securefilemanager.data.entity.FileChangeType;
+import com.lucasdominato.securefilemanager.data.repository.FileRepository;
+import com.lucasdominato.securefilemanager.dto.command.BatchUpdateFileCommand;
+import com.lucasdominato.securefilemanager.dto.command.UpdateFileCommand;
+import com.lucasdominato.securefilemanager.dto.response.BatchFileResultDTO;
+import com.lucasdominato.securefilemanager.dto.response.FileResponseDTO;
+import com.lucasdominato.securefilemanager.mapper.FileMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Service
+public class FileBatchService {
+
+    private static final String FILE_NOT_FOUND = "File not found";
+
+    private final FileRepository fileRepository;
+    private final FileMapper fileMapper;
+    private final FileChangeLogService fileChangeLogService;
+    private final int maxBatchSize;
+
+    public FileBatchService(final FileRepository fileRepository,
+                            final FileMapper fileMapper,
+                            final FileChangeLogService fileChangeLogService,
+                            @Value("${securefilemanager.files.batch.max-size:100}") final int maxBatchSize) {
+        this.fileRepository = fileRepository;
+        this.fileMapper = fileMapper;
+        this.fileChangeLogService = fileChangeLogService;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Resolves all the ids with a single query. Results keep the order of the requested ids.
+     */
+    @Transactional(readOnly = true)
+    public List<BatchFileResultDTO> getFiles(final List<Long> ids, final String username) {
+        validateBatchSize(ids.size());
+
+        Map<Long, FileResponseDTO> filesById = fileRepository.findDtosByIdsAndUsername(new HashSet<>(ids), username).stream()
+                .collect(Collectors.toMap(FileResponseDTO::getId, Function.identity()));
+
+        List<BatchFileResultDTO> results = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            FileResponseDTO file = filesById.get(id);
+            results.add(file != null
+                    ? BatchFileResultDTO.ok(file)
+                    : BatchFileResultDTO.failed(id, HttpStatus.NOT_FOUND, FILE_NOT_FOUND));
+        }
+        return results;
+    }
+
+    /**
+     * Applies all the metadata changes in one transaction: the files are loaded with a single query and
+     * the resulting UPDATEs are sent as JDBC batches when the transaction flushes.
+     */
+    @Transactional
+    public List<BatchFileResultDTO> updateFiles(final List<BatchUpdateFileCommand> commands, final String username) {
+        validateBatchSize(commands.size());
+
+        Set<Long> ids = new HashSet<>();
+        Set<Long> duplicatedIds = new HashSet<>();
+        for (BatchUpdateFileCommand command : commands) {
+            if (!ids.add(command.getId())) {
+                duplicatedIds.add(command.getId());
+            }
+        }
+
+        Map<Long, File> filesById = fileRepository.findAllByIdInAndUserUsernameAndDeletedDateIsNull(ids, username).stream()
+                .collect(Collectors.toMap(File::getId, Function.identity()));
+
+        List<BatchFileResultDTO> results = new ArrayList<>(commands.size());
+        List<File> updatedFiles = new ArrayList<>();
+        for (BatchUpdateFileCommand command : commands) {
+            File file = filesById.get(command.getId());
+
+            if (duplicatedIds.contains(command.getId())) {
+                results.add(BatchFileResultDTO.failed(command.getId(), HttpStatus.BAD_REQUEST, "File id is repeated in the batch"));
+            } else if (file == null) {
+                results.add(BatchFileResultDTO.failed(command.getId(), HttpStatus.NOT_FOUND, FILE_NOT_FOUND));
+            } else if (command.getName() == null && command.getDescription() == null) {
+                results.add(BatchFileResultDTO.failed(command.getId(), HttpStatus.BAD_REQUEST, "A name or description must be provided for update"));
+            } else if (command.getName() != null && command.getName().isBlank()) {
+                results.add(BatchFileResultDTO.failed(command.getId(), HttpStatus.BAD_REQUEST, "Name must not be blank"));
+            } else {
+                UpdateFileCommand updateFileCommand = new UpdateFileCommand();
+                updateFileCommand.setName(command.getName());
+                updateFileCommand.setDescription(command.getDescription());
+                fileMapper.updateFileFromCommand(updateFileCommand, file);
+
+                updatedFiles.add(file);
+                results.add(BatchFileResultDTO.ok(fileMapper.fileToFileDto(file)));
+            }
+        }
+
+        if (!updatedFiles.isEmpty()) {
+            fileRepository.saveAll(updatedFiles);
+            fileChangeLogService.recordChanges(updatedFiles.get(0).getUser().getId(), username, FileChangeType.UPDATED,
+                    updatedFiles.stream().map(File::getId).toList());
+        }
+
+        return results;
+    }
+
+    private void validateBatchSize(int size) {
+        if (size > maxBatchSize) {
+            throw new IllegalArgumentException("A batch must not contain more than " + maxBatchSize + " files");
+        }
+    }
+}
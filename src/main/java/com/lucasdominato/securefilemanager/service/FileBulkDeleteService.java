@@ -0,0 +1,122 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.data.entity.FileChangeType;
+import com.lucasdominato.securefilemanager.data.entity.FileDeleteJob;
+import com.lucasdominato.securefilemanager.data.entity.User;
+import com.lucasdominato.securefilemanager.data.repository.FileDeleteJobRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileMetadataJdbcRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileRepository;
+import com.lucasdominato.securefilemanager.data.repository.UserRepository;
+import com.lucasdominato.securefilemanager.dto.command.BulkDeleteFilesCommand;
+import com.lucasdominato.securefilemanager.dto.response.FileDeleteJobDTO;
+import com.lucasdominato.securefilemanager.exception.FileNotFoundException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+@Service
+public class FileBulkDeleteService {
+
+    private final FileMetadataJdbcRepository fileMetadataJdbcRepository;
+    private final FileDeleteJobRepository fileDeleteJobRepository;
+    private final FileRepository fileRepository;
+    private final UserRepository userRepository;
+    private final FileChangeLogService fileChangeLogService;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxIds;
+    private final int batchSize;
+
+    public FileBulkDeleteService(final FileMetadataJdbcRepository fileMetadataJdbcRepository,
+                                 final FileDeleteJobRepository fileDeleteJobRepository,
+                                 final FileRepository fileRepository,
+                                 final UserRepository userRepository,
+                                 final FileChangeLogService fileChangeLogService,
+                                 final TransactionTemplate transactionTemplate,
+                                 @Value("${securefilemanager.files.bulk-delete.max-ids:10000}") final int maxIds,
+                                 @Value("${securefilemanager.files.bulk-delete.batch-size:1000}") final int batchSize) {
+        this.fileMetadataJdbcRepository = fileMetadataJdbcRepository;
+        this.fileDeleteJobRepository = fileDeleteJobRepository;
+        this.fileRepository = fileRepository;
+        this.userRepository = userRepository;
+        this.fileChangeLogService = fileChangeLogService;
+        this.transactionTemplate = transactionTemplate;
+        this.maxIds = maxIds;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Tombstones all the matching files of the user and returns the job tracking them. The files are walked in id
+     * order, batch-size at a time, and each batch commits with its change log entries, so a large delete holds
+     * neither long locks nor one huge transaction. Their content is removed afterwards by the FilePurgeScheduler.
+     */
+    public FileDeleteJobDTO deleteFiles(final BulkDeleteFilesCommand command, final String username) {
+        validate(command);
+
+        User user = userRepository.findByUsername(username)
+                .orElseThrow(() -> new FileNotFoundException("File not found"));
+
+        LocalDateTime now = LocalDateTime.now();
+
+        FileDeleteJob job = new FileDeleteJob();
+        job.setUserId(user.getId());
+        job.setTotalFiles(0);
+        job.setCreatedDate(now);
+        transactionTemplate.executeWithoutResult(status -> fileDeleteJobRepository.save(job));
+
+        int totalFiles = 0;
+        long afterId = 0;
+        List<Long> deletedIds;
+        do {
+            final long batchAfterId = afterId;
+            deletedIds = transactionTemplate.execute(status -> {
+                List<Long> ids = fileMetadataJdbcRepository.markDeleted(user.getId(), username, job.getId(), now,
+                        command.getIds(), command.getCreatedBefore(), command.getContentType(), command.getNamePrefix(),
+                        batchAfterId, batchSize);
+                if (!ids.isEmpty()) {
+                    fileDeleteJobRepository.incrementTotalFiles(job.getId(), ids.size());
+                    fileChangeLogService.recordChanges(user.getId(), username, FileChangeType.DELETED, ids);
+                }
+                return ids;
+            });
+
+            if (!deletedIds.isEmpty()) {
+                totalFiles += deletedIds.size();
+                afterId = Collections.max(deletedIds);
+            }
+        } while (deletedIds.size() == batchSize);
+
+        job.setTotalFiles(totalFiles);
+
+        return toDto(job, totalFiles);
+    }
+
+    @Transactional(readOnly = true)
+    public FileDeleteJobDTO getJob(final Long id, final String username) {
+        FileDeleteJob job = fileDeleteJobRepository.findByIdAndUsername(id, username)
+                .orElseThrow(() -> new FileNotFoundException("Delete job not found"));
+
+        return toDto(job, fileRepository.countByDeleteJobId(job.getId()));
+    }
+
+    private void validate(final BulkDeleteFilesCommand command) {
+        if (command.getIds() == null && command.getCreatedBefore() == null
+                && command.getContentType() == null && command.getNamePrefix() == null) {
+            throw new IllegalArgumentException("At least one of ids, createdBefore, contentType or namePrefix must be provided");
+        }
+        if (command.getIds() != null && command.getIds().size() > maxIds) {
+            throw new IllegalArgumentException("A bulk delete must not contain more than " + maxIds + " ids");
+        }
+        if (command.getNamePrefix() != null && command.getNamePrefix().isEmpty()) {
+            throw new IllegalArgumentException("Name prefix must not be empty");
+        }
+    }
+
+    private FileDeleteJobDTO toDto(final FileDeleteJob job, final long pendingFiles) {
+        return new FileDeleteJobDTO(job.getId(), job.getTotalFiles(), pendingFiles, pendingFiles == 0, job.getCreatedDate());
+    }
+}
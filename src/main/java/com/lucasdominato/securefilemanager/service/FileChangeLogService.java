@@ -0,0 +1,96 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.data.entity.FileChange;
+import com.lucasdominato.securefilemanager.data.entity.FileChangeType;
+import com.lucasdominato.securefilemanager.data.repository.FileChangeRepository;
+import com.lucasdominato.securefilemanager.data.repository.UserRepository;
+import com.lucasdominato.securefilemanager.dto.response.FileChangeDTO;
+import com.lucasdominato.securefilemanager.dto.response.FileChangesDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@Service
+public class FileChangeLogService {
+
+    private final FileChangeRepository fileChangeRepository;
+    private final UserRepository userRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final int maxPageSize;
+
+    public FileChangeLogService(final FileChangeRepository fileChangeRepository,
+                                final UserRepository userRepository,
+                                final ApplicationEventPublisher eventPublisher,
+                                @Value("${securefilemanager.changes.max-page-size:500}") final int maxPageSize) {
+        this.fileChangeRepository = fileChangeRepository;
+        this.userRepository = userRepository;
+        this.eventPublisher = eventPublisher;
+        this.maxPageSize = maxPageSize;
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordChange(final Long userId,
+                             final String username,
+                             final FileChangeType changeType,
+                             final Long fileId) {
+        recordChanges(userId, username, changeType, List.of(fileId));
+    }
+
+    /**
+     * Appends one change log entry per file, numbered with consecutive sequence numbers of the user.
+     * Runs in the caller's transaction so the entries commit (or roll back) together with the change itself.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordChanges(final Long userId,
+                              final String username,
+                              final FileChangeType changeType,
+                              final List<Long> fileIds) {
+        if (fileIds.isEmpty()) {
+            return;
+        }
+
+        userRepository.incrementLastChangeSequence(userId, fileIds.size());
+        long nextSequence = userRepository.findLastChangeSequence(userId) - fileIds.size() + 1;
+
+        LocalDateTime changedAt = LocalDateTime.now();
+        List<FileChange> changes = new ArrayList<>(fileIds.size());
+        for (Long fileId : fileIds) {
+            FileChange change = new FileChange();
+            change.setUserId(userId);
+            change.setSequenceNumber(nextSequence++);
+            change.setFileId(fileId);
+            change.setChangeType(changeType);
+            change.setChangedAt(changedAt);
+            changes.add(change);
+        }
+        fileChangeRepository.saveAll(changes);
+
+        eventPublisher.publishEvent(new FileChangedEvent(username));
+    }
+
+    @Transactional(readOnly = true)
+    public FileChangesDTO getChangesAfter(final String username,
+                                          final long after,
+                                          final int limit) {
+        int pageSize = Math.max(1, Math.min(limit, maxPageSize));
+
+        // Fetch one extra row to know whether the client should poll again right away
+        List<FileChangeDTO> changes = fileChangeRepository.findChangesAfter(username, after, PageRequest.of(0, pageSize + 1));
+
+        boolean hasMore = changes.size() > pageSize;
+        if (hasMore) {
+            changes = changes.subList(0, pageSize);
+        }
+
+        long cursor = changes.isEmpty() ? after : changes.get(changes.size() - 1).getSequence();
+
+        return new FileChangesDTO(changes, cursor, hasMore);
+    }
+}
@@ -0,0 +1,52 @@
+package com.lucasdominato.securefilemanager.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Wakes up long-polling change feed requests of a user once new changes of that user are committed.
+ * Listeners are one-shot: they are removed when notified and must subscribe again for the next poll.
+ */
+@Slf4j
+@Component
+public class FileChangeNotifier {
+
+    private final ConcurrentMap<String, Set<Runnable>> listenersByUsername = new ConcurrentHashMap<>();
+
+    public void subscribe(final String username, final Runnable listener) {
+        // compute() is atomic with the remove() in onFileChanged, so a listener can never land in a set that was already drained
+        listenersByUsername.compute(username, (key, listeners) -> {
+            Set<Runnable> updated = listeners != null ? listeners : ConcurrentHashMap.newKeySet();
+            updated.add(listener);
+            return updated;
+        });
+    }
+
+    public void unsubscribe(final String username, final Runnable listener) {
+        listenersByUsername.computeIfPresent(username, (key, listeners) -> {
+            listeners.remove(listener);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onFileChanged(final FileChangedEvent event) {
+        Set<Runnable> listeners = listenersByUsername.remove(event.getUsername());
+        if (listeners != null) {
+            for (Runnable listener : listeners) {
+                try {
+                    listener.run();
+                } catch (RuntimeException e) {
+                    // The change is already committed, a failed wake-up must not fail the request that made it
+                    log.warn("Failed to notify change listener of user {}", event.getUsername(), e);
+                }
+            }
+        }
+    }
+}
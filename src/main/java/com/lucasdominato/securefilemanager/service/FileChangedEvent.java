@@ -0,0 +1,13 @@
+package com.lucasdominato.securefilemanager.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Published when changes were appended to a user's change log, delivered to listeners once the transaction commits.
+ */
+@Getter
+@AllArgsConstructor
+public class FileChangedEvent {
+    private final String username;
+}
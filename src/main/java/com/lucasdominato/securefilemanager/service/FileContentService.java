@@ -0,0 +1,82 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
+import com.lucasdominato.securefilemanager.security.EncryptionService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Optional;
+
+/**
+ * Stores file content chunks deduplicated per user: a chunk whose fingerprint the user already has is not written
+ * again, the new file version just takes a reference to the stored one.
+ */
+@Service
+public class FileContentService {
+
+    private final FileJdbcRepository fileJdbcRepository;
+    private final EncryptionService encryptionService;
+    private final ContentBloomFilter contentBloomFilter;
+    private final ContentShardService contentShardService;
+    private final Counter dedupHitsCounter;
+    private final Counter dedupMissesCounter;
+    private final Counter savedBytesCounter;
+
+    public FileContentService(final FileJdbcRepository fileJdbcRepository,
+                              final EncryptionService encryptionService,
+                              final ContentBloomFilter contentBloomFilter,
+                              final ContentShardService contentShardService,
+                              final MeterRegistry meterRegistry) {
+        this.fileJdbcRepository = fileJdbcRepository;
+        this.encryptionService = encryptionService;
+        this.contentBloomFilter = contentBloomFilter;
+        this.contentShardService = contentShardService;
+        this.dedupHitsCounter = Counter.builder("securefilemanager.dedup.hits")
+                .description("Content chunks already stored for the user")
+                .register(meterRegistry);
+        this.dedupMissesCounter = Counter.builder("securefilemanager.dedup.misses")
+                .description("Content chunks that had to be stored")
+                .register(meterRegistry);
+        this.savedBytesCounter = Counter.builder("securefilemanager.dedup.saved")
+                .description("Encrypted content not written thanks to deduplication")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the id of the stored content holding the chunk, without taking a reference: the content is committed
+     * on its own, outside of the caller's transaction if there is one, and is purged unless a file version
+     * references it within the unreferenced content grace period. The chunk is only encrypted when the user has
+     * no stored content with its fingerprint, and a new content is written to the user's content shard.
+     */
+    public Long stageContent(final Long userId, final byte[] chunk) throws GeneralSecurityException, IOException {
+        byte[] fingerprint = encryptionService.fingerprint(userId, chunk);
+
+        Optional<Long> existingContentId = findContent(userId, fingerprint);
+        if (existingContentId.isPresent()) {
+            dedupHitsCounter.increment();
+            savedBytesCounter.increment(encryptionService.getEncryptedSize(chunk.length));
+            return existingContentId.get();
+        }
+
+        dedupMissesCounter.increment();
+        try (InputStream encryptedInputStream = encryptionService.encryptStream(new ByteArrayInputStream(chunk))) {
+            Long contentId = fileJdbcRepository.insertContent(userId, fingerprint, encryptedInputStream,
+                    encryptionService.getCurrentKeyVersion(), contentShardService.resolveShard(userId));
+            contentBloomFilter.put(fingerprint);
+            return contentId;
+        }
+    }
+
+    private Optional<Long> findContent(final Long userId, final byte[] fingerprint) {
+        if (!contentBloomFilter.mightContain(fingerprint)) {
+            return Optional.empty();
+        }
+        return fileJdbcRepository.touchContent(userId, fingerprint);
+    }
+}
@@ -0,0 +1,111 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.data.entity.FileChangeType;
+import com.lucasdominato.securefilemanager.data.entity.User;
+import com.lucasdominato.securefilemanager.data.repository.ContentDiskCache;
+import com.lucasdominato.securefilemanager.data.repository.ContentIntegrityCheckRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileMetadataJdbcRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileVersionJdbcRepository;
+import com.lucasdominato.securefilemanager.data.repository.UserRepository;
+import com.lucasdominato.securefilemanager.dto.response.FileResponseDTO;
+import com.lucasdominato.securefilemanager.exception.FileNotFoundException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class FileDeletionService {
+
+    private final FileRepository fileRepository;
+    private final FileMetadataJdbcRepository fileMetadataJdbcRepository;
+    private final FileJdbcRepository fileJdbcRepository;
+    private final FileVersionJdbcRepository fileVersionJdbcRepository;
+    private final UserRepository userRepository;
+    private final ContentIntegrityCheckRepository contentIntegrityCheckRepository;
+    private final FileChangeLogService fileChangeLogService;
+    private final ContentDiskCache contentDiskCache;
+    private final Duration undoWindow;
+    private final Duration unreferencedContentGrace;
+
+    public FileDeletionService(final FileRepository fileRepository,
+                               final FileMetadataJdbcRepository fileMetadataJdbcRepository,
+                               final FileJdbcRepository fileJdbcRepository,
+                               final FileVersionJdbcRepository fileVersionJdbcRepository,
+                               final UserRepository userRepository,
+                               final ContentIntegrityCheckRepository contentIntegrityCheckRepository,
+                               final FileChangeLogService fileChangeLogService,
+                               final ContentDiskCache contentDiskCache,
+                               @Value("${securefilemanager.purge.undo-window:PT10M}") final Duration undoWindow,
+                               @Value("${securefilemanager.purge.unreferenced-content-grace:PT1H}") final Duration unreferencedContentGrace) {
+        this.fileRepository = fileRepository;
+        this.fileMetadataJdbcRepository = fileMetadataJdbcRepository;
+        this.fileJdbcRepository = fileJdbcRepository;
+        this.fileVersionJdbcRepository = fileVersionJdbcRepository;
+        this.userRepository = userRepository;
+        this.contentIntegrityCheckRepository = contentIntegrityCheckRepository;
+        this.fileChangeLogService = fileChangeLogService;
+        this.contentDiskCache = contentDiskCache;
+        this.undoWindow = undoWindow;
+        this.unreferencedContentGrace = unreferencedContentGrace;
+    }
+
+    /**
+     * Brings back a deleted file as long as it was deleted within the undo window.
+     */
+    @Transactional
+    public FileResponseDTO restoreFile(final Long id, final String username) {
+        LocalDateTime now = LocalDateTime.now();
+
+        if (fileRepository.restoreDeleted(id, username, now.minus(undoWindow), now) == 0) {
+            throw new FileNotFoundException("File not found");
+        }
+
+        User user = userRepository.findByUsername(username)
+                .orElseThrow(() -> new FileNotFoundException("File not found"));
+
+        fileChangeLogService.recordChange(user.getId(), username, FileChangeType.RESTORED, id);
+
+        return fileRepository.findDtoByIdAndUsername(id, username)
+                .orElseThrow(() -> new FileNotFoundException("File not found"));
+    }
+
+    /**
+     * Removes up to batchSize files whose undo window has expired with all their versions, releasing the references
+     * their manifests hold on their contents, then deletes up to batchSize contents no file version references
+     * anymore. Rows locked by another purger are skipped, so several instances can purge concurrently.
+     * Contents are only deleted once unreferenced and untouched for the grace period, as uploads store their
+     * contents before the transaction referencing them.
+     */
+    @Transactional
+    public FilePurgeResult purgeBatch(final int batchSize) {
+        List<Long> fileIds = fileMetadataJdbcRepository.lockFilesDeletedBefore(LocalDateTime.now().minus(undoWindow), batchSize);
+
+        int purgedFiles = 0;
+        if (!fileIds.isEmpty()) {
+            fileVersionJdbcRepository.releaseContentsOfFiles(fileIds);
+            fileVersionJdbcRepository.deleteVersionsOfFiles(fileIds);
+            purgedFiles = fileMetadataJdbcRepository.deleteFiles(fileIds);
+        }
+
+        Map<Long, Long> sizesByContentId = fileJdbcRepository.deleteUnreferencedContents(unreferencedContentGrace, batchSize);
+        if (!sizesByContentId.isEmpty()) {
+            contentIntegrityCheckRepository.deleteAllByIdInBatch(sizesByContentId.keySet());
+            contentDiskCache.invalidate(sizesByContentId.keySet());
+        }
+
+        return new FilePurgeResult(purgedFiles, sizesByContentId.size(),
+                sizesByContentId.values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Transactional(readOnly = true)
+    public long countPendingPurges() {
+        return fileMetadataJdbcRepository.countDeletedFiles();
+    }
+}
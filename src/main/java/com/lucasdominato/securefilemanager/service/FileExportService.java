@@ -0,0 +1,66 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.lucasdominato.securefilemanager.data.repository.FileMetadataJdbcRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+
+@Service
+public class FileExportService {
+
+    private static final char NDJSON_LINE_SEPARATOR = '\n';
+
+    private final FileMetadataJdbcRepository fileMetadataJdbcRepository;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter objectWriter;
+    private final int fetchSize;
+
+    public FileExportService(final FileMetadataJdbcRepository fileMetadataJdbcRepository,
+                             final ObjectMapper objectMapper,
+                             @Value("${securefilemanager.export.fetch-size:500}") final int fetchSize) {
+        this.fileMetadataJdbcRepository = fileMetadataJdbcRepository;
+        this.objectMapper = objectMapper;
+        // Flushing after every line would turn each row into its own network write
+        this.objectWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Writes the user's whole file catalogue as NDJSON, one file per line.
+     * Rows are read through a server-side cursor and serialized as they arrive, so memory stays constant.
+     */
+    @Transactional(readOnly = true)
+    public void exportFiles(final String username,
+                            final LocalDateTime since,
+                            final OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // Lines are separated by NDJSON_LINE_SEPARATOR only, not by the default space between root values
+            generator.setRootValueSeparator(null);
+
+            try {
+                fileMetadataJdbcRepository.streamByUsername(username, since, fetchSize, file -> {
+                    try {
+                        objectWriter.writeValue(generator, file);
+                        generator.writeRaw(NDJSON_LINE_SEPARATOR);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            generator.flush();
+        }
+    }
+}
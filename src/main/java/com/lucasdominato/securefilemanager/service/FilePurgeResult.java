@@ -0,0 +1,13 @@
+package com.lucasdominato.securefilemanager.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class FilePurgeResult {
+
+    private final int purgedFiles;
+    private final int purgedContents;
+    private final long releasedBytes;
+}
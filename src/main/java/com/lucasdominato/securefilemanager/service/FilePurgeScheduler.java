@@ -0,0 +1,72 @@
+package com.lucasdominato.securefilemanager.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Purges deleted files in the background. Each run removes at most one batch, so the purge rate is capped
+ * at batch-size files per interval no matter how large the backlog gets.
+ */
+@Component
+@Slf4j
+public class FilePurgeScheduler {
+
+    private final FileDeletionService fileDeletionService;
+    private final int batchSize;
+    private final Counter purgedFilesCounter;
+    private final Counter releasedBytesCounter;
+    private final AtomicLong backlog = new AtomicLong();
+
+    public FilePurgeScheduler(final FileDeletionService fileDeletionService,
+                              final MeterRegistry meterRegistry,
+                              @Value("${securefilemanager.purge.batch-size:100}") final int batchSize) {
+        this.fileDeletionService = fileDeletionService;
+        this.batchSize = batchSize;
+        this.purgedFilesCounter = Counter.builder("securefilemanager.purge.files")
+                .description("Deleted files purged from the database")
+                .register(meterRegistry);
+        this.releasedBytesCounter = Counter.builder("securefilemanager.purge.released")
+                .description("Encrypted content released by the purge")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("securefilemanager.purge.backlog", backlog, AtomicLong::get)
+                .description("Deleted files waiting to be purged, including those still in the undo window")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${securefilemanager.purge.interval:PT1S}")
+    public void purge() {
+        try {
+            FilePurgeResult result = fileDeletionService.purgeBatch(batchSize);
+
+            purgedFilesCounter.increment(result.getPurgedFiles());
+            releasedBytesCounter.increment(result.getReleasedBytes());
+
+            if (result.getPurgedFiles() > 0 || result.getPurgedContents() > 0) {
+                log.debug("Purged {} files and {} contents, releasing {} bytes", result.getPurgedFiles(),
+                        result.getPurgedContents(), result.getReleasedBytes());
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to purge deleted files", e);
+        }
+    }
+
+    /**
+     * Refreshes the backlog gauge. Counting the deleted files takes a scan, so it runs far less often than the purge.
+     */
+    @Scheduled(fixedDelayString = "${securefilemanager.purge.backlog-interval:PT1M}")
+    public void sampleBacklog() {
+        try {
+            backlog.set(fileDeletionService.countPendingPurges());
+        } catch (RuntimeException e) {
+            log.warn("Failed to count the deleted files waiting to be purged", e);
+        }
+    }
+}
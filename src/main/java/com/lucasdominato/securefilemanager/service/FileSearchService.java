@@ -0,0 +1,82 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.data.repository.FileMetadataJdbcRepository;
+import com.lucasdominato.securefilemanager.dto.response.CursorPageDTO;
+import com.lucasdominato.securefilemanager.dto.response.FileSearchResultDTO;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+@Service
+public class FileSearchService {
+
+    private static final String CURSOR_SEPARATOR = ":";
+
+    private final FileMetadataJdbcRepository fileMetadataJdbcRepository;
+    private final int maxPageSize;
+
+    public FileSearchService(final FileMetadataJdbcRepository fileMetadataJdbcRepository,
+                             @Value("${securefilemanager.search.max-page-size:100}") final int maxPageSize) {
+        this.fileMetadataJdbcRepository = fileMetadataJdbcRepository;
+        this.maxPageSize = maxPageSize;
+    }
+
+    @Transactional(readOnly = true)
+    public CursorPageDTO<FileSearchResultDTO> search(final String username,
+                                                     final String query,
+                                                     final String cursor,
+                                                     final int size) {
+        if (StringUtils.isBlank(query)) {
+            throw new IllegalArgumentException("A search query must be provided");
+        }
+
+        int limit = Math.max(1, Math.min(size, maxPageSize));
+
+        Float afterScore = null;
+        Long afterId = null;
+        if (StringUtils.isNotEmpty(cursor)) {
+            String[] parts = decodeCursor(cursor);
+            try {
+                afterScore = Float.parseFloat(parts[0]);
+                afterId = Long.parseLong(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid search cursor");
+            }
+        }
+
+        // Fetch one extra row to know whether there is a next page without a count query
+        List<FileSearchResultDTO> results = fileMetadataJdbcRepository.search(username, query.trim(), afterScore, afterId, limit + 1);
+
+        String nextCursor = null;
+        if (results.size() > limit) {
+            results = results.subList(0, limit);
+            FileSearchResultDTO last = results.get(limit - 1);
+            nextCursor = encodeCursor(last.getScore(), last.getId());
+        }
+
+        return new CursorPageDTO<>(results, nextCursor);
+    }
+
+    private String encodeCursor(float score, long id) {
+        String raw = Float.toString(score) + CURSOR_SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String[] decodeCursor(String cursor) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(CURSOR_SEPARATOR);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid search cursor");
+        }
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid search cursor");
+        }
+        return parts;
+    }
+}
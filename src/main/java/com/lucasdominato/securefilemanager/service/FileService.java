@@ -1,134 +1,269 @@
 package com.lucasdominato.securefilemanager.service;
 
 import com.lucasdominato.securefilemanager.data.entity.File;
+import com.lucasdominato.securefilemanager.data.entity.FileChangeType;
 import com.lucasdominato.securefilemanager.data.entity.User;
-import com.lucasdominato.securefilemanager.data.repository.FileContentRepository;
-import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
 import com.lucasdominato.securefilemanager.data.repository.FileRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileVersionJdbcRepository;
 import com.lucasdominato.securefilemanager.dto.UserDTO;
 import com.lucasdominato.securefilemanager.dto.command.CreateFileCommand;
 import com.lucasdominato.securefilemanager.dto.command.UpdateFileCommand;
 import com.lucasdominato.securefilemanager.dto.response.FileResponseDTO;
+import com.lucasdominato.securefilemanager.exception.FileConflictException;
 import com.lucasdominato.securefilemanager.exception.FileNotFoundException;
 import com.lucasdominato.securefilemanager.mapper.FileMapper;
-import com.lucasdominato.securefilemanager.security.EncryptionService;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.GeneralSecurityException;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Optional;
 
 @Service
 public class FileService {
 
-    private final FileContentRepository fileContentRepository;
-    private final FileJdbcRepository fileJdbcRepository;
-    private final EncryptionService encryptionService;
+    private final FileVersionJdbcRepository fileVersionJdbcRepository;
     private final FileRepository fileRepository;
     private final UserService userService;
     private final FileMapper fileMapper;
+    private final FileChangeLogService fileChangeLogService;
+    private final FileVersionService fileVersionService;
+    private final DownloadCoalescer downloadCoalescer;
+    private final TransactionTemplate transactionTemplate;
 
-    public FileService(final FileContentRepository fileContentRepository,
-                       final FileJdbcRepository fileJdbcRepository,
-                       final EncryptionService encryptionService,
+    public FileService(final FileVersionJdbcRepository fileVersionJdbcRepository,
                        final FileRepository fileRepository,
                        final UserService userService,
-                       final FileMapper fileMapper) {
-        this.fileContentRepository = fileContentRepository;
-        this.fileJdbcRepository = fileJdbcRepository;
-        this.encryptionService = encryptionService;
+                       final FileMapper fileMapper,
+                       final FileChangeLogService fileChangeLogService,
+                       final FileVersionService fileVersionService,
+                       final DownloadCoalescer downloadCoalescer,
+                       final TransactionTemplate transactionTemplate) {
+        this.fileVersionJdbcRepository = fileVersionJdbcRepository;
         this.fileRepository = fileRepository;
         this.userService = userService;
         this.fileMapper = fileMapper;
+        this.fileChangeLogService = fileChangeLogService;
+        this.fileVersionService = fileVersionService;
+        this.downloadCoalescer = downloadCoalescer;
+        this.transactionTemplate = transactionTemplate;
     }
 
     @Transactional(readOnly = true)
     public Page<FileResponseDTO> getFilesByUsername(final String username, final Pageable pageable) {
-        return fileRepository.findAllByUserUsername(username, pageable)
-                .map(fileMapper::fileToFileDto);
+        return fileRepository.findDtoPageByUsername(username, pageable);
     }
 
     @Transactional(readOnly = true)
     public FileResponseDTO getFileByIdAndUsername(final Long id,
                                                   final String username) {
-        return fileRepository.findByIdAndUserUsername(id, username)
-                .map(fileMapper::fileToFileDto)
+        return fileRepository.findDtoByIdAndUsername(id, username)
                 .orElseThrow(() -> new FileNotFoundException("File not found"));
     }
 
-    @Transactional
+    /**
+     * Stores the content first, on the blob connection pool, then creates the file and its first version in a
+     * short transaction, so a large upload does not hold a metadata connection.
+     */
     public FileResponseDTO createFile(final CreateFileCommand fileCommand,
                                       final InputStream inputStream,
                                       final UserDTO userDto) throws IOException, GeneralSecurityException, SQLException {
         User user = userService.getOrCreateUser(userDto);
 
-        File fileEntity = new File();
-        fileEntity.setName(fileCommand.getName());
-        fileEntity.setDescription(fileCommand.getDescription());
-        fileEntity.setUser(user);
-        fileEntity.setContentType(fileCommand.getContentType());
-        fileEntity.setFileSize(fileCommand.getFileSize());
-        fileRepository.save(fileEntity);
+        StagedContent content = fileVersionService.stageContent(user.getId(), inputStream);
 
-        try (InputStream encryptedInputStream = encryptionService.encryptStream(inputStream)) {
-            fileJdbcRepository.upsertFileContent(fileEntity.getId(), encryptedInputStream);
+        return transactionTemplate.execute(status -> {
+            File fileEntity = saveNewFile(fileCommand, user);
+            fileVersionService.storeVersion(fileEntity, fileEntity.getCurrentVersion(), content);
+
+            fileChangeLogService.recordChange(user.getId(), user.getUsername(), FileChangeType.CREATED, fileEntity.getId());
+
+            return fileMapper.fileToFileDto(fileEntity);
+        });
+    }
+
+    /**
+     * Creates the file without receiving its content when the user already has a content with the given
+     * SHA-256 and size. Returns empty when the content is unknown and has to be uploaded.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public Optional<FileResponseDTO> createFileByReference(final CreateFileCommand fileCommand,
+                                                           final byte[] sha256,
+                                                           final UserDTO userDto) throws GeneralSecurityException {
+        User user = userService.getOrCreateUser(userDto);
+
+        Optional<Long> sourceVersionId = fileVersionService.findVersionWithContent(user.getId(), sha256, fileCommand.getFileSize());
+        if (sourceVersionId.isEmpty()) {
+            return Optional.empty();
         }
 
-        return fileMapper.fileToFileDto(fileEntity);
+        File fileEntity = saveNewFile(fileCommand, user);
+        fileVersionService.copyVersion(sourceVersionId.get(), fileEntity, fileEntity.getCurrentVersion());
+
+        fileChangeLogService.recordChange(user.getId(), user.getUsername(), FileChangeType.CREATED, fileEntity.getId());
+
+        return Optional.of(fileMapper.fileToFileDto(fileEntity));
     }
 
-    @Transactional(readOnly = true)
+    /**
+     * Creates a copy of the file's current content under a new file, by default with the same name. The copy
+     * shares the stored chunks of the original, so its cost does not depend on the file size.
+     */
+    @Transactional
+    public FileResponseDTO copyFile(final Long id, final String name, final String username) {
+        File source = fileRepository.findByIdAndUserUsernameAndDeletedDateIsNull(id, username)
+                .orElseThrow(() -> new FileNotFoundException("File not found"));
+
+        CreateFileCommand fileCommand = new CreateFileCommand(name != null ? name : source.getName(), source.getDescription(),
+                source.getContentType(), source.getFileSize());
+
+        File copy = saveNewFile(fileCommand, source.getUser());
+        fileVersionService.copyCurrentVersion(source, copy, copy.getCurrentVersion());
+
+        fileChangeLogService.recordChange(source.getUser().getId(), username, FileChangeType.CREATED, copy.getId());
+
+        return fileMapper.fileToFileDto(copy);
+    }
+
+    /**
+     * Writes the content of the file's current version. Runs outside of a transaction, so no database connection
+     * is held while a slow client reads the content.
+     */
     public void downloadFile(final Long fileId,
                              final OutputStream outputStream) throws IOException, SQLException, GeneralSecurityException {
-        try (InputStream inputStream = fileJdbcRepository.getFileContentStreamByFileId(fileId)) {
-            encryptionService.decryptStream(inputStream, outputStream);
-        }
+        Long versionId = fileVersionJdbcRepository.findCurrentVersionId(fileId)
+                .orElseThrow(() -> new FileNotFoundException("File not found"));
+
+        downloadCoalescer.download(versionId, outputStream);
     }
 
-    @Transactional
+    public void downloadFileVersion(final Long fileId,
+                                    final int versionNumber,
+                                    final OutputStream outputStream) throws IOException, GeneralSecurityException {
+        Long versionId = fileVersionJdbcRepository.findVersionId(fileId, versionNumber)
+                .orElseThrow(() -> new FileNotFoundException("File version not found"));
+
+        downloadCoalescer.download(versionId, outputStream);
+    }
+
+    /**
+     * Stores the content as a new version of the file, the previous ones stay available. The content is stored
+     * before the transaction, like for a new file. The file row is then locked, so concurrent uploads to the same
+     * file get consecutive version numbers.
+     */
     public FileResponseDTO updateFileWithContent(final Long id,
                                                  final UpdateFileCommand updateFileCommand,
                                                  final InputStream inputStream,
                                                  final String username) {
-        File file = fileRepository.findByIdAndUserUsername(id, username)
+        File owned = fileRepository.findByIdAndUserUsernameAndDeletedDateIsNull(id, username)
                 .orElseThrow(() -> new FileNotFoundException("File not found"));
 
-        fileMapper.updateFileFromCommand(updateFileCommand, file);
-
-        File savedFile = fileRepository.save(file);
-
-        try (InputStream encryptedInputStream = encryptionService.encryptStream(inputStream)) {
-            fileJdbcRepository.upsertFileContent(savedFile.getId(), encryptedInputStream);
+        StagedContent content;
+        try {
+            content = fileVersionService.stageContent(owned.getUser().getId(), inputStream);
         } catch (IOException | GeneralSecurityException e) {
             throw new RuntimeException(e);
         }
 
-        return fileMapper.fileToFileDto(savedFile);
+        return transactionTemplate.execute(status -> {
+            File file = fileRepository.findForUpdateByIdAndUserUsernameAndDeletedDateIsNull(id, username)
+                    .orElseThrow(() -> new FileNotFoundException("File not found"));
+
+            fileMapper.updateFileFromCommand(updateFileCommand, file);
+
+            int nextVersion = file.getCurrentVersion() + 1;
+            fileVersionService.storeVersion(file, nextVersion, content);
+            file.setCurrentVersion(nextVersion);
+
+            File savedFile = fileRepository.save(file);
+
+            fileChangeLogService.recordChange(savedFile.getUser().getId(), username, FileChangeType.UPDATED, savedFile.getId());
+
+            return fileMapper.fileToFileDto(savedFile);
+        });
+    }
+
+    /**
+     * Writes the data at the given offset of the file content, or at its end when offset is null, as a new version.
+     * The range is staged before the transaction, like a full upload. The file row is then locked and the version
+     * stored only if no other write created a version meanwhile, as the staged range was built on the previous one.
+     */
+    public FileResponseDTO writeFileContent(final Long id,
+                                            final Long offset,
+                                            final long length,
+                                            final InputStream inputStream,
+                                            final String username) throws IOException, GeneralSecurityException {
+        File owned = fileRepository.findByIdAndUserUsernameAndDeletedDateIsNull(id, username)
+                .orElseThrow(() -> new FileNotFoundException("File not found"));
+
+        int baseVersion = owned.getCurrentVersion();
+        StagedContent content = fileVersionService.stageRange(owned, offset, length, inputStream);
+
+        return transactionTemplate.execute(status -> {
+            File file = fileRepository.findForUpdateByIdAndUserUsernameAndDeletedDateIsNull(id, username)
+                    .orElseThrow(() -> new FileNotFoundException("File not found"));
+            if (file.getCurrentVersion() != baseVersion) {
+                throw new FileConflictException("File content changed while the range was written, please try again");
+            }
+
+            int nextVersion = baseVersion + 1;
+            fileVersionService.storeVersion(file, nextVersion, content);
+            file.setCurrentVersion(nextVersion);
+            file.setFileSize(content.getFileSize());
+
+            File savedFile = fileRepository.save(file);
+
+            fileChangeLogService.recordChange(savedFile.getUser().getId(), username, FileChangeType.UPDATED, savedFile.getId());
+
+            return fileMapper.fileToFileDto(savedFile);
+        });
     }
 
     @Transactional
     public FileResponseDTO updateFile(final Long id,
                                       final UpdateFileCommand updateFileCommand,
                                       final String username) {
-        File file = fileRepository.findByIdAndUserUsername(id, username)
+        File file = fileRepository.findByIdAndUserUsernameAndDeletedDateIsNull(id, username)
                 .orElseThrow(() -> new FileNotFoundException("File not found"));
 
         fileMapper.updateFileFromCommand(updateFileCommand, file);
 
+        fileChangeLogService.recordChange(file.getUser().getId(), username, FileChangeType.UPDATED, file.getId());
+
         return fileMapper.fileToFileDto(fileRepository.save(file));
     }
 
+    /**
+     * Only marks the file as deleted. Its content is removed later, in batches, by the FilePurgeScheduler,
+     * which keeps the request cheap and leaves the file restorable during the undo window.
+     */
     @Transactional
     public void deleteFile(final Long id, final String username) {
-        File file = fileRepository.findByIdAndUserUsername(id, username)
+        File file = fileRepository.findByIdAndUserUsernameAndDeletedDateIsNull(id, username)
                 .orElseThrow(() -> new FileNotFoundException("File not found"));
 
-        fileContentRepository.deleteByFileId(file.getId());
-        fileRepository.delete(file);
+        file.setDeletedDate(LocalDateTime.now());
+        fileRepository.save(file);
+
+        fileChangeLogService.recordChange(file.getUser().getId(), username, FileChangeType.DELETED, file.getId());
+    }
+
+    private File saveNewFile(final CreateFileCommand fileCommand, final User user) {
+        File fileEntity = new File();
+        fileEntity.setName(fileCommand.getName());
+        fileEntity.setDescription(fileCommand.getDescription());
+        fileEntity.setUser(user);
+        fileEntity.setContentType(fileCommand.getContentType());
+        fileEntity.setFileSize(fileCommand.getFileSize());
+        fileEntity.setCurrentVersion(1);
+        fileRepository.save(fileEntity);
+        return fileEntity;
     }
-}
\ No newline at end of file
+}
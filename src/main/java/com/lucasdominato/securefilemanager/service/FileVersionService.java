@@ -0,0 +1,431 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.config.ExecutorConfig;
+import com.lucasdominato.securefilemanager.data.entity.File;
+import com.lucasdominato.securefilemanager.data.entity.FileVersion;
+import com.lucasdominato.securefilemanager.data.entity.FileVersionChunk;
+import com.lucasdominato.securefilemanager.data.repository.ContentDiskCache;
+import com.lucasdominato.securefilemanager.data.repository.EncryptedFileContent;
+import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileVersionJdbcRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileVersionRepository;
+import com.lucasdominato.securefilemanager.dto.response.FileVersionDTO;
+import com.lucasdominato.securefilemanager.exception.FileNotFoundException;
+import com.lucasdominato.securefilemanager.mapper.FileMapper;
+import com.lucasdominato.securefilemanager.security.EncryptionService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestInputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Stores each uploaded content of a file as a new version. The content is split into content-defined chunks,
+ * each chunk is stored (and deduplicated) as a file_content, and the version keeps the ordered manifest of
+ * them. Unchanged chunks of an edited file are shared with its previous versions instead of being stored again.
+ */
+@Service
+public class FileVersionService {
+
+    private final FileVersionRepository fileVersionRepository;
+    private final FileVersionJdbcRepository fileVersionJdbcRepository;
+    private final FileJdbcRepository fileJdbcRepository;
+    private final FileContentService fileContentService;
+    private final ContentAccessTracker contentAccessTracker;
+    private final ContentDiskCache contentDiskCache;
+    private final TaskExecutor prefetchExecutor;
+    private final EncryptionService encryptionService;
+    private final FileMapper fileMapper;
+    private final Counter skippedUploadsCounter;
+    private final Counter skippedUploadBytesCounter;
+    private final int minChunkSize;
+    private final int avgChunkSize;
+    private final int maxChunkSize;
+    private final int prefetchDepth;
+
+    public FileVersionService(final FileVersionRepository fileVersionRepository,
+                              final FileVersionJdbcRepository fileVersionJdbcRepository,
+                              final FileJdbcRepository fileJdbcRepository,
+                              final FileContentService fileContentService,
+                              final ContentAccessTracker contentAccessTracker,
+                              final ContentDiskCache contentDiskCache,
+                              @Qualifier(ExecutorConfig.PREFETCH_EXECUTOR) final TaskExecutor prefetchExecutor,
+                              final EncryptionService encryptionService,
+                              final FileMapper fileMapper,
+                              final MeterRegistry meterRegistry,
+                              @Value("${securefilemanager.versions.chunk.min-size:262144}") final int minChunkSize,
+                              @Value("${securefilemanager.versions.chunk.avg-size:1048576}") final int avgChunkSize,
+                              @Value("${securefilemanager.versions.chunk.max-size:4194304}") final int maxChunkSize,
+                              @Value("${securefilemanager.downloads.prefetch-depth:2}") final int prefetchDepth) {
+        this.fileVersionRepository = fileVersionRepository;
+        this.fileVersionJdbcRepository = fileVersionJdbcRepository;
+        this.fileJdbcRepository = fileJdbcRepository;
+        this.fileContentService = fileContentService;
+        this.contentAccessTracker = contentAccessTracker;
+        this.contentDiskCache = contentDiskCache;
+        this.prefetchExecutor = prefetchExecutor;
+        this.encryptionService = encryptionService;
+        this.fileMapper = fileMapper;
+        this.skippedUploadsCounter = Counter.builder("securefilemanager.dedup.skipped-uploads")
+                .description("Uploads avoided because the client's content hash matched a stored content")
+                .register(meterRegistry);
+        this.skippedUploadBytesCounter = Counter.builder("securefilemanager.dedup.skipped-upload")
+                .description("Plain content not transferred thanks to upload negotiation")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.minChunkSize = minChunkSize;
+        this.avgChunkSize = avgChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    /**
+     * Stores the user's content as chunks, before and outside of the transaction creating its version, so the
+     * transfer of the content does not hold a metadata connection.
+     */
+    public StagedContent stageContent(final Long userId, final InputStream inputStream) throws GeneralSecurityException, IOException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        List<FileVersionChunk> chunks = new ArrayList<>();
+        long fileSize = storeChunks(userId, new DigestInputStream(inputStream, digest), 0, chunks);
+
+        return new StagedContent(chunks, fileSize, encryptionService.fingerprint(userId, digest.digest(), fileSize));
+    }
+
+    /**
+     * Stores the staged content as the given version of the file, which takes its current name and content type.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public FileVersion storeVersion(final File file,
+                                    final int versionNumber,
+                                    final StagedContent content) {
+        referenceChunks(file.getUser().getId(), content.getChunks());
+
+        FileVersion version = newVersion(file, versionNumber, content.getFileSize(), content.getChunks().size(),
+                content.getFingerprint());
+        fileVersionJdbcRepository.insertChunks(version.getId(), content.getChunks());
+        return version;
+    }
+
+    /**
+     * Stages the file's current content with the data written at the given offset, overwriting existing bytes and
+     * growing the file when it goes past the end; a null offset appends. Only the chunks overlapping the written
+     * range (the last one when appending) are decrypted and re-chunked with the data, the others are shared with
+     * the current version, so the cost tracks the size of the write. Runs outside of the transaction storing the
+     * version, which has to check the file's current version did not change meanwhile.
+     */
+    public StagedContent stageRange(final File file,
+                                    final Long offset,
+                                    final long length,
+                                    final InputStream inputStream) throws GeneralSecurityException, IOException {
+        FileVersion current = fileVersionRepository.findByFileIdAndVersionNumber(file.getId(), file.getCurrentVersion())
+                .orElseThrow(() -> new FileNotFoundException("File version not found"));
+        List<FileVersionChunk> chunks = fileVersionJdbcRepository.findChunks(current.getId());
+
+        long writeOffset = offset != null ? offset : current.getFileSize();
+        if (writeOffset < 0 || writeOffset > current.getFileSize()) {
+            throw new IllegalArgumentException("Offset must be between 0 and the file size");
+        }
+        long writeEnd = writeOffset + length;
+
+        // chunks [first, last] overlap the write, when appending the last chunk is rewritten so it can grow
+        int first = 0;
+        while (first < chunks.size() - 1 && chunkEnd(chunks.get(first)) <= writeOffset) {
+            first++;
+        }
+        int last = first;
+        while (last < chunks.size() - 1 && chunkEnd(chunks.get(last)) < writeEnd) {
+            last++;
+        }
+
+        byte[] prefix = new byte[0];
+        byte[] suffix = new byte[0];
+        long regionStart = 0;
+        if (!chunks.isEmpty()) {
+            FileVersionChunk firstChunk = chunks.get(first);
+            FileVersionChunk lastChunk = chunks.get(last);
+            regionStart = firstChunk.getChunkOffset();
+
+            byte[] firstContent = decryptChunk(file.getUser().getId(), firstChunk);
+            prefix = Arrays.copyOf(firstContent, (int) (writeOffset - regionStart));
+            if (writeEnd < chunkEnd(lastChunk)) {
+                byte[] lastContent = first == last ? firstContent : decryptChunk(file.getUser().getId(), lastChunk);
+                suffix = Arrays.copyOfRange(lastContent, (int) (writeEnd - lastChunk.getChunkOffset()), lastContent.length);
+            }
+        }
+
+        List<FileVersionChunk> newChunks = new ArrayList<>(chunks.subList(0, Math.min(first, chunks.size())));
+        long regionEnd = storeChunks(file.getUser().getId(), new SequenceInputStream(Collections.enumeration(List.of(
+                new ByteArrayInputStream(prefix), inputStream, new ByteArrayInputStream(suffix)))), regionStart, newChunks);
+        if (regionEnd != regionStart + prefix.length + length + suffix.length) {
+            throw new IOException("Written content does not match its declared length");
+        }
+
+        if (!chunks.isEmpty()) {
+            for (FileVersionChunk chunk : chunks.subList(last + 1, chunks.size())) {
+                chunk.setChunkIndex(newChunks.size());
+                newChunks.add(chunk);
+            }
+        }
+
+        return new StagedContent(newChunks, Math.max(current.getFileSize(), writeEnd), null);
+    }
+
+    /**
+     * Finds a version of the user's live files with the given plain SHA-256 and size, so a client can skip
+     * uploading content the user already has. As the fingerprint is scoped to the user, a hash only matches
+     * contents the same user uploaded before. The version is locked until the transaction ends.
+     */
+    @Transactional(propagation = Propagation.MANDATORY, rollbackFor = Exception.class)
+    public Optional<Long> findVersionWithContent(final Long userId, final byte[] sha256, final long size) throws GeneralSecurityException {
+        Optional<Long> versionId = fileVersionJdbcRepository.lockVersionWithFingerprint(userId, encryptionService.fingerprint(userId, sha256, size));
+        if (versionId.isPresent()) {
+            skippedUploadsCounter.increment();
+            skippedUploadBytesCounter.increment(size);
+        }
+        return versionId;
+    }
+
+    /**
+     * Stores, as the given version of the file, the content of another version by sharing all its chunks.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public FileVersion copyVersion(final Long sourceVersionId, final File file, final int versionNumber) {
+        FileVersion source = fileVersionRepository.findById(sourceVersionId)
+                .orElseThrow(() -> new FileNotFoundException("File version not found"));
+
+        return copyVersion(source, file, versionNumber);
+    }
+
+    /**
+     * Stores, as the given version of the target file, the current content of the source file. Only references
+     * are written: the chunks are shared, nothing is decrypted or encrypted again.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public FileVersion copyCurrentVersion(final File source, final File target, final int versionNumber) {
+        FileVersion sourceVersion = fileVersionRepository.findByFileIdAndVersionNumber(source.getId(), source.getCurrentVersion())
+                .orElseThrow(() -> new FileNotFoundException("File version not found"));
+
+        return copyVersion(sourceVersion, target, versionNumber);
+    }
+
+    @Transactional(readOnly = true)
+    public List<FileVersionDTO> getVersions(final Long fileId, final String username) {
+        List<FileVersion> versions = fileVersionRepository.findAllByFileIdAndUsername(fileId, username);
+        if (versions.isEmpty()) {
+            throw new FileNotFoundException("File not found");
+        }
+        return versions.stream().map(fileMapper::fileVersionToFileVersionDto).toList();
+    }
+
+    @Transactional(readOnly = true)
+    public FileVersionDTO getVersion(final Long fileId, final Integer versionNumber, final String username) {
+        return fileVersionRepository.findByFileIdAndVersionNumberAndUsername(fileId, versionNumber, username)
+                .map(fileMapper::fileVersionToFileVersionDto)
+                .orElseThrow(() -> new FileNotFoundException("File version not found"));
+    }
+
+    /**
+     * Decrypts the chunks one after the other into the output, so at most one chunk is held in memory.
+     */
+    public void writeContent(final Long userId,
+                             final List<Long> contentIds,
+                             final OutputStream outputStream) throws GeneralSecurityException, IOException {
+        readChunks(userId, contentIds, chunk -> {
+            outputStream.write(chunk);
+            return true;
+        });
+    }
+
+    /**
+     * Decrypts the chunks one after the other and hands each one to the consumer, until it returns false.
+     * Up to prefetch-depth chunks after the one being decrypted are read ahead on the prefetch executor, so reading
+     * the next chunks overlaps with decrypting this one, and at most prefetch-depth + 1 encrypted chunks are held.
+     * The chunks are recorded as accessed, so cold ones are promoted back to the hot tier.
+     * Chunks cached on the local disk with their current key version are not read from the database.
+     * Every chunk is read on its own connection, so no transaction is held while the consumer runs.
+     */
+    public void readChunks(final Long userId,
+                           final List<Long> contentIds,
+                           final ChunkConsumer consumer) throws GeneralSecurityException, IOException {
+        Map<Long, Integer> keyVersionsByContentId = contentDiskCache.isEnabled()
+                ? fileJdbcRepository.findKeyVersions(userId, contentIds)
+                : Map.of();
+
+        Deque<CompletableFuture<EncryptedFileContent>> prefetchedContents = new ArrayDeque<>();
+        int nextContentIndex = 0;
+        try {
+            for (int i = 0; i < contentIds.size(); i++) {
+                while (nextContentIndex < contentIds.size() && nextContentIndex <= i + prefetchDepth) {
+                    Long contentId = contentIds.get(nextContentIndex++);
+                    prefetchedContents.add(prefetchContent(userId, contentId, keyVersionsByContentId.get(contentId)));
+                }
+                EncryptedFileContent encryptedFileContent = awaitContent(prefetchedContents.poll());
+
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                try (InputStream inputStream = encryptedFileContent.getContent()) {
+                    encryptionService.decryptStream(encryptedFileContent.getKeyVersion(), inputStream, outputStream);
+                }
+                contentAccessTracker.recordAccess(contentIds.get(i));
+
+                if (!consumer.accept(outputStream.toByteArray())) {
+                    return;
+                }
+            }
+        } finally {
+            prefetchedContents.forEach(prefetchedContent -> prefetchedContent.thenAccept(this::closeContent));
+        }
+    }
+
+    /**
+     * Splits the content into chunks, stages them and appends them to the manifest, the first one at the given
+     * offset. The caller references them. Returns the offset following the last chunk.
+     */
+    private long storeChunks(final Long userId,
+                             final InputStream inputStream,
+                             final long startOffset,
+                             final List<FileVersionChunk> manifest) throws GeneralSecurityException, IOException {
+        ContentDefinedChunker chunker = new ContentDefinedChunker(inputStream, minChunkSize, avgChunkSize, maxChunkSize);
+
+        long offset = startOffset;
+        byte[] chunk;
+        while ((chunk = chunker.nextChunk()) != null) {
+            FileVersionChunk versionChunk = new FileVersionChunk();
+            versionChunk.setChunkIndex(manifest.size());
+            versionChunk.setChunkOffset(offset);
+            versionChunk.setChunkSize(chunk.length);
+            versionChunk.setContentId(fileContentService.stageContent(userId, chunk));
+            manifest.add(versionChunk);
+            offset += chunk.length;
+        }
+        return offset;
+    }
+
+    private EncryptedFileContent readContent(final Long userId, final Long contentId, final Integer keyVersion) throws IOException {
+        if (keyVersion != null) {
+            Optional<EncryptedFileContent> cachedContent = contentDiskCache.get(contentId, keyVersion);
+            if (cachedContent.isPresent()) {
+                return cachedContent.get();
+            }
+        }
+        return contentDiskCache.put(contentId, fileJdbcRepository.getFileContentById(userId, contentId));
+    }
+
+    private CompletableFuture<EncryptedFileContent> prefetchContent(final Long userId,
+                                                                    final Long contentId,
+                                                                    final Integer keyVersion) throws IOException {
+        if (prefetchDepth == 0) {
+            return CompletableFuture.completedFuture(readContent(userId, contentId, keyVersion));
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return readContent(userId, contentId, keyVersion);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, prefetchExecutor);
+        } catch (RejectedExecutionException e) {
+            // every prefetch thread is busy and the queue is full, read the chunk on the download's thread
+            return CompletableFuture.completedFuture(readContent(userId, contentId, keyVersion));
+        }
+    }
+
+    private EncryptedFileContent awaitContent(final CompletableFuture<EncryptedFileContent> prefetchedContent) throws IOException {
+        try {
+            return prefetchedContent.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    private void closeContent(final EncryptedFileContent encryptedFileContent) {
+        try {
+            encryptedFileContent.getContent().close();
+        } catch (IOException e) {
+            // nothing left to read from it
+        }
+    }
+
+    private byte[] decryptChunk(final Long userId, final FileVersionChunk chunk) throws GeneralSecurityException, IOException {
+        EncryptedFileContent encryptedFileContent = fileJdbcRepository.getFileContentById(userId, chunk.getContentId());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(chunk.getChunkSize());
+        try (InputStream inputStream = encryptedFileContent.getContent()) {
+            encryptionService.decryptStream(encryptedFileContent.getKeyVersion(), inputStream, outputStream);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static long chunkEnd(final FileVersionChunk chunk) {
+        return chunk.getChunkOffset() + chunk.getChunkSize();
+    }
+
+    private void referenceChunks(final Long userId, final List<FileVersionChunk> chunks) {
+        if (!chunks.isEmpty()) {
+            fileVersionJdbcRepository.referenceContents(userId, chunks.stream().map(FileVersionChunk::getContentId).toList());
+        }
+    }
+
+    private FileVersion copyVersion(final FileVersion source, final File file, final int versionNumber) {
+        FileVersion version = newVersion(file, versionNumber, source.getFileSize(), source.getChunkCount(), source.getFingerprint());
+        fileVersionJdbcRepository.copyChunks(file.getUser().getId(), source.getId(), version.getId());
+        return version;
+    }
+
+    private FileVersion newVersion(final File file, final int versionNumber, final long fileSize,
+                                   final int chunkCount, final byte[] fingerprint) {
+        FileVersion version = new FileVersion();
+        version.setFileId(file.getId());
+        version.setVersionNumber(versionNumber);
+        version.setName(file.getName());
+        version.setContentType(file.getContentType());
+        version.setFileSize(fileSize);
+        version.setChunkCount(chunkCount);
+        version.setFingerprint(fingerprint);
+        version.setCreatedDate(LocalDateTime.now());
+        return fileVersionRepository.save(version);
+    }
+
+    @FunctionalInterface
+    public interface ChunkConsumer {
+
+        /**
+         * Returns whether more chunks are wanted.
+         */
+        boolean accept(byte[] chunk) throws IOException;
+    }
+}
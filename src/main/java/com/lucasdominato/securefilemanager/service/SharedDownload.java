@@ -0,0 +1,222 @@
+package com.lucasdominato.securefilemanager.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Decrypted chunks of one file version, fetched once and read by every download of the version that joined in time.
+ * A chunk is dropped as soon as every reader wrote it, so only the chunks fetched ahead of the slowest reader are
+ * buffered, at most maxBufferSize bytes: a download read alone streams through that window, and a reader can only
+ * join while the first chunk is still buffered. Readers go at their own pace: the fetch is only held back by the
+ * slowest readers while none of the others waits for a new chunk. Otherwise the readers still on the oldest chunk
+ * are detached and read the rest of the version on their own, so a slow client never stalls the others.
+ * Waits use a lock rather than monitors, so a waiting virtual thread does not pin its carrier thread.
+ */
+class SharedDownload {
+
+    private final Long userId;
+    private final List<Long> contentIds;
+    private final long maxBufferSize;
+    private final Consumer<SharedDownload> onClose;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private final Set<Reader> readers = new HashSet<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private int firstChunkIndex;
+    private long bufferedBytes;
+    private boolean completed;
+    private boolean closed;
+    private Exception failure;
+
+    SharedDownload(final Long userId,
+                   final List<Long> contentIds,
+                   final long maxBufferSize,
+                   final Consumer<SharedDownload> onClose) {
+        this.userId = userId;
+        this.contentIds = contentIds;
+        this.maxBufferSize = maxBufferSize;
+        this.onClose = onClose;
+    }
+
+    Long getUserId() {
+        return userId;
+    }
+
+    List<Long> getContentIds() {
+        return contentIds;
+    }
+
+    /**
+     * Adds a reader starting at the first chunk, unless it was already evicted or every reader left.
+     */
+    Reader join() {
+        lock.lock();
+        try {
+            if (closed || firstChunkIndex > 0 || failure != null) {
+                return null;
+            }
+
+            Reader reader = new Reader();
+            readers.add(reader);
+            return reader;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the next decrypted chunk. While the buffer is full, the oldest chunk is evicted if no reader needs it
+     * anymore or a reader waits for the new chunk, otherwise the fetch waits for the readers.
+     * Returns false once every reader left, to stop the fetch.
+     */
+    boolean publish(final byte[] chunk) throws InterruptedException {
+        lock.lock();
+        try {
+            while (!closed && !chunks.isEmpty() && bufferedBytes + chunk.length > maxBufferSize) {
+                boolean oldestChunkNeeded = readers.stream().anyMatch(reader -> reader.chunkIndex == firstChunkIndex);
+                boolean readerWaiting = readers.stream().anyMatch(reader -> reader.chunkIndex == producedChunks());
+                if (!oldestChunkNeeded || readerWaiting) {
+                    evictFirstChunk();
+                } else {
+                    changed.await();
+                }
+            }
+            if (closed) {
+                return false;
+            }
+
+            chunks.add(chunk);
+            bufferedBytes += chunk.length;
+            changed.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void complete() {
+        lock.lock();
+        try {
+            completed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void fail(final Exception exception) {
+        lock.lock();
+        try {
+            failure = exception;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the chunks to the output as they are fetched. Returns the index of the chunk to continue from if the
+     * reader was detached, or -1 once the whole version was written.
+     */
+    int read(final Reader reader, final OutputStream outputStream) throws IOException, InterruptedException {
+        try {
+            while (true) {
+                byte[] chunk;
+                lock.lock();
+                try {
+                    while (!reader.detached && reader.chunkIndex == producedChunks() && !completed && failure == null) {
+                        changed.await();
+                    }
+                    if (reader.detached) {
+                        return reader.chunkIndex;
+                    }
+                    if (reader.chunkIndex == producedChunks()) {
+                        if (failure != null) {
+                            throw new IOException("Failed to read the shared download", failure);
+                        }
+                        return -1;
+                    }
+                    chunk = chunks.get(reader.chunkIndex - firstChunkIndex);
+                } finally {
+                    lock.unlock();
+                }
+
+                outputStream.write(chunk);
+
+                lock.lock();
+                try {
+                    reader.chunkIndex++;
+                    evictReadChunks();
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            leave(reader);
+        }
+    }
+
+    private void evictFirstChunk() {
+        for (Reader reader : readers) {
+            if (reader.chunkIndex == firstChunkIndex) {
+                reader.detached = true;
+            }
+        }
+        readers.removeIf(reader -> reader.detached);
+
+        bufferedBytes -= chunks.remove(0).length;
+        firstChunkIndex++;
+        changed.signalAll();
+    }
+
+    /**
+     * Drops the oldest chunks once every reader wrote them.
+     */
+    private void evictReadChunks() {
+        while (!chunks.isEmpty() && !readers.isEmpty()
+                && readers.stream().allMatch(reader -> reader.chunkIndex > firstChunkIndex)) {
+            bufferedBytes -= chunks.remove(0).length;
+            firstChunkIndex++;
+        }
+    }
+
+    private int producedChunks() {
+        return firstChunkIndex + chunks.size();
+    }
+
+    private void leave(final Reader reader) {
+        boolean closing;
+        lock.lock();
+        try {
+            readers.remove(reader);
+            closing = readers.isEmpty() && !closed;
+            if (closing) {
+                closed = true;
+                chunks.clear();
+                bufferedBytes = 0;
+            } else {
+                evictReadChunks();
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (closing) {
+            onClose.accept(this);
+        }
+    }
+
+    static class Reader {
+
+        private int chunkIndex;
+        private boolean detached;
+    }
+}
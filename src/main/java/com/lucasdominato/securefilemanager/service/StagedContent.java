@@ -0,0 +1,20 @@
+package com.lucasdominato.securefilemanager.service;
+
+import com.lucasdominato.securefilemanager.data.entity.FileVersionChunk;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * An uploaded content already stored as chunks, not yet referenced by any file version. The fingerprint is null
+ * for a content staged from a range write, which is not hashed as a whole.
+ */
+@Getter
+@AllArgsConstructor
+public class StagedContent {
+
+    private final List<FileVersionChunk> chunks;
+    private final long fileSize;
+    private final byte[] fingerprint;
+}
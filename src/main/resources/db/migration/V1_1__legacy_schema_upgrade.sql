@@ -0,0 +1,154 @@
+-- Brings a database generated by Hibernate from earlier versions of the entities, and baselined at version 1, to the
+-- version 1 schema, before version 2 rewrites file_content. Every statement is a no-op on the version 1 schema.
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+ALTER TABLE users ADD COLUMN IF NOT EXISTS last_change_sequence bigint NOT NULL DEFAULT 0;
+ALTER TABLE users ALTER COLUMN last_change_sequence SET DEFAULT 0;
+ALTER TABLE users ADD COLUMN IF NOT EXISTS content_shard integer;
+
+ALTER TABLE files ADD COLUMN IF NOT EXISTS deleted_date timestamp(6);
+ALTER TABLE files ADD COLUMN IF NOT EXISTS delete_job_id bigint;
+ALTER TABLE files ADD COLUMN IF NOT EXISTS search_vector tsvector GENERATED ALWAYS AS (setweight(to_tsvector('simple', coalesce(name, '')), 'A') || setweight(to_tsvector('simple', coalesce(description, '')), 'B')) STORED;
+
+CREATE INDEX IF NOT EXISTS idx_files_search_vector ON files USING gin (search_vector);
+CREATE INDEX IF NOT EXISTS idx_files_name_trgm ON files USING gin (lower(name) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_files_deleted_date ON files (deleted_date) WHERE deleted_date IS NOT NULL;
+CREATE INDEX IF NOT EXISTS idx_files_delete_job_id ON files (delete_job_id) WHERE delete_job_id IS NOT NULL;
+
+-- Cold and sharded contents have no content in the row
+ALTER TABLE file_content ALTER COLUMN content DROP NOT NULL;
+ALTER TABLE file_content ADD COLUMN IF NOT EXISTS user_id bigint;
+ALTER TABLE file_content ADD COLUMN IF NOT EXISTS fingerprint bytea;
+ALTER TABLE file_content ADD COLUMN IF NOT EXISTS cold_segment varchar(255);
+ALTER TABLE file_content ADD COLUMN IF NOT EXISTS cold_offset bigint;
+ALTER TABLE file_content ADD COLUMN IF NOT EXISTS cold_length bigint;
+ALTER TABLE file_content ADD COLUMN IF NOT EXISTS shard integer;
+ALTER TABLE file_content ADD COLUMN IF NOT EXISTS shard_length bigint;
+ALTER TABLE file_content ADD COLUMN IF NOT EXISTS last_accessed_date timestamp(6) NOT NULL DEFAULT CURRENT_TIMESTAMP;
+ALTER TABLE file_content ADD COLUMN IF NOT EXISTS key_version integer NOT NULL DEFAULT 1;
+ALTER TABLE file_content ADD COLUMN IF NOT EXISTS ref_count integer;
+
+CREATE TABLE IF NOT EXISTS file_versions (
+    id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    file_id bigint NOT NULL,
+    version_number integer NOT NULL,
+    name varchar(255) NOT NULL,
+    content_type varchar(255) NOT NULL,
+    file_size bigint NOT NULL,
+    chunk_count integer NOT NULL,
+    fingerprint bytea,
+    created_date timestamp(6) NOT NULL
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_file_version_file_number ON file_versions (file_id, version_number);
+CREATE INDEX IF NOT EXISTS idx_file_version_fingerprint ON file_versions (fingerprint);
+
+CREATE TABLE IF NOT EXISTS file_version_chunks (
+    version_id bigint NOT NULL,
+    chunk_index integer NOT NULL,
+    chunk_offset bigint NOT NULL,
+    chunk_size integer NOT NULL,
+    content_id bigint NOT NULL,
+    PRIMARY KEY (version_id, chunk_index)
+);
+
+-- Files point at their content through file_content.file_id in the first schema, one content per file, and through
+-- files.content_id once contents were deduplicated. Each file then gets a version 1 holding its whole content as a
+-- single chunk: a content stored before the versions was encrypted as one stream, which is also the format of a
+-- chunk, and the reference the file held on its content becomes the reference of that chunk.
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM information_schema.columns
+               WHERE table_schema = current_schema() AND table_name = 'file_content' AND column_name = 'file_id') THEN
+        UPDATE file_content c SET user_id = f.user_id FROM files f WHERE f.id = c.file_id AND c.user_id IS NULL;
+        UPDATE file_content SET ref_count = 1 WHERE ref_count IS NULL;
+        ALTER TABLE files ADD COLUMN IF NOT EXISTS content_id bigint;
+        UPDATE files f SET content_id = c.id FROM file_content c WHERE c.file_id = f.id AND f.content_id IS NULL;
+        ALTER TABLE file_content DROP COLUMN file_id;
+    END IF;
+
+    IF NOT EXISTS (SELECT 1 FROM information_schema.columns
+                   WHERE table_schema = current_schema() AND table_name = 'files' AND column_name = 'content_id') THEN
+        RETURN;
+    END IF;
+
+    ALTER TABLE files ADD COLUMN IF NOT EXISTS current_version integer;
+
+    -- The whole-content fingerprint is left unset: these versions can't be matched by upload negotiation
+    INSERT INTO file_versions (file_id, version_number, name, content_type, file_size, chunk_count, created_date)
+    SELECT f.id, 1, f.name, f.content_type, f.file_size, 1, f.last_modified_date
+    FROM files f
+    WHERE f.content_id IS NOT NULL
+      AND NOT EXISTS (SELECT 1 FROM file_versions v WHERE v.file_id = f.id);
+
+    -- The chunk size is the plaintext size of the stored content, IV and HMAC excluded: a bytea holds at most 1 GB,
+    -- so it fits the integer column where the file size may not
+    INSERT INTO file_version_chunks (version_id, chunk_index, chunk_offset, chunk_size, content_id)
+    SELECT v.id, 0, 0, (coalesce(octet_length(c.content)::bigint, c.cold_length, c.shard_length) - 48)::integer, f.content_id
+    FROM files f
+    JOIN file_versions v ON v.file_id = f.id AND v.version_number = 1
+    JOIN file_content c ON c.id = f.content_id
+    WHERE f.content_id IS NOT NULL
+      AND NOT EXISTS (SELECT 1 FROM file_version_chunks c WHERE c.version_id = v.id);
+
+    UPDATE files SET current_version = 1 WHERE current_version IS NULL;
+    ALTER TABLE files ALTER COLUMN current_version SET NOT NULL;
+    ALTER TABLE files DROP COLUMN content_id;
+END $$;
+
+-- Contents stored before the deduplication get a fingerprint of their own that no keyed fingerprint, 32 bytes long,
+-- can match: they are never deduplicated against. A content without a user belongs to no file and fails the migration.
+UPDATE file_content SET fingerprint = convert_to('legacy:' || id, 'UTF8') WHERE fingerprint IS NULL;
+UPDATE file_content c SET ref_count = (SELECT count(*) FROM file_version_chunks vc WHERE vc.content_id = c.id)
+WHERE c.ref_count IS NULL;
+ALTER TABLE file_content ALTER COLUMN user_id SET NOT NULL;
+ALTER TABLE file_content ALTER COLUMN fingerprint SET NOT NULL;
+ALTER TABLE file_content ALTER COLUMN ref_count SET NOT NULL;
+
+CREATE SEQUENCE IF NOT EXISTS file_changes_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS file_changes (
+    id bigint PRIMARY KEY,
+    user_id bigint NOT NULL,
+    sequence_number bigint NOT NULL,
+    file_id bigint NOT NULL,
+    change_type varchar(255) NOT NULL CHECK (change_type IN ('CREATED', 'UPDATED', 'DELETED', 'RESTORED')),
+    changed_at timestamp(6) NOT NULL
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_file_change_user_sequence ON file_changes (user_id, sequence_number);
+
+CREATE TABLE IF NOT EXISTS file_delete_jobs (
+    id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    user_id bigint NOT NULL,
+    total_files integer NOT NULL,
+    created_date timestamp(6) NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_file_delete_job_user ON file_delete_jobs (user_id);
+
+CREATE TABLE IF NOT EXISTS content_integrity_checks (
+    content_id bigint PRIMARY KEY,
+    valid boolean NOT NULL,
+    failure_reason varchar(255),
+    checked_date timestamp(6) NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_content_integrity_check_valid ON content_integrity_checks (valid);
+
+CREATE TABLE IF NOT EXISTS key_rotation_checkpoints (
+    key_version integer PRIMARY KEY,
+    last_content_id bigint NOT NULL,
+    re_encrypted_contents bigint NOT NULL,
+    re_encrypted_bytes bigint NOT NULL,
+    started_date timestamp(6) NOT NULL,
+    completed_date timestamp(6)
+);
+
+CREATE TABLE IF NOT EXISTS scrub_checkpoints (
+    id bigint PRIMARY KEY,
+    last_content_id bigint NOT NULL,
+    pass bigint NOT NULL,
+    pass_started_date timestamp(6) NOT NULL
+);
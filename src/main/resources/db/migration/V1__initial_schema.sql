@@ -0,0 +1,132 @@
+-- Schema as previously generated by Hibernate from the entities, plus the statements of the former import.sql.
+-- Databases created that way are baselined at this version (spring.flyway.baseline-on-migrate).
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE TABLE users (
+    id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    created_by varchar(255) NOT NULL,
+    created_date timestamp(6) NOT NULL,
+    last_modified_by varchar(255) NOT NULL,
+    last_modified_date timestamp(6) NOT NULL,
+    username varchar(255) NOT NULL UNIQUE,
+    name varchar(255) NOT NULL,
+    email varchar(255) NOT NULL UNIQUE,
+    date_of_birth date NOT NULL,
+    last_change_sequence bigint NOT NULL DEFAULT 0,
+    content_shard integer
+);
+
+CREATE TABLE files (
+    id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    created_by varchar(255) NOT NULL,
+    created_date timestamp(6) NOT NULL,
+    last_modified_by varchar(255) NOT NULL,
+    last_modified_date timestamp(6) NOT NULL,
+    name varchar(255) NOT NULL,
+    description varchar(255),
+    user_id bigint NOT NULL REFERENCES users (id),
+    content_type varchar(255) NOT NULL,
+    file_size bigint NOT NULL,
+    current_version integer NOT NULL,
+    deleted_date timestamp(6),
+    delete_job_id bigint,
+    search_vector tsvector GENERATED ALWAYS AS (setweight(to_tsvector('simple', coalesce(name, '')), 'A') || setweight(to_tsvector('simple', coalesce(description, '')), 'B')) STORED
+);
+
+CREATE INDEX idx_file_id_username ON files (id, user_id);
+CREATE INDEX idx_files_search_vector ON files USING gin (search_vector);
+CREATE INDEX idx_files_name_trgm ON files USING gin (lower(name) gin_trgm_ops);
+CREATE INDEX idx_files_deleted_date ON files (deleted_date) WHERE deleted_date IS NOT NULL;
+CREATE INDEX idx_files_delete_job_id ON files (delete_job_id) WHERE delete_job_id IS NOT NULL;
+
+CREATE TABLE file_versions (
+    id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    file_id bigint NOT NULL,
+    version_number integer NOT NULL,
+    name varchar(255) NOT NULL,
+    content_type varchar(255) NOT NULL,
+    file_size bigint NOT NULL,
+    chunk_count integer NOT NULL,
+    fingerprint bytea,
+    created_date timestamp(6) NOT NULL
+);
+
+CREATE UNIQUE INDEX idx_file_version_file_number ON file_versions (file_id, version_number);
+CREATE INDEX idx_file_version_fingerprint ON file_versions (fingerprint);
+
+CREATE TABLE file_version_chunks (
+    version_id bigint NOT NULL,
+    chunk_index integer NOT NULL,
+    chunk_offset bigint NOT NULL,
+    chunk_size integer NOT NULL,
+    content_id bigint NOT NULL,
+    PRIMARY KEY (version_id, chunk_index)
+);
+
+CREATE TABLE file_content (
+    id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    user_id bigint NOT NULL,
+    fingerprint bytea NOT NULL,
+    content bytea,
+    cold_segment varchar(255),
+    cold_offset bigint,
+    cold_length bigint,
+    shard integer,
+    shard_length bigint,
+    last_accessed_date timestamp(6) NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    key_version integer NOT NULL DEFAULT 1,
+    ref_count integer NOT NULL
+);
+
+CREATE UNIQUE INDEX idx_file_content_user_fingerprint ON file_content (user_id, fingerprint);
+CREATE INDEX idx_file_content_unreferenced ON file_content (id) WHERE ref_count = 0;
+CREATE INDEX idx_file_content_hot_last_accessed ON file_content (last_accessed_date) WHERE cold_segment IS NULL;
+CREATE INDEX idx_file_content_cold_segment ON file_content (cold_segment) WHERE cold_segment IS NOT NULL;
+
+CREATE SEQUENCE file_changes_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE file_changes (
+    id bigint PRIMARY KEY,
+    user_id bigint NOT NULL,
+    sequence_number bigint NOT NULL,
+    file_id bigint NOT NULL,
+    change_type varchar(255) NOT NULL CHECK (change_type IN ('CREATED', 'UPDATED', 'DELETED', 'RESTORED')),
+    changed_at timestamp(6) NOT NULL
+);
+
+CREATE UNIQUE INDEX idx_file_change_user_sequence ON file_changes (user_id, sequence_number);
+
+CREATE TABLE file_delete_jobs (
+    id bigint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    user_id bigint NOT NULL,
+    total_files integer NOT NULL,
+    created_date timestamp(6) NOT NULL
+);
+
+CREATE INDEX idx_file_delete_job_user ON file_delete_jobs (user_id);
+
+CREATE TABLE content_integrity_checks (
+    content_id bigint PRIMARY KEY,
+    valid boolean NOT NULL,
+    failure_reason varchar(255),
+    checked_date timestamp(6) NOT NULL
+);
+
+CREATE INDEX idx_content_integrity_check_valid ON content_integrity_checks (valid);
+
+CREATE TABLE key_rotation_checkpoints (
+    key_version integer PRIMARY KEY,
+    last_content_id bigint NOT NULL,
+    re_encrypted_contents bigint NOT NULL,
+    re_encrypted_bytes bigint NOT NULL,
+    started_date timestamp(6) NOT NULL,
+    completed_date timestamp(6)
+);
+
+CREATE TABLE scrub_checkpoints (
+    id bigint PRIMARY KEY,
+    last_content_id bigint NOT NULL,
+    pass bigint NOT NULL,
+    pass_started_date timestamp(6) NOT NULL
+);
@@ -0,0 +1,67 @@
+-- Files are listed, exported and bulk deleted per user. The former (id, user_id) index only duplicated the primary key.
+DROP INDEX IF EXISTS idx_file_id_username;
+CREATE INDEX idx_files_user_id ON files (user_id, id);
+
+-- Chunk manifests of databases created by Hibernate had their (version_id, chunk_index) lookups in a separate index
+DROP INDEX IF EXISTS idx_file_version_chunk_version;
+
+-- file_content is hash partitioned by user_id, so each partition is vacuumed, and its TOAST table maintained,
+-- separately. The primary key has to include the partition key. Content reads and reference counting pass the user,
+-- so they only probe its partition; the background jobs scanning by id probe each partition's primary key.
+ALTER TABLE file_content RENAME TO file_content_unpartitioned;
+-- Frees the file_content_id_seq name for the new table
+ALTER TABLE file_content_unpartitioned ALTER COLUMN id DROP IDENTITY IF EXISTS;
+DROP INDEX IF EXISTS idx_file_content_user_fingerprint;
+DROP INDEX IF EXISTS idx_file_content_unreferenced;
+DROP INDEX IF EXISTS idx_file_content_hot_last_accessed;
+DROP INDEX IF EXISTS idx_file_content_cold_segment;
+
+CREATE SEQUENCE file_content_id_seq;
+
+CREATE TABLE file_content (
+    id bigint NOT NULL DEFAULT nextval('file_content_id_seq'),
+    user_id bigint NOT NULL,
+    fingerprint bytea NOT NULL,
+    content bytea,
+    cold_segment varchar(255),
+    cold_offset bigint,
+    cold_length bigint,
+    shard integer,
+    shard_length bigint,
+    last_accessed_date timestamp(6) NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    key_version integer NOT NULL DEFAULT 1,
+    ref_count integer NOT NULL,
+    PRIMARY KEY (id, user_id)
+) PARTITION BY HASH (user_id);
+
+ALTER SEQUENCE file_content_id_seq OWNED BY file_content.id;
+
+-- Rows see frequent ref_count and last_accessed_date updates, so dead tuples are vacuumed earlier than by default
+CREATE TABLE file_content_p0 PARTITION OF file_content FOR VALUES WITH (MODULUS 8, REMAINDER 0) WITH (autovacuum_vacuum_scale_factor = 0.05);
+CREATE TABLE file_content_p1 PARTITION OF file_content FOR VALUES WITH (MODULUS 8, REMAINDER 1) WITH (autovacuum_vacuum_scale_factor = 0.05);
+CREATE TABLE file_content_p2 PARTITION OF file_content FOR VALUES WITH (MODULUS 8, REMAINDER 2) WITH (autovacuum_vacuum_scale_factor = 0.05);
+CREATE TABLE file_content_p3 PARTITION OF file_content FOR VALUES WITH (MODULUS 8, REMAINDER 3) WITH (autovacuum_vacuum_scale_factor = 0.05);
+CREATE TABLE file_content_p4 PARTITION OF file_content FOR VALUES WITH (MODULUS 8, REMAINDER 4) WITH (autovacuum_vacuum_scale_factor = 0.05);
+CREATE TABLE file_content_p5 PARTITION OF file_content FOR VALUES WITH (MODULUS 8, REMAINDER 5) WITH (autovacuum_vacuum_scale_factor = 0.05);
+CREATE TABLE file_content_p6 PARTITION OF file_content FOR VALUES WITH (MODULUS 8, REMAINDER 6) WITH (autovacuum_vacuum_scale_factor = 0.05);
+CREATE TABLE file_content_p7 PARTITION OF file_content FOR VALUES WITH (MODULUS 8, REMAINDER 7) WITH (autovacuum_vacuum_scale_factor = 0.05);
+
+-- The content is ciphertext: stored out of line without trying, and failing, to compress it
+ALTER TABLE file_content ALTER COLUMN content SET STORAGE EXTERNAL;
+
+CREATE UNIQUE INDEX idx_file_content_user_fingerprint ON file_content (user_id, fingerprint);
+CREATE INDEX idx_file_content_unreferenced ON file_content (id) WHERE ref_count = 0;
+CREATE INDEX idx_file_content_hot_last_accessed ON file_content (last_accessed_date) WHERE cold_segment IS NULL;
+CREATE INDEX idx_file_content_cold_segment ON file_content (cold_segment) WHERE cold_segment IS NOT NULL;
+
+-- Copies every content in the single transaction of the migration, on startup: the application stays down until it
+-- commits, and the database needs room for a second copy of the table meanwhile
+INSERT INTO file_content (id, user_id, fingerprint, content, cold_segment, cold_offset, cold_length, shard, shard_length,
+                          last_accessed_date, key_version, ref_count)
+SELECT id, user_id, fingerprint, content, cold_segment, cold_offset, cold_length, shard, shard_length,
+       last_accessed_date, key_version, ref_count
+FROM file_content_unpartitioned;
+
+SELECT setval('file_content_id_seq', coalesce((SELECT max(id) FROM file_content), 0) + 1, false);
+
+DROP TABLE file_content_unpartitioned;
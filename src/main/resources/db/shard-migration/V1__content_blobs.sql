@@ -0,0 +1,11 @@
+-- Encrypted contents of the shard, keyed by their file_content id on the primary. Shards set up before these
+-- migrations already have the table, created at startup.
+CREATE TABLE IF NOT EXISTS content_blobs (
+    content_id   bigint PRIMARY KEY,
+    key_version  integer NOT NULL,
+    content      bytea NOT NULL,
+    written_date timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Ciphertext does not compress, it is stored out of line as is
+ALTER TABLE content_blobs ALTER COLUMN content SET STORAGE EXTERNAL;
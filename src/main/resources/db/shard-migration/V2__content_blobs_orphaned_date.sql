@@ -0,0 +1,3 @@
+-- Set by the sweeper when it first finds no file_content row pointing at the copy, cleared once one does again.
+-- The copy is deleted once orphaned for the grace period.
+ALTER TABLE content_blobs ADD COLUMN IF NOT EXISTS orphaned_date timestamp;
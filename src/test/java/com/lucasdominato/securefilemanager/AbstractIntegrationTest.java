@@ -14,11 +14,15 @@ import org.testcontainers.junit.jupiter.Testcontainers;
 @SpringBootTest(classes = SecureFileManagerApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
 		"server.port=0",
 		"local.management.port=0",
-		"spring.jpa.hibernate.ddl-auto=create-drop",
 		"spring.jpa.show-sql=true",
 		"jwt.secret-key=nL4qbOMfunmPIcGwiTxXKphaf9TeAXtVqqckslGhqT0=",
 		"encryption.aes-key=72nwGtTEtKp7Ye+oXg1aQcEvWZDvFG9a2hho4RLP76Q=",
-		"encryption.hmac-key=ehGRZTRXWXm00/2GafSlIpJbxotDjQK2gD7y2Uyy4+Q="
+		"encryption.hmac-key=ehGRZTRXWXm00/2GafSlIpJbxotDjQK2gD7y2Uyy4+Q=",
+		"encryption.fingerprint-key=qsYt56LdH6YRAvBOioxa9e4t1hV+GU6DlX/lP2+vtco=",
+		"securefilemanager.cold-storage.directory=build/cold-storage",
+		"securefilemanager.cold-storage.min-size=1",
+		"securefilemanager.content-cache.enabled=true",
+		"securefilemanager.content-cache.directory=build/content-cache"
 })
 @AutoConfigureMockMvc
 @Testcontainers
@@ -0,0 +1,132 @@
+package com.lucasdominato.securefilemanager.benchmark;
+
+import com.lucasdominato.securefilemanager.AbstractIntegrationTest;
+import com.lucasdominato.securefilemanager.security.JwtUtil;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.testcontainers.shaded.com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Many slow clients download a file while another client keeps reading its metadata. Reports the time taken by the
+ * downloads and the latency of the metadata requests, to compare the thread modes of the subclasses.
+ * The file is much larger than the socket buffers, so the server blocks on every slow client.
+ * The results are logged. Run with: gradle benchmark
+ */
+@Tag("benchmark")
+@TestPropertySource(properties = {
+        "securefilemanager.admission.downloads.initial-limit=400",
+        "securefilemanager.admission.downloads.max-limit=400"
+})
+abstract class AbstractDownloadBenchmark extends AbstractIntegrationTest {
+
+    private static final Logger log = LoggerFactory.getLogger(AbstractDownloadBenchmark.class);
+
+    private static final int DOWNLOADS = 400;
+    private static final int CONTENT_SIZE = 8 * 1024 * 1024;
+    private static final int METADATA_REQUESTS = 200;
+    private static final int CLIENT_READ_SIZE = 4096;
+    private static final long CLIENT_READ_PAUSE_MILLIS = 5;
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Test
+    void benchmarkSlowDownloadsAlongMetadataRequests() throws Exception {
+        String token = jwtUtil.generateToken("benchmarkUser", "User Foo", "userfoo@gmail.com", "01-01-1990");
+        long fileId = createFile(token);
+        HttpClient client = HttpClient.newHttpClient();
+
+        ExecutorService clients = Executors.newFixedThreadPool(DOWNLOADS);
+        try {
+            long start = System.nanoTime();
+            List<Future<Integer>> downloads = new ArrayList<>();
+            for (int i = 0; i < DOWNLOADS; i++) {
+                downloads.add(clients.submit(() -> slowDownload(client, token, fileId)));
+            }
+
+            long[] latencies = new long[METADATA_REQUESTS];
+            for (int i = 0; i < METADATA_REQUESTS; i++) {
+                long requestStart = System.nanoTime();
+                HttpResponse<Void> response = client.send(request(token, "/api/files/" + fileId), HttpResponse.BodyHandlers.discarding());
+                latencies[i] = System.nanoTime() - requestStart;
+                assertEquals(200, response.statusCode());
+            }
+
+            for (Future<Integer> download : downloads) {
+                assertEquals(200, download.get());
+            }
+            long elapsed = System.nanoTime() - start;
+
+            Arrays.sort(latencies);
+            log.info("{}: {} slow downloads of {} MiB in {} ms, metadata latency p50 {} us, p99 {} us, max {} us",
+                    getClass().getSimpleName(), DOWNLOADS, CONTENT_SIZE / (1024 * 1024), elapsed / 1_000_000,
+                    latencies[METADATA_REQUESTS / 2] / 1_000, latencies[METADATA_REQUESTS * 99 / 100] / 1_000,
+                    latencies[METADATA_REQUESTS - 1] / 1_000);
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private int slowDownload(final HttpClient client, final String token, final long fileId) throws Exception {
+        HttpResponse<InputStream> response = client.send(request(token, "/api/files/" + fileId + "/download"),
+                HttpResponse.BodyHandlers.ofInputStream());
+
+        try (InputStream body = response.body()) {
+            byte[] buffer = new byte[CLIENT_READ_SIZE];
+            while (body.read(buffer) != -1) {
+                Thread.sleep(CLIENT_READ_PAUSE_MILLIS);
+            }
+        }
+        return response.statusCode();
+    }
+
+    private HttpRequest request(final String token, final String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + localServerPort + path))
+                .header("Authorization", "Bearer " + token)
+                .build();
+    }
+
+    private long createFile(final String token) throws Exception {
+        byte[] content = new byte[CONTENT_SIZE];
+        new Random(42).nextBytes(content);
+        MockMultipartFile file = new MockMultipartFile("file", "benchmark.bin", MediaType.APPLICATION_OCTET_STREAM_VALUE, content);
+
+        MvcResult result = mvc.perform(MockMvcRequestBuilders
+                        .multipart("/api/files")
+                        .file(file)
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.MULTIPART_FORM_DATA))
+                .andExpect(status().isCreated())
+                .andReturn();
+
+        return new ObjectMapper().readTree(result.getResponse().getContentAsString()).get("id").asLong();
+    }
+}
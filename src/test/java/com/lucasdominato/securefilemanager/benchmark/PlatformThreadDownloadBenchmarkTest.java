@@ -0,0 +1,7 @@
+package com.lucasdominato.securefilemanager.benchmark;
+
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = "spring.threads.virtual.enabled=false")
+class PlatformThreadDownloadBenchmarkTest extends AbstractDownloadBenchmark {
+}
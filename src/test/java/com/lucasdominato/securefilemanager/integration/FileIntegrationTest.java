@@ -3,25 +3,34 @@ package com.lucasdominato.securefilemanager.integration;
 import com.lucasdominato.securefilemanager.AbstractIntegrationTest;
 import com.lucasdominato.securefilemanager.data.repository.FileContentRepository;
 import com.lucasdominato.securefilemanager.data.repository.FileRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileVersionChunkRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileVersionRepository;
 import com.lucasdominato.securefilemanager.data.repository.UserRepository;
 import com.lucasdominato.securefilemanager.dto.response.FileResponseDTO;
 import com.lucasdominato.securefilemanager.security.JwtUtil;
+import com.lucasdominato.securefilemanager.service.ContentTieringService;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import org.testcontainers.shaded.com.fasterxml.jackson.databind.ObjectMapper;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
 import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -40,9 +49,21 @@ public class FileIntegrationTest extends AbstractIntegrationTest {
     @Autowired
     private FileContentRepository fileContentRepository;
 
+    @Autowired
+    private FileVersionRepository fileVersionRepository;
+
+    @Autowired
+    private FileVersionChunkRepository fileVersionChunkRepository;
+
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private ContentTieringService contentTieringService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @Autowired
     private JwtUtil jwtUtil;
 
@@ -75,6 +96,8 @@ public class FileIntegrationTest extends AbstractIntegrationTest {
 
     @BeforeEach
     void beforeEach() {
+        fileVersionChunkRepository.deleteAll();
+        fileVersionRepository.deleteAll();
         fileContentRepository.deleteAll();
         fileRepository.deleteAll();
         userRepository.deleteAll();
@@ -184,6 +207,15 @@ public class FileIntegrationTest extends AbstractIntegrationTest {
                 .andReturn();
     }
 
+    @Test
+    void shouldServeHealthWithoutTokenButNotMetrics() throws Exception {
+        mvc.perform(MockMvcRequestBuilders.get("/actuator/health"))
+                .andExpect(status().isOk());
+
+        mvc.perform(MockMvcRequestBuilders.get("/actuator/metrics"))
+                .andExpect(status().isUnauthorized());
+    }
+
     @Test
     void shouldSearchAllFilesWithNoPagingExpiredTokenError() throws Exception {
         generateExpiredToken();
@@ -414,12 +446,10 @@ public class FileIntegrationTest extends AbstractIntegrationTest {
 
         FileResponseDTO file = createFile("File 1", "Description 1");
 
-        MvcResult result = mvc.perform(MockMvcRequestBuilders
+        MvcResult result = download(MockMvcRequestBuilders
                         .get("/api/files/" + file.getId() + "/download")
                         .header("Authorization", "Bearer " + token)
-                        .contentType(MediaType.APPLICATION_JSON))
-                .andExpect(status().isOk())
-                .andReturn();
+                        .contentType(MediaType.APPLICATION_JSON));
 
         assertEquals(MediaType.APPLICATION_PDF_VALUE, result.getResponse().getContentType());
         assertEquals("attachment; filename=\"" + file.getName() + "\"", result.getResponse().getHeader("Content-Disposition"));
@@ -429,6 +459,289 @@ public class FileIntegrationTest extends AbstractIntegrationTest {
         assertArrayEquals(expectedContent, downloadedContent);
     }
 
+    @Test
+    void shouldDownloadFileMovedToColdTierSuccessfully() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file = createFile("File 1", "Description 1");
+        jdbcTemplate.update("UPDATE file_content SET last_accessed_date = ?", LocalDateTime.now().minusYears(1));
+
+        List<Long> contentIds = contentTieringService.findContentsToDemote(100);
+        assertEquals(fileContentRepository.count(), contentIds.size());
+        contentIds.forEach(contentTieringService::demote);
+        assertEquals(0L, jdbcTemplate.queryForObject("SELECT count(*) FROM file_content WHERE content IS NOT NULL", Long.class));
+
+        MvcResult result = download(MockMvcRequestBuilders
+                        .get("/api/files/" + file.getId() + "/download")
+                        .header("Authorization", "Bearer " + token));
+        assertArrayEquals(dummyFile.getInputStream().readAllBytes(), result.getResponse().getContentAsByteArray());
+
+        contentIds.forEach(contentTieringService::promote);
+        assertEquals(0L, jdbcTemplate.queryForObject("SELECT count(*) FROM file_content WHERE cold_segment IS NOT NULL", Long.class));
+    }
+
+    @Test
+    void shouldServeRepeatedDownloadsFromContentCache() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file = createFile("File 1", "Description 1");
+        byte[] expectedContent = dummyFile.getInputStream().readAllBytes();
+
+        MvcResult result = download(MockMvcRequestBuilders
+                        .get("/api/files/" + file.getId() + "/download")
+                        .header("Authorization", "Bearer " + token));
+        assertArrayEquals(expectedContent, result.getResponse().getContentAsByteArray());
+
+        jdbcTemplate.update("UPDATE file_content SET content = ''::bytea");
+
+        result = download(MockMvcRequestBuilders
+                        .get("/api/files/" + file.getId() + "/download")
+                        .header("Authorization", "Bearer " + token));
+        assertArrayEquals(expectedContent, result.getResponse().getContentAsByteArray());
+    }
+
+    @Test
+    void shouldStoreIdenticalUploadsOnceSuccessfully() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file1 = createFile("File 1", "Description 1");
+        FileResponseDTO file2 = createFile("File 2", "Description 2");
+
+        assertEquals(1, fileContentRepository.count());
+
+        byte[] expectedContent = dummyFile.getInputStream().readAllBytes();
+        for (FileResponseDTO file : List.of(file1, file2)) {
+            MvcResult result = download(MockMvcRequestBuilders
+                            .get("/api/files/" + file.getId() + "/download")
+                            .header("Authorization", "Bearer " + token));
+
+            assertArrayEquals(expectedContent, result.getResponse().getContentAsByteArray());
+        }
+
+        token = generateValidToken("anotherUser");
+        createFile("File 1", "Description 1");
+
+        assertEquals(2, fileContentRepository.count());
+    }
+
+    @Test
+    void shouldCreateFileByReferenceWhenContentIsKnown() throws Exception {
+        generateValidToken();
+
+        createFile("File 1", "Description 1");
+
+        byte[] content = dummyFile.getInputStream().readAllBytes();
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+
+        MvcResult result = mvc.perform(MockMvcRequestBuilders
+                        .post("/api/files/negotiate-upload")
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"name\": \"File 2\", \"contentType\": \"application/pdf\", \"fileSize\": " + content.length
+                                + ", \"sha256\": \"" + sha256 + "\"}"))
+                .andExpect(status().isCreated())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.contentKnown").value(Matchers.equalTo(true)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.file.name").value(Matchers.equalTo("File 2")))
+                .andReturn();
+
+        long fileId = OBJECT_MAPPER.readTree(result.getResponse().getContentAsString()).get("file").get("id").asLong();
+
+        MvcResult download = download(MockMvcRequestBuilders
+                        .get("/api/files/" + fileId + "/download")
+                        .header("Authorization", "Bearer " + token));
+
+        assertArrayEquals(content, download.getResponse().getContentAsByteArray());
+        assertEquals(1, fileContentRepository.count());
+    }
+
+    @Test
+    void shouldReturnUploadUrlWhenContentIsUnknown() throws Exception {
+        generateValidToken();
+
+        byte[] content = dummyFile.getInputStream().readAllBytes();
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+
+        mvc.perform(MockMvcRequestBuilders
+                        .post("/api/files/negotiate-upload")
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"name\": \"File 1\", \"fileSize\": " + content.length + ", \"sha256\": \"" + sha256 + "\"}"))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.contentKnown").value(Matchers.equalTo(false)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.uploadUrl").value(Matchers.endsWith("/api/files")));
+
+        assertEquals(0, fileRepository.count());
+    }
+
+    @Test
+    void shouldKeepPreviousVersionsWhenContentIsUpdated() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file = createFile("File 1", "Description 1");
+
+        ClassPathResource updatedFile = new ClassPathResource("dummy2.pdf");
+        MockMultipartFile mockedFile = new MockMultipartFile("file", "File 1 updated", MediaType.APPLICATION_PDF_VALUE, updatedFile.getInputStream());
+        mvc.perform(MockMvcRequestBuilders
+                        .multipart("/api/files/" + file.getId())
+                        .file(mockedFile)
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.MULTIPART_FORM_DATA)
+                        .with(request -> {
+                            request.setMethod("PATCH");
+                            return request;
+                        }))
+                .andExpect(status().isOk());
+
+        mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/" + file.getId() + "/versions")
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.length()").value(Matchers.equalTo(2)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].versionNumber").value(Matchers.equalTo(2)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].name").value(Matchers.equalTo("File 1 updated")))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].versionNumber").value(Matchers.equalTo(1)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].name").value(Matchers.equalTo("File 1")));
+
+        MvcResult firstVersion = download(MockMvcRequestBuilders
+                        .get("/api/files/" + file.getId() + "/versions/1/download")
+                        .header("Authorization", "Bearer " + token));
+        assertArrayEquals(dummyFile.getInputStream().readAllBytes(), firstVersion.getResponse().getContentAsByteArray());
+
+        MvcResult currentVersion = download(MockMvcRequestBuilders
+                        .get("/api/files/" + file.getId() + "/download")
+                        .header("Authorization", "Bearer " + token));
+        assertArrayEquals(updatedFile.getInputStream().readAllBytes(), currentVersion.getResponse().getContentAsByteArray());
+    }
+
+    @Test
+    void shouldFailToDownloadUnknownFileVersion() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file = createFile("File 1", "Description 1");
+
+        mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/" + file.getId() + "/versions/2/download")
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isNotFound())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value(Matchers.equalTo("File version not found")));
+
+        String anotherUserToken = generateValidToken("anotherUser");
+
+        mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/" + file.getId() + "/versions")
+                        .header("Authorization", "Bearer " + anotherUserToken))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldCopyFileWithoutStoringItsContentAgain() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file = createFile("File 1", "Description 1");
+        long storedContents = fileContentRepository.count();
+
+        MvcResult result = mvc.perform(MockMvcRequestBuilders
+                        .post("/api/files/" + file.getId() + "/copy")
+                        .param("name", "File 1 copy")
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isCreated())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.name").value(Matchers.equalTo("File 1 copy")))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value(Matchers.equalTo("Description 1")))
+                .andReturn();
+
+        FileResponseDTO copy = OBJECT_MAPPER.readValue(result.getResponse().getContentAsString(), FileResponseDTO.class);
+        assertEquals(storedContents, fileContentRepository.count());
+
+        mvc.perform(MockMvcRequestBuilders
+                        .delete("/api/files/" + file.getId())
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isNoContent());
+
+        MvcResult download = download(MockMvcRequestBuilders
+                        .get("/api/files/" + copy.getId() + "/download")
+                        .header("Authorization", "Bearer " + token));
+        assertArrayEquals(dummyFile.getInputStream().readAllBytes(), download.getResponse().getContentAsByteArray());
+    }
+
+    @Test
+    void shouldFailToCopyFileOfAnotherUser() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file = createFile("File 1", "Description 1");
+
+        String anotherUserToken = generateValidToken("anotherUser");
+
+        mvc.perform(MockMvcRequestBuilders
+                        .post("/api/files/" + file.getId() + "/copy")
+                        .header("Authorization", "Bearer " + anotherUserToken))
+                .andExpect(status().isNotFound())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value(Matchers.equalTo("File not found")));
+    }
+
+    @Test
+    void shouldAppendAndOverwriteFileContent() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file = createFile("File 1", "Description 1");
+        byte[] content = dummyFile.getInputStream().readAllBytes();
+        byte[] appended = "appended".getBytes();
+
+        mvc.perform(MockMvcRequestBuilders
+                        .multipart("/api/files/" + file.getId() + "/content")
+                        .file(new MockMultipartFile("file", appended))
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.MULTIPART_FORM_DATA)
+                        .with(request -> {
+                            request.setMethod("PATCH");
+                            return request;
+                        }))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.fileSize").value(Matchers.equalTo(content.length + appended.length)));
+
+        byte[] overwritten = "XY".getBytes();
+        mvc.perform(MockMvcRequestBuilders
+                        .multipart("/api/files/" + file.getId() + "/content")
+                        .file(new MockMultipartFile("file", overwritten))
+                        .param("offset", "0")
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.MULTIPART_FORM_DATA)
+                        .with(request -> {
+                            request.setMethod("PATCH");
+                            return request;
+                        }))
+                .andExpect(status().isOk());
+
+        byte[] expected = new byte[content.length + appended.length];
+        System.arraycopy(content, 0, expected, 0, content.length);
+        System.arraycopy(appended, 0, expected, content.length, appended.length);
+        System.arraycopy(overwritten, 0, expected, 0, overwritten.length);
+
+        MvcResult download = download(MockMvcRequestBuilders
+                        .get("/api/files/" + file.getId() + "/download")
+                        .header("Authorization", "Bearer " + token));
+        assertArrayEquals(expected, download.getResponse().getContentAsByteArray());
+    }
+
+    @Test
+    void shouldFailToWriteFileContentPastItsEnd() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file = createFile("File 1", "Description 1");
+
+        mvc.perform(MockMvcRequestBuilders
+                        .multipart("/api/files/" + file.getId() + "/content")
+                        .file(new MockMultipartFile("file", "data".getBytes()))
+                        .param("offset", String.valueOf(Integer.MAX_VALUE))
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.MULTIPART_FORM_DATA)
+                        .with(request -> {
+                            request.setMethod("PATCH");
+                            return request;
+                        }))
+                .andExpect(status().isBadRequest())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value(Matchers.equalTo("Offset must be between 0 and the file size")));
+    }
+
     @Test
     void shouldFailFileDownloadDueFileNotFound() throws Exception {
         generateValidToken();
@@ -457,6 +770,312 @@ public class FileIntegrationTest extends AbstractIntegrationTest {
                 .andExpect(MockMvcResultMatchers.jsonPath("$.message").value(Matchers.equalTo("File not found")));
     }
 
+    @Test
+    void shouldSearchFilesByDescriptionAndNamePrefixSuccessfully() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO invoice = createFile("invoice-2024.pdf", "Quarterly report for accounting");
+        createFile("holiday.pdf", "Photos from the beach");
+
+        mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/search?q=accounting")
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content.length()").value(Matchers.equalTo(1)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[0].id").value(Matchers.equalTo(invoice.getId().intValue())))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.nextCursor").value(Matchers.nullValue()));
+
+        mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/search?q=invo")
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content.length()").value(Matchers.equalTo(1)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[0].name").value(Matchers.equalTo("invoice-2024.pdf")));
+    }
+
+    @Test
+    void shouldSearchFilesWithCursorPagination() throws Exception {
+        generateValidToken();
+
+        createFile("report-1.pdf", "Monthly report");
+        createFile("report-2.pdf", "Monthly report");
+        createFile("report-3.pdf", "Monthly report");
+
+        MvcResult firstPage = mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/search?q=report&size=2")
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content.length()").value(Matchers.equalTo(2)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.nextCursor").value(Matchers.notNullValue()))
+                .andReturn();
+
+        String nextCursor = OBJECT_MAPPER.readTree(firstPage.getResponse().getContentAsString()).get("nextCursor").asText();
+
+        mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/search?q=report&size=2&cursor=" + nextCursor)
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content.length()").value(Matchers.equalTo(1)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.nextCursor").value(Matchers.nullValue()));
+    }
+
+    @Test
+    void shouldNotFindFilesOfAnotherUserWhenSearching() throws Exception {
+        generateValidToken();
+        createFile("secret.pdf", "Confidential contract");
+
+        String anotherUserToken = generateValidToken("anotherUser");
+
+        mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/search?q=contract")
+                        .header("Authorization", "Bearer " + anotherUserToken)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content.length()").value(Matchers.equalTo(0)));
+    }
+
+    @Test
+    void shouldExportAllFilesAsNdjsonSuccessfully() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file1 = createFile("File 1", "Description 1");
+        FileResponseDTO file2 = createFile("File 2", "Description 2");
+
+        MvcResult result = mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/export")
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertEquals(MediaType.APPLICATION_NDJSON_VALUE, result.getResponse().getContentType());
+
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals('{', lines[1].charAt(0));
+        assertEquals(file1.getId().longValue(), OBJECT_MAPPER.readTree(lines[0]).get("id").asLong());
+        assertEquals(file2.getId().longValue(), OBJECT_MAPPER.readTree(lines[1]).get("id").asLong());
+    }
+
+    @Test
+    void shouldExportOnlyFilesModifiedSinceDate() throws Exception {
+        generateValidToken();
+
+        createFile("File 1", "Description 1");
+
+        MvcResult result = mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/export?since=" + LocalDateTime.now().plusDays(1))
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertEquals("", result.getResponse().getContentAsString());
+    }
+
+    @Test
+    void shouldReturnFileChangesAfterCursorSuccessfully() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file1 = createFile("File 1", "Description 1");
+        FileResponseDTO file2 = createFile("File 2", "Description 2");
+
+        mvc.perform(MockMvcRequestBuilders
+                        .delete("/api/files/" + file1.getId())
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isNoContent());
+
+        MvcResult pending = mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/changes?after=1")
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+
+        mvc.perform(MockMvcRequestBuilders.asyncDispatch(pending))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.changes.length()").value(Matchers.equalTo(2)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.changes[0].sequence").value(Matchers.equalTo(2)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.changes[0].fileId").value(Matchers.equalTo(file2.getId().intValue())))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.changes[0].changeType").value(Matchers.equalTo("CREATED")))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.changes[1].fileId").value(Matchers.equalTo(file1.getId().intValue())))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.changes[1].changeType").value(Matchers.equalTo("DELETED")))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.cursor").value(Matchers.equalTo(3)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.hasMore").value(Matchers.equalTo(false)));
+    }
+
+    @Test
+    void shouldWakeUpLongPollingChangesRequestWhenAFileIsCreated() throws Exception {
+        generateValidToken();
+
+        MvcResult pending = mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/changes?after=0&wait=10")
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+
+        FileResponseDTO file = createFile("File 1", "Description 1");
+
+        pending.getAsyncResult(10000);
+
+        mvc.perform(MockMvcRequestBuilders.asyncDispatch(pending))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.changes.length()").value(Matchers.equalTo(1)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.changes[0].fileId").value(Matchers.equalTo(file.getId().intValue())))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.cursor").value(Matchers.equalTo(1)));
+    }
+
+    @Test
+    void shouldBatchGetFilesWithPerItemStatusSuccessfully() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file1 = createFile("File 1", "Description 1");
+        FileResponseDTO file2 = createFile("File 2", "Description 2");
+
+        mvc.perform(MockMvcRequestBuilders
+                        .post("/api/files/batch-get")
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"ids\": [" + file2.getId() + ", " + Integer.MAX_VALUE + ", " + file1.getId() + "]}"))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.length()").value(Matchers.equalTo(3)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].status").value(Matchers.equalTo(200)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].file.name").value(Matchers.equalTo("File 2")))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].id").value(Matchers.equalTo(Integer.MAX_VALUE)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].status").value(Matchers.equalTo(404)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[2].status").value(Matchers.equalTo(200)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[2].file.name").value(Matchers.equalTo("File 1")));
+    }
+
+    @Test
+    void shouldBatchUpdateFilesWithPerItemStatusSuccessfully() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file1 = createFile("File 1", "Description 1");
+        FileResponseDTO file2 = createFile("File 2", "Description 2");
+
+        mvc.perform(MockMvcRequestBuilders
+                        .patch("/api/files/batch")
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"items\": [" +
+                                "{\"id\": " + file1.getId() + ", \"description\": \"New description 1\"}," +
+                                "{\"id\": " + file2.getId() + ", \"name\": \"Renamed 2\"}," +
+                                "{\"id\": " + Integer.MAX_VALUE + ", \"name\": \"Missing\"}]}"))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].status").value(Matchers.equalTo(200)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].file.name").value(Matchers.equalTo("File 1")))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].file.description").value(Matchers.equalTo("New description 1")))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].status").value(Matchers.equalTo(200)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[1].file.name").value(Matchers.equalTo("Renamed 2")))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[2].status").value(Matchers.equalTo(404)));
+
+        mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/" + file2.getId())
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.name").value(Matchers.equalTo("Renamed 2")))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value(Matchers.equalTo("Description 2")));
+    }
+
+    @Test
+    void shouldRestoreADeletedFileSuccessfully() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file = createFile("File 1", "Description 1");
+
+        mvc.perform(MockMvcRequestBuilders
+                        .delete("/api/files/" + file.getId())
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isNoContent());
+
+        mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/" + file.getId())
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isNotFound());
+
+        mvc.perform(MockMvcRequestBuilders
+                        .post("/api/files/" + file.getId() + "/restore")
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.name").value(Matchers.equalTo("File 1")));
+
+        mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/" + file.getId())
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void shouldFailToRestoreAFileThatIsNotDeleted() throws Exception {
+        generateValidToken();
+
+        FileResponseDTO file = createFile("File 1", "Description 1");
+
+        mvc.perform(MockMvcRequestBuilders
+                        .post("/api/files/" + file.getId() + "/restore")
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isNotFound())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value(Matchers.equalTo("File not found")));
+    }
+
+    @Test
+    void shouldBulkDeleteFilesByNamePrefixSuccessfully() throws Exception {
+        generateValidToken();
+
+        createFile("Report January", "Description 1");
+        createFile("report February", "Description 2");
+        FileResponseDTO kept = createFile("Invoice", "Description 3");
+
+        MvcResult mvcResult = mvc.perform(MockMvcRequestBuilders
+                        .post("/api/files/bulk-delete")
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"namePrefix\": \"REPORT\"}"))
+                .andExpect(status().isAccepted())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.totalFiles").value(Matchers.equalTo(2)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.pendingFiles").value(Matchers.equalTo(2)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.completed").value(Matchers.equalTo(false)))
+                .andReturn();
+
+        Long jobId = OBJECT_MAPPER.readTree(mvcResult.getResponse().getContentAsString()).get("id").asLong();
+
+        mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files")
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content.length()").value(Matchers.equalTo(1)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[0].id").value(Matchers.equalTo(kept.getId().intValue())));
+
+        mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/delete-jobs/" + jobId)
+                        .header("Authorization", "Bearer " + token))
+                .andExpect(status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.totalFiles").value(Matchers.equalTo(2)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.pendingFiles").value(Matchers.equalTo(2)));
+
+        String anotherUserToken = generateValidToken("anotherUser");
+
+        mvc.perform(MockMvcRequestBuilders
+                        .get("/api/files/delete-jobs/" + jobId)
+                        .header("Authorization", "Bearer " + anotherUserToken))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldFailToBulkDeleteFilesWithoutCriteria() throws Exception {
+        generateValidToken();
+
+        mvc.perform(MockMvcRequestBuilders
+                        .post("/api/files/bulk-delete")
+                        .header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{}"))
+                .andExpect(status().isBadRequest());
+    }
+
     private FileResponseDTO createFile(String name, String description) throws Exception {
         MockMultipartFile mockedFile = new MockMultipartFile("file", name, MediaType.APPLICATION_PDF_VALUE, dummyFile.getInputStream());
 
@@ -471,4 +1090,14 @@ public class FileIntegrationTest extends AbstractIntegrationTest {
 
         return OBJECT_MAPPER.readValue(mvcResult.getResponse().getContentAsString(), FileResponseDTO.class);
     }
-}
\ No newline at end of file
+
+    private MvcResult download(MockHttpServletRequestBuilder request) throws Exception {
+        MvcResult pending = mvc.perform(request)
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+
+        return mvc.perform(MockMvcRequestBuilders.asyncDispatch(pending))
+                .andExpect(status().isOk())
+                .andReturn();
+    }
+}
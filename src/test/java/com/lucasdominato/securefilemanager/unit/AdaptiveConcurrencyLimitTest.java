@@ -0,0 +1,136 @@
+package com.lucasdominato.securefilemanager.unit;
+
+import com.lucasdominato.securefilemanager.config.AdaptiveConcurrencyLimit;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private static AdaptiveConcurrencyLimit limit(int initialLimit, int queueSize, Duration queueTimeout) {
+        return new AdaptiveConcurrencyLimit(initialLimit, 2, 20, queueSize, queueTimeout, Duration.ZERO, 0.5);
+    }
+
+    @Test
+    void testRequestsOverTheLimitAreRejectedWithoutQueue() throws Exception {
+        AdaptiveConcurrencyLimit limit = limit(2, 0, Duration.ofSeconds(1));
+
+        assertTrue(limit.tryAcquire().isPresent());
+        assertTrue(limit.tryAcquire().isPresent());
+        assertTrue(limit.tryAcquire().isEmpty());
+        assertEquals(2, limit.getInFlight());
+    }
+
+    @Test
+    void testQueuedRequestIsRejectedAfterTheQueueTimeout() throws Exception {
+        AdaptiveConcurrencyLimit limit = limit(2, 10, Duration.ofMillis(50));
+        limit.tryAcquire();
+        limit.tryAcquire();
+
+        assertTrue(limit.tryAcquire().isEmpty());
+        assertEquals(0, limit.getQueued());
+    }
+
+    @Test
+    void testQueuedRequestIsAdmittedOnRelease() throws Exception {
+        AdaptiveConcurrencyLimit limit = limit(2, 10, Duration.ofSeconds(10));
+        AdaptiveConcurrencyLimit.Permit first = limit.tryAcquire().orElseThrow();
+        limit.tryAcquire();
+
+        CompletableFuture<Optional<AdaptiveConcurrencyLimit.Permit>> queued = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limit.tryAcquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (limit.getQueued() == 0) {
+            Thread.onSpinWait();
+        }
+        first.release(false);
+
+        assertTrue(queued.get(5, TimeUnit.SECONDS).isPresent());
+        assertEquals(2, limit.getInFlight());
+    }
+
+    @Test
+    void testLimitGrowsWhileInUse() throws Exception {
+        AdaptiveConcurrencyLimit limit = limit(2, 0, Duration.ZERO);
+
+        // About one more per window: 2 + 1/2 + 1/2.5, then 2.9 + 1/2.9
+        for (int window = 0; window < 2; window++) {
+            List<AdaptiveConcurrencyLimit.Permit> permits = new ArrayList<>();
+            for (int i = 0; i < limit.getLimit(); i++) {
+                permits.add(limit.tryAcquire().orElseThrow());
+            }
+            permits.forEach(permit -> permit.release(false));
+        }
+
+        assertEquals(3, limit.getLimit());
+    }
+
+    @Test
+    void testIdleWindowDoesNotGrowTheLimit() throws Exception {
+        AdaptiveConcurrencyLimit limit = limit(4, 0, Duration.ZERO);
+
+        for (int i = 0; i < 10; i++) {
+            limit.tryAcquire().orElseThrow().release(false);
+        }
+
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    void testFailureCutsTheLimitOncePerWindow() throws Exception {
+        AdaptiveConcurrencyLimit limit = limit(16, 0, Duration.ZERO);
+        AdaptiveConcurrencyLimit.Permit first = limit.tryAcquire().orElseThrow();
+        AdaptiveConcurrencyLimit.Permit second = limit.tryAcquire().orElseThrow();
+
+        first.release(true);
+        second.release(true);
+        assertEquals(8, limit.getLimit());
+
+        limit.tryAcquire().orElseThrow().release(true);
+        limit.tryAcquire().orElseThrow().release(true);
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    void testSlowRequestCutsTheLimit() throws Exception {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(16, 2, 20, 0, Duration.ZERO, Duration.ofNanos(1), 0.5);
+        AdaptiveConcurrencyLimit.Permit permit = limit.tryAcquire().orElseThrow();
+        Thread.sleep(1);
+
+        permit.release(false);
+        assertEquals(8, limit.getLimit());
+    }
+
+    @Test
+    void testReleasingTwiceHasNoEffect() throws Exception {
+        AdaptiveConcurrencyLimit limit = limit(4, 0, Duration.ZERO);
+        AdaptiveConcurrencyLimit.Permit permit = limit.tryAcquire().orElseThrow();
+        limit.tryAcquire();
+
+        permit.release(true);
+        permit.release(true);
+        assertEquals(1, limit.getInFlight());
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    void testInvalidLimitsAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new AdaptiveConcurrencyLimit(1, 2, 20, 0, Duration.ZERO, Duration.ZERO, 0.5));
+        assertThrows(IllegalArgumentException.class,
+                () -> new AdaptiveConcurrencyLimit(4, 2, 20, 0, Duration.ZERO, Duration.ZERO, 1));
+    }
+}
@@ -0,0 +1,163 @@
+package com.lucasdominato.securefilemanager.unit;
+
+import com.lucasdominato.securefilemanager.config.AdaptiveConcurrencyLimit;
+import com.lucasdominato.securefilemanager.config.AdmissionControlFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AdmissionControlFilterTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private AdaptiveConcurrencyLimit uploads;
+    private AdaptiveConcurrencyLimit downloads;
+    private AdaptiveConcurrencyLimit metadata;
+    private AdmissionControlFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        uploads = new AdaptiveConcurrencyLimit(1, 1, 10, 0, Duration.ZERO, Duration.ZERO, 0.9);
+        downloads = new AdaptiveConcurrencyLimit(1, 1, 10, 0, Duration.ZERO, Duration.ZERO, 0.9);
+        metadata = new AdaptiveConcurrencyLimit(1, 1, 10, 0, Duration.ZERO, Duration.ZERO, 0.9);
+        filter = new AdmissionControlFilter(Map.of(
+                AdmissionControlFilter.Budget.UPLOADS, uploads,
+                AdmissionControlFilter.Budget.DOWNLOADS, downloads,
+                AdmissionControlFilter.Budget.METADATA, metadata), Duration.ofSeconds(2), meterRegistry);
+    }
+
+    @Test
+    void testRequestsAreSortedIntoTheirBudget() {
+        MockHttpServletRequest upload = new MockHttpServletRequest("POST", "/api/files");
+        upload.setContentType(MediaType.MULTIPART_FORM_DATA_VALUE + "; boundary=x");
+
+        assertEquals(AdmissionControlFilter.Budget.UPLOADS, AdmissionControlFilter.budgetOf(upload));
+        assertEquals(AdmissionControlFilter.Budget.DOWNLOADS,
+                AdmissionControlFilter.budgetOf(new MockHttpServletRequest("GET", "/api/files/1/versions/2/download")));
+        assertEquals(AdmissionControlFilter.Budget.DOWNLOADS,
+                AdmissionControlFilter.budgetOf(new MockHttpServletRequest("GET", "/api/files/export")));
+        assertEquals(AdmissionControlFilter.Budget.METADATA,
+                AdmissionControlFilter.budgetOf(new MockHttpServletRequest("GET", "/api/files/1")));
+    }
+
+    @Test
+    void testRequestOverTheLimitIsRejectedWithRetryAfter() throws Exception {
+        uploads.tryAcquire();
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/files");
+        request.setContentType(MediaType.MULTIPART_FORM_DATA_VALUE);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request, response, chain);
+
+        assertEquals(503, response.getStatus());
+        assertEquals("2", response.getHeader(HttpHeaders.RETRY_AFTER));
+        assertNull(chain.getRequest());
+        assertEquals(1, meterRegistry.get("securefilemanager.admission.rejected").tag("budget", "uploads").counter().count());
+    }
+
+    @Test
+    void testPermitIsReleasedWhenTheRequestCompletes() throws Exception {
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/files/1"), new MockHttpServletResponse(), new MockFilterChain());
+
+        assertEquals(0, metadata.getInFlight());
+    }
+
+    @Test
+    void testStreamedDownloadHoldsItsPermitUntilComplete() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files/1/download");
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, (req, res) -> req.startAsync(req, res));
+        assertEquals(1, downloads.getInFlight());
+
+        request.getAsyncContext().complete();
+        assertEquals(0, downloads.getInFlight());
+    }
+
+    @Test
+    void testClientAbortDoesNotLowerTheLimit() throws Exception {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 10, 0, Duration.ZERO, Duration.ZERO, 0.5);
+        AdmissionControlFilter abortFilter = filterWithDownloads(limit);
+
+        assertThrows(IOException.class, () -> abortFilter.doFilter(new MockHttpServletRequest("GET", "/api/files/1/download"),
+                new MockHttpServletResponse(), (req, res) -> {
+                    throw new IOException("Connection reset by peer");
+                }));
+
+        assertEquals(0, limit.getInFlight());
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    void testClientAbortOfAStreamedDownloadDoesNotLowerTheLimit() throws Exception {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 10, 0, Duration.ZERO, Duration.ZERO, 0.5);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files/1/download");
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filterWithDownloads(limit).doFilter(request, response, (req, res) -> req.startAsync(req, res));
+        MockAsyncContext asyncContext = (MockAsyncContext) request.getAsyncContext();
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onError(new AsyncEvent(asyncContext, request, response, new ClientAbortException(new IOException("Broken pipe"))));
+        }
+
+        assertEquals(0, limit.getInFlight());
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    void testServerFailureLowersTheLimit() throws Exception {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 1, 10, 0, Duration.ZERO, Duration.ZERO, 0.5);
+        AdmissionControlFilter failingFilter = filterWithDownloads(limit);
+
+        assertThrows(IllegalStateException.class, () -> failingFilter.doFilter(new MockHttpServletRequest("GET", "/api/files/1/download"),
+                new MockHttpServletResponse(), (req, res) -> {
+                    throw new IllegalStateException("Connection pool exhausted");
+                }));
+
+        assertEquals(0, limit.getInFlight());
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    void testChangeFeedIsNotLimited() throws Exception {
+        metadata.tryAcquire();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/files/changes"), response, new MockFilterChain());
+
+        assertEquals(200, response.getStatus());
+    }
+
+    private AdmissionControlFilter filterWithDownloads(AdaptiveConcurrencyLimit downloadLimit) {
+        return new AdmissionControlFilter(Map.of(
+                AdmissionControlFilter.Budget.UPLOADS, uploads,
+                AdmissionControlFilter.Budget.DOWNLOADS, downloadLimit,
+                AdmissionControlFilter.Budget.METADATA, metadata), Duration.ofSeconds(2), new SimpleMeterRegistry());
+    }
+
+    // Stands for the servlet container's exception, matched by its name
+    private static class ClientAbortException extends IOException {
+        ClientAbortException(Throwable cause) {
+            super(cause);
+        }
+    }
+}
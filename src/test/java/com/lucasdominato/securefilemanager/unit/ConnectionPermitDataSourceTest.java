@@ -0,0 +1,88 @@
+package com.lucasdominato.securefilemanager.unit;
+
+import com.lucasdominato.securefilemanager.config.ConnectionPermitDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.pool.HikariPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ConnectionPermitDataSourceTest {
+
+    @Mock
+    private DataSource pool;
+
+    @Mock
+    private Connection connection;
+
+    @Test
+    void testConnectionsBeyondThePermitsTimeOut() throws Exception {
+        when(pool.getConnection()).thenReturn(connection);
+        ConnectionPermitDataSource dataSource = new ConnectionPermitDataSource(pool, 1, Duration.ofMillis(10));
+
+        Connection first = dataSource.getConnection();
+
+        assertThrows(SQLTransientConnectionException.class, dataSource::getConnection);
+        verify(pool, times(1)).getConnection();
+
+        first.close();
+
+        dataSource.getConnection();
+        verify(pool, times(2)).getConnection();
+    }
+
+    @Test
+    void testPermitReleasedOnceWhenConnectionClosedTwice() throws Exception {
+        when(pool.getConnection()).thenReturn(connection);
+        ConnectionPermitDataSource dataSource = new ConnectionPermitDataSource(pool, 2, Duration.ofMillis(10));
+
+        Connection first = dataSource.getConnection();
+        first.close();
+        first.close();
+
+        assertEquals(2, dataSource.getAvailablePermits());
+        verify(connection, times(2)).close();
+    }
+
+    @Test
+    void testPermitReleasedWhenThePoolFails() throws Exception {
+        when(pool.getConnection()).thenThrow(new SQLException("Connection refused"));
+        ConnectionPermitDataSource dataSource = new ConnectionPermitDataSource(pool, 1, Duration.ofMillis(10));
+
+        assertThrows(SQLException.class, dataSource::getConnection);
+
+        assertEquals(1, dataSource.getAvailablePermits());
+    }
+
+    @Test
+    void testHikariPoolWaitsOnlyForTheTimeLeft() throws Exception {
+        HikariDataSource hikariDataSource = mock(HikariDataSource.class);
+        HikariPool hikariPool = mock(HikariPool.class);
+        when(hikariDataSource.getHikariPoolMXBean()).thenReturn(hikariPool);
+        when(hikariPool.getConnection(anyLong())).thenReturn(connection);
+        ConnectionPermitDataSource dataSource = new ConnectionPermitDataSource(hikariDataSource, 1, Duration.ofMillis(500));
+
+        dataSource.getConnection();
+
+        verify(hikariPool).getConnection(longThat(timeout -> timeout <= 500));
+        verify(hikariDataSource, never()).getConnection();
+    }
+}
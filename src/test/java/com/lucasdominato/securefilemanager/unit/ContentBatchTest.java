@@ -0,0 +1,40 @@
+package com.lucasdominato.securefilemanager.unit;
+
+import com.lucasdominato.securefilemanager.service.ContentBatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ContentBatchTest {
+
+    @Test
+    void testSelectWithinBudgetStopsAtTheBudget() {
+        Map<Long, Long> sizesByContentId = new LinkedHashMap<>();
+        sizesByContentId.put(1L, 40L);
+        sizesByContentId.put(2L, 50L);
+        sizesByContentId.put(3L, 20L);
+
+        assertEquals(List.of(1L, 2L), ContentBatch.selectWithinBudget(sizesByContentId, 100));
+    }
+
+    @Test
+    void testSelectWithinBudgetAlwaysTakesTheFirstContent() {
+        Map<Long, Long> sizesByContentId = new LinkedHashMap<>();
+        sizesByContentId.put(1L, 500L);
+        sizesByContentId.put(2L, 10L);
+
+        assertEquals(List.of(1L), ContentBatch.selectWithinBudget(sizesByContentId, 100));
+    }
+
+    @Test
+    void testSubmitKeepsTheContentOrder() {
+        List<CompletableFuture<Long>> results = ContentBatch.submit(List.of(3L, 1L, 2L), contentId -> contentId * 10, Runnable::run);
+
+        assertEquals(List.of(30L, 10L, 20L), results.stream().map(CompletableFuture::join).toList());
+    }
+}
@@ -0,0 +1,65 @@
+package com.lucasdominato.securefilemanager.unit;
+
+import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
+import com.lucasdominato.securefilemanager.service.ContentBloomFilter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ContentBloomFilterTest {
+
+    @Mock
+    private FileJdbcRepository fileJdbcRepository;
+
+    private ContentBloomFilter contentBloomFilter;
+
+    private final Random random = new Random(42);
+
+    @BeforeEach
+    void setUp() {
+        contentBloomFilter = new ContentBloomFilter(fileJdbcRepository, 1000, 0.01);
+    }
+
+    @Test
+    void testMightContainBeforeLoad() {
+        assertTrue(contentBloomFilter.mightContain(randomFingerprint()));
+    }
+
+    @Test
+    void testRefreshLoadsStoredFingerprints() {
+        byte[] storedFingerprint = randomFingerprint();
+        when(fileJdbcRepository.findFingerprintsAfter(0L, 10_000)).thenReturn(Map.of(1L, storedFingerprint));
+
+        contentBloomFilter.refresh();
+
+        assertTrue(contentBloomFilter.mightContain(storedFingerprint));
+        assertFalse(contentBloomFilter.mightContain(randomFingerprint()));
+    }
+
+    @Test
+    void testPutAfterLoad() {
+        when(fileJdbcRepository.findFingerprintsAfter(0L, 10_000)).thenReturn(Map.of());
+        contentBloomFilter.refresh();
+
+        byte[] fingerprint = randomFingerprint();
+        contentBloomFilter.put(fingerprint);
+
+        assertTrue(contentBloomFilter.mightContain(fingerprint));
+    }
+
+    private byte[] randomFingerprint() {
+        byte[] fingerprint = new byte[32];
+        random.nextBytes(fingerprint);
+        return fingerprint;
+    }
+}
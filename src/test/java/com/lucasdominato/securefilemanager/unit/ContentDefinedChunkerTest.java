@@ -0,0 +1,88 @@
+package com.lucasdominato.securefilemanager.unit;
+
+import com.lucasdominato.securefilemanager.service.ContentDefinedChunker;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentDefinedChunkerTest {
+
+    private static final int MIN_SIZE = 2048;
+    private static final int AVG_SIZE = 8192;
+    private static final int MAX_SIZE = 32768;
+
+    @Test
+    void testChunksRebuildTheContent() throws IOException {
+        byte[] content = randomContent(1_000_000);
+
+        List<byte[]> chunks = chunk(content);
+
+        ByteArrayOutputStream rebuilt = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] chunk = chunks.get(i);
+            assertTrue(chunk.length <= MAX_SIZE);
+            if (i < chunks.size() - 1) {
+                assertTrue(chunk.length >= MIN_SIZE);
+            }
+            rebuilt.write(chunk);
+        }
+        assertArrayEquals(content, rebuilt.toByteArray());
+    }
+
+    @Test
+    void testEmptyContentHasNoChunk() throws IOException {
+        assertTrue(chunk(new byte[0]).isEmpty());
+    }
+
+    @Test
+    void testAnInsertedByteOnlyChangesTheChunksAroundIt() throws IOException {
+        byte[] content = randomContent(1_000_000);
+        byte[] edited = new byte[content.length + 1];
+        System.arraycopy(content, 0, edited, 0, 500_000);
+        edited[500_000] = 42;
+        System.arraycopy(content, 500_000, edited, 500_001, content.length - 500_000);
+
+        Set<ByteBuffer> originalChunks = new HashSet<>();
+        for (byte[] chunk : chunk(content)) {
+            originalChunks.add(ByteBuffer.wrap(chunk));
+        }
+
+        List<byte[]> editedChunks = chunk(edited);
+        long changedChunks = editedChunks.stream().filter(chunk -> !originalChunks.contains(ByteBuffer.wrap(chunk))).count();
+
+        assertTrue(changedChunks <= 3, "changed chunks: " + changedChunks);
+    }
+
+    @Test
+    void testInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new ContentDefinedChunker(new ByteArrayInputStream(new byte[0]), 0, 1, 2));
+        assertThrows(IllegalArgumentException.class, () -> new ContentDefinedChunker(new ByteArrayInputStream(new byte[0]), 4, 2, 8));
+    }
+
+    private List<byte[]> chunk(byte[] content) throws IOException {
+        ContentDefinedChunker chunker = new ContentDefinedChunker(new ByteArrayInputStream(content), MIN_SIZE, AVG_SIZE, MAX_SIZE);
+
+        List<byte[]> chunks = new ArrayList<>();
+        byte[] chunk;
+        while ((chunk = chunker.nextChunk()) != null) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random(7).nextBytes(content);
+        return content;
+    }
+}
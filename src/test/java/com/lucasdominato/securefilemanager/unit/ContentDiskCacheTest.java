@@ -0,0 +1,99 @@
+package com.lucasdominato.securefilemanager.unit;
+
+import com.lucasdominato.securefilemanager.data.repository.ContentDiskCache;
+import com.lucasdominato.securefilemanager.data.repository.EncryptedFileContent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ContentDiskCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private ContentDiskCache contentDiskCache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        contentDiskCache = new ContentDiskCache(new SimpleMeterRegistry(), true, directory.toString(), 1024, 256);
+    }
+
+    @Test
+    void testPutThenGetReadsTheCachedCiphertext() throws IOException {
+        byte[] ciphertext = {1, 2, 3};
+
+        EncryptedFileContent content = contentDiskCache.put(1L, new EncryptedFileContent(2, new ByteArrayInputStream(ciphertext)));
+        assertArrayEquals(ciphertext, content.getContent().readAllBytes());
+
+        Optional<EncryptedFileContent> cachedContent = contentDiskCache.get(1L, 2);
+        assertTrue(cachedContent.isPresent());
+        assertEquals(2, cachedContent.get().getKeyVersion());
+        try (InputStream inputStream = cachedContent.get().getContent()) {
+            assertArrayEquals(ciphertext, inputStream.readAllBytes());
+        }
+    }
+
+    @Test
+    void testGetMissesAnotherKeyVersion() throws IOException {
+        contentDiskCache.put(1L, new EncryptedFileContent(1, new ByteArrayInputStream(new byte[]{1})));
+
+        assertTrue(contentDiskCache.get(1L, 2).isEmpty());
+    }
+
+    @Test
+    void testInvalidateDeletesTheCachedFile() throws IOException {
+        contentDiskCache.put(1L, new EncryptedFileContent(1, new ByteArrayInputStream(new byte[]{1})));
+
+        contentDiskCache.invalidate(List.of(1L));
+
+        assertTrue(contentDiskCache.get(1L, 1).isEmpty());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testPutDoesNotCacheContentLargerThanMaxEntrySize() throws IOException {
+        byte[] ciphertext = new byte[257];
+
+        EncryptedFileContent content = contentDiskCache.put(1L, new EncryptedFileContent(1, new ByteArrayInputStream(ciphertext)));
+
+        assertArrayEquals(ciphertext, content.getContent().readAllBytes());
+        assertTrue(contentDiskCache.get(1L, 1).isEmpty());
+    }
+
+    @Test
+    void testStartupDeletesTheEntriesOfThePreviousRun() throws IOException {
+        contentDiskCache.put(1L, new EncryptedFileContent(1, new ByteArrayInputStream(new byte[]{1})));
+
+        new ContentDiskCache(new SimpleMeterRegistry(), true, directory.toString(), 1024, 256);
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testStartupRefusesADirectoryHoldingOtherFiles() throws IOException {
+        Path segment = Files.write(directory.resolve("segment-1.dat"), new byte[]{1});
+
+        assertThrows(IllegalStateException.class,
+                () -> new ContentDiskCache(new SimpleMeterRegistry(), true, directory.toString(), 1024, 256));
+        assertTrue(Files.exists(segment));
+    }
+}
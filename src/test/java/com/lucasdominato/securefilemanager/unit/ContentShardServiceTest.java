@@ -0,0 +1,173 @@
+package com.lucasdominato.securefilemanager.unit;
+
+import com.lucasdominato.securefilemanager.data.repository.ContentShardStore;
+import com.lucasdominato.securefilemanager.data.repository.EncryptedFileContent;
+import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
+import com.lucasdominato.securefilemanager.data.repository.UserRepository;
+import com.lucasdominato.securefilemanager.service.ContentShardService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ContentShardServiceTest {
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private FileJdbcRepository fileJdbcRepository;
+
+    @Mock
+    private ContentShardStore contentShardStore;
+
+    private ContentShardService contentShardService() {
+        return new ContentShardService(userRepository, fileJdbcRepository, contentShardStore, Duration.ofHours(1), Duration.ofMinutes(1));
+    }
+
+    @Test
+    void testContentsStayOnThePrimaryWithoutShards() {
+        when(contentShardStore.getShards()).thenReturn(Set.of());
+
+        assertEquals(ContentShardStore.PRIMARY_SHARD, contentShardService().resolveShard(7L));
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    void testShardIsDerivedFromTheUserIdAndRecorded() {
+        when(contentShardStore.getShards()).thenReturn(Set.of(1, 2, 3));
+        when(userRepository.findContentShard(7L)).thenReturn(Optional.empty());
+        when(userRepository.placeContentShard(7L, 2)).thenReturn(1);
+
+        assertEquals(2, contentShardService().resolveShard(7L));
+        verify(userRepository).placeContentShard(7L, 2);
+    }
+
+    @Test
+    void testPlacedUserStaysOnItsShardWhenShardsAreAppended() {
+        when(contentShardStore.getShards()).thenReturn(Set.of(1, 2, 3, 4));
+        when(contentShardStore.contains(2)).thenReturn(true);
+        when(userRepository.findContentShard(7L)).thenReturn(Optional.of(2));
+
+        assertEquals(2, contentShardService().resolveShard(7L));
+        verify(userRepository, never()).placeContentShard(any(), anyInt());
+    }
+
+    @Test
+    void testUserPlacedConcurrentlyKeepsTheRecordedShard() {
+        when(contentShardStore.getShards()).thenReturn(Set.of(1, 2, 3));
+        when(contentShardStore.contains(3)).thenReturn(true);
+        when(userRepository.findContentShard(7L)).thenReturn(Optional.empty(), Optional.of(3));
+        when(userRepository.placeContentShard(7L, 2)).thenReturn(0);
+
+        assertEquals(3, contentShardService().resolveShard(7L));
+    }
+
+    @Test
+    void testPlacementIsCached() {
+        when(contentShardStore.getShards()).thenReturn(Set.of(1, 2, 3));
+        when(contentShardStore.contains(3)).thenReturn(true);
+        when(userRepository.findContentShard(7L)).thenReturn(Optional.of(3));
+        ContentShardService contentShardService = contentShardService();
+
+        contentShardService.resolveShard(7L);
+        contentShardService.resolveShard(7L);
+
+        verify(userRepository, times(1)).findContentShard(7L);
+    }
+
+    @Test
+    void testMovedUserKeepsItsShard() {
+        when(contentShardStore.getShards()).thenReturn(Set.of(1, 2, 3));
+        when(contentShardStore.contains(3)).thenReturn(true);
+        when(userRepository.findContentShard(7L)).thenReturn(Optional.of(3));
+
+        assertEquals(3, contentShardService().resolveShard(7L));
+    }
+
+    @Test
+    void testAssigningUnknownShardIsRejected() {
+        when(contentShardStore.contains(4)).thenReturn(false);
+
+        assertThrows(IllegalArgumentException.class, () -> contentShardService().assignShard("user", 4));
+        verify(userRepository, never()).updateContentShard(any(), anyInt());
+        verify(userRepository, never()).findByUsername(anyString());
+    }
+
+    @Test
+    void testMoveSkipsContentLockedOrAlreadyMoved() {
+        when(fileJdbcRepository.lockContentToMove(1L, 2)).thenReturn(Optional.empty());
+
+        assertFalse(contentShardService().moveContent(1L, 2));
+        verify(fileJdbcRepository, never()).moveContentToShard(any(), anyInt(), any());
+    }
+
+    @Test
+    void testMoveCopiesTheContentToTheShard() {
+        EncryptedFileContent content = new EncryptedFileContent(1, new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        when(fileJdbcRepository.lockContentToMove(1L, 2)).thenReturn(Optional.of(content));
+
+        assertTrue(contentShardService().moveContent(1L, 2));
+        verify(fileJdbcRepository).moveContentToShard(1L, 2, content);
+    }
+
+    @Test
+    void testOnlyContentsNoRowPointsAtAreDeleted() {
+        when(fileJdbcRepository.findContentIdsOnShard(List.of(1L, 2L, 3L), 1)).thenReturn(List.of(1L, 3L));
+        when(contentShardStore.deleteOrphans(1, List.of(2L), Duration.ofHours(1))).thenReturn(1);
+
+        assertEquals(1, contentShardService().deleteOrphans(1, List.of(1L, 2L, 3L)));
+    }
+
+    @Test
+    void testOrphansAreMarkedAfterTheDeletionSoTheGraceRunsFromTheMark() {
+        when(fileJdbcRepository.findContentIdsOnShard(List.of(1L, 2L), 1)).thenReturn(List.of());
+
+        contentShardService().deleteOrphans(1, List.of(1L, 2L));
+
+        InOrder inOrder = inOrder(contentShardStore);
+        inOrder.verify(contentShardStore).deleteOrphans(1, List.of(1L, 2L), Duration.ofHours(1));
+        inOrder.verify(contentShardStore).markOrphans(1, List.of(1L, 2L));
+    }
+
+    @Test
+    void testReferencedContentsLoseTheirOrphanMark() {
+        when(fileJdbcRepository.findContentIdsOnShard(List.of(1L, 2L), 1)).thenReturn(List.of(2L));
+
+        contentShardService().deleteOrphans(1, List.of(1L, 2L));
+
+        verify(contentShardStore).clearOrphans(1, List.of(2L));
+        verify(contentShardStore).markOrphans(1, List.of(1L));
+    }
+
+    @Test
+    void testNothingIsDeletedWhenEveryContentIsReferenced() {
+        when(fileJdbcRepository.findContentIdsOnShard(List.of(1L, 2L), 1)).thenReturn(List.of(1L, 2L));
+
+        assertEquals(0, contentShardService().deleteOrphans(1, List.of(1L, 2L)));
+        verify(contentShardStore, never()).deleteOrphans(anyInt(), any(), any());
+        verify(contentShardStore, never()).markOrphans(anyInt(), any());
+    }
+}
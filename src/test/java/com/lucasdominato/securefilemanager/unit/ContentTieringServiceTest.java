@@ -0,0 +1,116 @@
+package com.lucasdominato.securefilemanager.unit;
+
+import com.lucasdominato.securefilemanager.data.repository.ColdSegmentLocation;
+import com.lucasdominato.securefilemanager.data.repository.ColdSegmentStore;
+import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
+import com.lucasdominato.securefilemanager.service.ContentTieringService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ContentTieringServiceTest {
+
+    @Mock
+    private FileJdbcRepository fileJdbcRepository;
+
+    @TempDir
+    Path directory;
+
+    private ColdSegmentStore coldSegmentStore;
+
+    private ContentTieringService contentTieringService;
+
+    @BeforeEach
+    void setUp() {
+        coldSegmentStore = new ColdSegmentStore(directory.toString(), 16);
+        contentTieringService = new ContentTieringService(fileJdbcRepository, coldSegmentStore, Duration.ofDays(30), 1);
+    }
+
+    @Test
+    void testDemoteAppendsToSegmentBeforeMovingTheRow() throws IOException {
+        byte[] content = {1, 2, 3, 4, 5};
+        when(fileJdbcRepository.lockContentToDemote(eq(1L), any(LocalDateTime.class))).thenReturn(Optional.of(content));
+
+        assertEquals(5, contentTieringService.demote(1L));
+
+        ArgumentCaptor<ColdSegmentLocation> location = ArgumentCaptor.forClass(ColdSegmentLocation.class);
+        verify(fileJdbcRepository).moveContentToCold(eq(1L), location.capture());
+        assertEquals(0, location.getValue().getOffset());
+        assertEquals(5, location.getValue().getLength());
+        try (InputStream inputStream = coldSegmentStore.read(location.getValue())) {
+            assertArrayEquals(content, inputStream.readAllBytes());
+        }
+    }
+
+    @Test
+    void testDemoteSkipsContentNoLongerEligible() {
+        when(fileJdbcRepository.lockContentToDemote(eq(1L), any(LocalDateTime.class))).thenReturn(Optional.empty());
+
+        assertEquals(0, contentTieringService.demote(1L));
+
+        verify(fileJdbcRepository, never()).moveContentToCold(any(), any());
+    }
+
+    @Test
+    void testSegmentRollsOverOnceFull() throws IOException {
+        ColdSegmentLocation first = coldSegmentStore.append(new ByteArrayInputStream(new byte[12]));
+        ColdSegmentLocation second = coldSegmentStore.append(new ByteArrayInputStream(new byte[12]));
+        ColdSegmentLocation third = coldSegmentStore.append(new ByteArrayInputStream(new byte[12]));
+
+        assertEquals(first.getSegment(), second.getSegment());
+        assertEquals(12, second.getOffset());
+        assertNotEquals(second.getSegment(), third.getSegment());
+        assertEquals(0, third.getOffset());
+    }
+
+    @Test
+    void testPromoteMovesSegmentBytesToTheRow() throws IOException {
+        byte[] content = {9, 8, 7};
+        ColdSegmentLocation location = coldSegmentStore.append(new ByteArrayInputStream(content));
+        when(fileJdbcRepository.lockContentToPromote(1L)).thenReturn(Optional.of(location));
+
+        assertEquals(3, contentTieringService.promote(1L));
+
+        ArgumentCaptor<InputStream> inputStream = ArgumentCaptor.forClass(InputStream.class);
+        verify(fileJdbcRepository).moveContentToHot(eq(1L), inputStream.capture());
+        assertArrayEquals(content, inputStream.getValue().readAllBytes());
+    }
+
+    @Test
+    void testFindUnreferencedSegmentsOnlyReturnsSealedUnreferencedOnes() throws IOException {
+        ColdSegmentLocation location = coldSegmentStore.append(new ByteArrayInputStream(new byte[4]));
+        directory.resolve(location.getSegment()).toFile().setLastModified(Instant.now().minus(Duration.ofDays(1)).toEpochMilli());
+        when(fileJdbcRepository.isColdSegmentReferenced(location.getSegment())).thenReturn(false);
+
+        assertEquals(List.of(location.getSegment()), contentTieringService.findUnreferencedSegments());
+
+        when(fileJdbcRepository.isColdSegmentReferenced(location.getSegment())).thenReturn(true);
+
+        assertTrue(contentTieringService.findUnreferencedSegments().isEmpty());
+    }
+}
@@ -0,0 +1,214 @@
+package com.lucasdominato.securefilemanager.unit;
+
+import com.lucasdominato.securefilemanager.data.repository.FileVersionJdbcRepository;
+import com.lucasdominato.securefilemanager.service.DownloadCoalescer;
+import com.lucasdominato.securefilemanager.service.FileVersionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class DownloadCoalescerTest {
+
+    private static final Long USER_ID = 10L;
+    private static final List<Long> CONTENT_IDS = List.of(1L, 2L, 3L);
+    private static final byte[][] CHUNKS = {{1, 1, 1, 1}, {2, 2, 2, 2}, {3, 3, 3, 3}};
+    private static final byte[] CONTENT = {1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3};
+
+    @Mock
+    private FileVersionService fileVersionService;
+
+    @Mock
+    private FileVersionJdbcRepository fileVersionJdbcRepository;
+
+    @Test
+    void testDownloadWritesEveryChunk() throws Exception {
+        DownloadCoalescer downloadCoalescer = newDownloadCoalescer(new SimpleAsyncTaskExecutor(), 1024);
+        when(fileVersionJdbcRepository.findUserId(7L)).thenReturn(Optional.of(USER_ID));
+        when(fileVersionJdbcRepository.findChunkContentIds(7L)).thenReturn(CONTENT_IDS);
+        stubReadChunks(null);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        downloadCoalescer.download(7L, outputStream);
+
+        assertArrayEquals(CONTENT, outputStream.toByteArray());
+    }
+
+    @Test
+    void testConcurrentDownloadsShareOneFetch() throws Exception {
+        List<Runnable> fetches = new ArrayList<>();
+        DownloadCoalescer downloadCoalescer = newDownloadCoalescer(fetches::add, 1024);
+        when(fileVersionJdbcRepository.findUserId(7L)).thenReturn(Optional.of(USER_ID));
+        when(fileVersionJdbcRepository.findChunkContentIds(7L)).thenReturn(CONTENT_IDS);
+        stubReadChunks(null);
+
+        ByteArrayOutputStream firstOutputStream = new ByteArrayOutputStream();
+        Thread first = startDownload(downloadCoalescer, firstOutputStream);
+        awaitWaiting(first);
+        ByteArrayOutputStream secondOutputStream = new ByteArrayOutputStream();
+        Thread second = startDownload(downloadCoalescer, secondOutputStream);
+        awaitWaiting(second);
+
+        assertEquals(1, fetches.size());
+        fetches.get(0).run();
+        first.join(5000);
+        second.join(5000);
+
+        assertArrayEquals(CONTENT, firstOutputStream.toByteArray());
+        assertArrayEquals(CONTENT, secondOutputStream.toByteArray());
+        verify(fileVersionJdbcRepository, times(1)).findChunkContentIds(7L);
+        verify(fileVersionService, times(1)).readChunks(eq(USER_ID), eq(CONTENT_IDS), any());
+    }
+
+    @Test
+    void testChunksWrittenByEveryReaderAreNotKept() throws Exception {
+        DownloadCoalescer downloadCoalescer = newDownloadCoalescer(new SimpleAsyncTaskExecutor(), 1024);
+        when(fileVersionJdbcRepository.findUserId(7L)).thenReturn(Optional.of(USER_ID));
+        when(fileVersionJdbcRepository.findChunkContentIds(7L)).thenReturn(CONTENT_IDS);
+        CountDownLatch firstChunkFetched = new CountDownLatch(1);
+        CountDownLatch releaseFetches = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            FileVersionService.ChunkConsumer consumer = invocation.getArgument(2);
+            for (int i = 0; i < CHUNKS.length; i++) {
+                if (!consumer.accept(CHUNKS[i])) {
+                    return null;
+                }
+                if (i == 0) {
+                    firstChunkFetched.countDown();
+                    releaseFetches.await();
+                }
+            }
+            return null;
+        }).when(fileVersionService).readChunks(eq(USER_ID), eq(CONTENT_IDS), any());
+
+        ByteArrayOutputStream firstOutputStream = new ByteArrayOutputStream();
+        Thread first = startDownload(downloadCoalescer, firstOutputStream);
+        assertTrue(firstChunkFetched.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (firstOutputStream.size() < CHUNKS[0].length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        awaitWaiting(first);
+
+        // the first chunk is gone, so this download can't join and fetches the version on its own
+        ByteArrayOutputStream secondOutputStream = new ByteArrayOutputStream();
+        Thread second = startDownload(downloadCoalescer, secondOutputStream);
+        releaseFetches.countDown();
+        first.join(5000);
+        second.join(5000);
+
+        assertArrayEquals(CONTENT, firstOutputStream.toByteArray());
+        assertArrayEquals(CONTENT, secondOutputStream.toByteArray());
+        verify(fileVersionService, times(2)).readChunks(eq(USER_ID), eq(CONTENT_IDS), any());
+    }
+
+    @Test
+    void testSlowDownloadIsDetachedInsteadOfStallingTheOthers() throws Exception {
+        DownloadCoalescer downloadCoalescer = newDownloadCoalescer(new SimpleAsyncTaskExecutor(), 4);
+        when(fileVersionJdbcRepository.findUserId(7L)).thenReturn(Optional.of(USER_ID));
+        when(fileVersionJdbcRepository.findChunkContentIds(7L)).thenReturn(CONTENT_IDS);
+        CountDownLatch slowWriting = new CountDownLatch(1);
+        CountDownLatch releaseSlow = new CountDownLatch(1);
+        stubReadChunks(slowWriting);
+        doAnswer(invocation -> {
+            List<Long> contentIds = invocation.getArgument(1);
+            OutputStream outputStream = invocation.getArgument(2);
+            for (Long contentId : contentIds) {
+                outputStream.write(CHUNKS[contentId.intValue() - 1]);
+            }
+            return null;
+        }).when(fileVersionService).writeContent(any(), any(), any());
+
+        ByteArrayOutputStream slowOutputStream = new ByteArrayOutputStream() {
+            @Override
+            public void write(byte[] bytes) throws IOException {
+                if (size() == 0) {
+                    slowWriting.countDown();
+                    try {
+                        releaseSlow.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                super.write(bytes);
+            }
+        };
+        Thread slow = startDownload(downloadCoalescer, slowOutputStream);
+        assertTrue(slowWriting.await(5, TimeUnit.SECONDS));
+
+        ByteArrayOutputStream fastOutputStream = new ByteArrayOutputStream();
+        Thread fast = startDownload(downloadCoalescer, fastOutputStream);
+        fast.join(5000);
+        assertArrayEquals(CONTENT, fastOutputStream.toByteArray());
+
+        releaseSlow.countDown();
+        slow.join(5000);
+        assertArrayEquals(CONTENT, slowOutputStream.toByteArray());
+        verify(fileVersionService).writeContent(USER_ID, List.of(2L, 3L), slowOutputStream);
+    }
+
+    private DownloadCoalescer newDownloadCoalescer(final TaskExecutor executor, final long maxBufferSize) {
+        return new DownloadCoalescer(fileVersionService, fileVersionJdbcRepository, executor, new SimpleMeterRegistry(), maxBufferSize);
+    }
+
+    /**
+     * Publishes the chunks, after the first one waiting for the given latch if any.
+     */
+    private void stubReadChunks(final CountDownLatch afterFirstChunk) throws Exception {
+        doAnswer(invocation -> {
+            FileVersionService.ChunkConsumer consumer = invocation.getArgument(2);
+            for (int i = 0; i < CHUNKS.length; i++) {
+                if (!consumer.accept(CHUNKS[i])) {
+                    return null;
+                }
+                if (i == 0 && afterFirstChunk != null) {
+                    afterFirstChunk.await();
+                }
+            }
+            return null;
+        }).when(fileVersionService).readChunks(eq(USER_ID), eq(CONTENT_IDS), any());
+    }
+
+    private Thread startDownload(final DownloadCoalescer downloadCoalescer, final OutputStream outputStream) {
+        Thread thread = new Thread(() -> {
+            try {
+                downloadCoalescer.download(7L, outputStream);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void awaitWaiting(final Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
+}
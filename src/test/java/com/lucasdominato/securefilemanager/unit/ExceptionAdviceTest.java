@@ -0,0 +1,72 @@
+package com.lucasdominato.securefilemanager.unit;
+
+import com.lucasdominato.securefilemanager.dto.error.ErrorResponse;
+import com.lucasdominato.securefilemanager.exception.ExceptionAdvice;
+import com.lucasdominato.securefilemanager.exception.FileProcessingException;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ExceptionAdviceTest {
+
+    @Test
+    void testRefusedDownloadDropsItsAttachmentHeaders() throws NoSuchMethodException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"file.pdf\"");
+
+        ResponseEntity<ErrorResponse> responseEntity = new ExceptionAdvice(Duration.ofSeconds(2))
+                .handleStreamingUnavailable(new TaskRejectedException("Executor saturated"), response, handlerMethod("download"));
+
+        assertNull(response.getHeader(HttpHeaders.CONTENT_DISPOSITION));
+        assertEquals(503, responseEntity.getStatusCode().value());
+        assertEquals("2", responseEntity.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals("Too many downloads in progress, please try again later.", responseEntity.getBody().getMessage());
+    }
+
+    @Test
+    void testRejectedTaskOutsideOfADownloadIsNotReportedAsDownloads() throws NoSuchMethodException {
+        ResponseEntity<ErrorResponse> responseEntity = new ExceptionAdvice(Duration.ofSeconds(2))
+                .handleStreamingUnavailable(new TaskRejectedException("Executor saturated"), new MockHttpServletResponse(),
+                        handlerMethod("list"));
+
+        assertEquals(503, responseEntity.getStatusCode().value());
+        assertEquals("The service is busy, please try again later.", responseEntity.getBody().getMessage());
+    }
+
+    @Test
+    void testClientClosingTheConnectionGetsNoErrorResponse() {
+        ExceptionAdvice exceptionAdvice = new ExceptionAdvice(Duration.ofSeconds(2));
+
+        assertNull(exceptionAdvice.handleFileProcessingException(
+                new FileProcessingException("Failed to process file stream", new IOException("Broken pipe"))));
+        assertEquals(500, exceptionAdvice.handleFileProcessingException(
+                new FileProcessingException("Failed to process file stream", new IOException("No space left on device")))
+                .getStatusCode().value());
+    }
+
+    private HandlerMethod handlerMethod(String name) throws NoSuchMethodException {
+        return new HandlerMethod(new TestController(), TestController.class.getMethod(name));
+    }
+
+    public static class TestController {
+
+        public ResponseEntity<StreamingResponseBody> download() {
+            return ResponseEntity.ok(outputStream -> {
+            });
+        }
+
+        public ResponseEntity<String> list() {
+            return ResponseEntity.ok("");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.lucasdominato.securefilemanager.unit;
+
+import com.lucasdominato.securefilemanager.data.entity.FileChange;
+import com.lucasdominato.securefilemanager.data.entity.FileChangeType;
+import com.lucasdominato.securefilemanager.data.repository.FileChangeRepository;
+import com.lucasdominato.securefilemanager.data.repository.UserRepository;
+import com.lucasdominato.securefilemanager.dto.response.FileChangeDTO;
+import com.lucasdominato.securefilemanager.dto.response.FileChangesDTO;
+import com.lucasdominato.securefilemanager.service.FileChangeLogService;
+import com.lucasdominato.securefilemanager.service.FileChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class FileChangeLogServiceTest {
+
+    @Mock
+    private FileChangeRepository fileChangeRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private FileChangeLogService fileChangeLogService;
+
+    @BeforeEach
+    void setUp() {
+        fileChangeLogService = new FileChangeLogService(fileChangeRepository, userRepository, eventPublisher, 2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void recordChanges_shouldAssignConsecutiveSequenceNumbers() {
+        when(userRepository.findLastChangeSequence(1L)).thenReturn(7L);
+
+        fileChangeLogService.recordChanges(1L, "username", FileChangeType.UPDATED, List.of(100L, 200L, 300L));
+
+        verify(userRepository).incrementLastChangeSequence(1L, 3);
+
+        ArgumentCaptor<List<FileChange>> captor = ArgumentCaptor.forClass(List.class);
+        verify(fileChangeRepository).saveAll(captor.capture());
+
+        List<FileChange> changes = captor.getValue();
+        assertEquals(3, changes.size());
+        assertEquals(5L, changes.get(0).getSequenceNumber());
+        assertEquals(6L, changes.get(1).getSequenceNumber());
+        assertEquals(7L, changes.get(2).getSequenceNumber());
+        assertEquals(300L, changes.get(2).getFileId());
+        verify(eventPublisher).publishEvent(any(FileChangedEvent.class));
+    }
+
+    @Test
+    void recordChanges_shouldDoNothing_whenThereAreNoFiles() {
+        fileChangeLogService.recordChanges(1L, "username", FileChangeType.DELETED, List.of());
+
+        verifyNoInteractions(userRepository, fileChangeRepository, eventPublisher);
+    }
+
+    @Test
+    void getChangesAfter_shouldReturnCursorOfLastChangeAndHasMore() {
+        LocalDateTime now = LocalDateTime.now();
+        when(fileChangeRepository.findChangesAfter("username", 4L, PageRequest.of(0, 3))).thenReturn(List.of(
+                new FileChangeDTO(5L, 100L, FileChangeType.CREATED, now),
+                new FileChangeDTO(6L, 101L, FileChangeType.UPDATED, now),
+                new FileChangeDTO(7L, 102L, FileChangeType.DELETED, now)
+        ));
+
+        FileChangesDTO result = fileChangeLogService.getChangesAfter("username", 4L, 10);
+
+        assertEquals(2, result.getChanges().size());
+        assertEquals(6L, result.getCursor());
+        assertTrue(result.isHasMore());
+    }
+
+    @Test
+    void getChangesAfter_shouldKeepCursor_whenThereAreNoChanges() {
+        when(fileChangeRepository.findChangesAfter("username", 4L, PageRequest.of(0, 3))).thenReturn(List.of());
+
+        FileChangesDTO result = fileChangeLogService.getChangesAfter("username", 4L, 10);
+
+        assertTrue(result.getChanges().isEmpty());
+        assertEquals(4L, result.getCursor());
+        assertFalse(result.isHasMore());
+    }
+}
@@ -1,18 +1,22 @@
 package com.lucasdominato.securefilemanager.unit;
 
 import com.lucasdominato.securefilemanager.data.entity.File;
+import com.lucasdominato.securefilemanager.data.entity.FileChangeType;
 import com.lucasdominato.securefilemanager.data.entity.User;
-import com.lucasdominato.securefilemanager.data.repository.FileContentRepository;
-import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
 import com.lucasdominato.securefilemanager.data.repository.FileRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileVersionJdbcRepository;
 import com.lucasdominato.securefilemanager.dto.UserDTO;
 import com.lucasdominato.securefilemanager.dto.command.CreateFileCommand;
 import com.lucasdominato.securefilemanager.dto.command.UpdateFileCommand;
 import com.lucasdominato.securefilemanager.dto.response.FileResponseDTO;
+import com.lucasdominato.securefilemanager.exception.FileConflictException;
 import com.lucasdominato.securefilemanager.exception.FileNotFoundException;
 import com.lucasdominato.securefilemanager.mapper.FileMapper;
-import com.lucasdominato.securefilemanager.security.EncryptionService;
+import com.lucasdominato.securefilemanager.service.DownloadCoalescer;
+import com.lucasdominato.securefilemanager.service.FileChangeLogService;
 import com.lucasdominato.securefilemanager.service.FileService;
+import com.lucasdominato.securefilemanager.service.FileVersionService;
+import com.lucasdominato.securefilemanager.service.StagedContent;
 import com.lucasdominato.securefilemanager.service.UserService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -23,11 +27,14 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.*;
 import java.security.GeneralSecurityException;
 import java.sql.SQLException;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -37,22 +44,28 @@ import static org.mockito.Mockito.*;
 public class FileServiceTest {
 
     @Mock
-    private FileContentRepository fileContentRepository;
+    private FileVersionJdbcRepository fileVersionJdbcRepository;
 
     @Mock
-    private FileJdbcRepository fileJdbcRepository;
+    private FileRepository fileRepository;
 
     @Mock
-    private EncryptionService encryptionService;
+    private UserService userService;
 
     @Mock
-    private FileRepository fileRepository;
+    private FileMapper fileMapper;
 
     @Mock
-    private UserService userService;
+    private FileChangeLogService fileChangeLogService;
 
     @Mock
-    private FileMapper fileMapper;
+    private FileVersionService fileVersionService;
+
+    @Mock
+    private DownloadCoalescer downloadCoalescer;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
 
     @InjectMocks
     private FileService fileService;
@@ -67,53 +80,62 @@ public class FileServiceTest {
     void setup() {
         userDTO = new UserDTO();
         userDTO.setUsername("username");
+        User owner = new User();
+        owner.setId(10L);
+        owner.setUsername("username");
         fileEntity = new File();
+        fileEntity.setUser(owner);
         fileEntity.setId(1L);
         fileEntity.setName("testfile");
         fileEntity.setContentType("text/plain");
         fileEntity.setFileSize(100L);
+        fileEntity.setCurrentVersion(1);
 
         fileResponseDTO = new FileResponseDTO();
         createFileCommand = new CreateFileCommand("testfile", "description", "text/plain", 100L);
         updateFileCommand = new UpdateFileCommand("updatedDescription");
+
+        lenient().when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
     }
 
     @Test
     void testGetFilesByUsername() {
-        Page<File> page = new PageImpl<>(Collections.singletonList(fileEntity));
+        Page<FileResponseDTO> page = new PageImpl<>(Collections.singletonList(fileResponseDTO));
         PageRequest pageable = PageRequest.of(0, 10);
-        when(fileRepository.findAllByUserUsername(anyString(), eq(pageable))).thenReturn(page);
-        when(fileMapper.fileToFileDto(any())).thenReturn(fileResponseDTO);
+        when(fileRepository.findDtoPageByUsername(anyString(), eq(pageable))).thenReturn(page);
 
         Page<FileResponseDTO> result = fileService.getFilesByUsername("username", pageable);
 
         assertNotNull(result);
         assertEquals(1, result.getTotalElements());
-        verify(fileRepository).findAllByUserUsername("username", pageable);
+        verify(fileRepository).findDtoPageByUsername("username", pageable);
+        verifyNoInteractions(fileMapper);
     }
 
     @Test
     void testGetFileByIdAndUsername_FileFound() {
-        when(fileRepository.findByIdAndUserUsername(anyLong(), anyString())).thenReturn(Optional.of(fileEntity));
-        when(fileMapper.fileToFileDto(any())).thenReturn(fileResponseDTO);
+        when(fileRepository.findDtoByIdAndUsername(anyLong(), anyString())).thenReturn(Optional.of(fileResponseDTO));
 
         FileResponseDTO result = fileService.getFileByIdAndUsername(1L, "username");
 
         assertNotNull(result);
-        verify(fileRepository).findByIdAndUserUsername(1L, "username");
+        verify(fileRepository).findDtoByIdAndUsername(1L, "username");
+        verifyNoInteractions(fileMapper);
     }
 
     @Test
     void testGetFileByIdAndUsername_FileNotFound() {
-        when(fileRepository.findByIdAndUserUsername(anyLong(), anyString())).thenReturn(Optional.empty());
+        when(fileRepository.findDtoByIdAndUsername(anyLong(), anyString())).thenReturn(Optional.empty());
 
         assertThrows(FileNotFoundException.class, () -> fileService.getFileByIdAndUsername(1L, "username"));
-        verify(fileRepository).findByIdAndUserUsername(1L, "username");
+        verify(fileRepository).findDtoByIdAndUsername(1L, "username");
     }
 
     @Test
     void testCreateFile() throws IOException, GeneralSecurityException, SQLException {
         User user = new User();
+        user.setId(10L);
         when(userService.getOrCreateUser(any())).thenReturn(user);
 
         doAnswer(invocation -> {
@@ -125,71 +147,182 @@ public class FileServiceTest {
         when(fileMapper.fileToFileDto(any())).thenReturn(fileResponseDTO);
 
         InputStream inputStream = new ByteArrayInputStream(new byte[0]);
-        InputStream encryptedInputStream = new ByteArrayInputStream(new byte[0]);
-        when(encryptionService.encryptStream(any())).thenReturn(encryptedInputStream);
+        StagedContent content = new StagedContent(List.of(), 0, new byte[32]);
+        when(fileVersionService.stageContent(10L, inputStream)).thenReturn(content);
 
         FileResponseDTO result = fileService.createFile(createFileCommand, inputStream, userDTO);
 
         assertNotNull(result);
 
+        verify(fileRepository).save(argThat(file -> file.getCurrentVersion() == 1));
+        verify(fileVersionService).storeVersion(argThat(file -> file.getId().equals(1L)), eq(1), eq(content));
+        verify(fileChangeLogService).recordChange(any(), any(), eq(FileChangeType.CREATED), eq(1L));
+    }
+
+    @Test
+    void testCreateFileByReference() throws GeneralSecurityException {
+        User user = new User();
+        user.setId(10L);
+        when(userService.getOrCreateUser(any())).thenReturn(user);
+        when(fileMapper.fileToFileDto(any())).thenReturn(fileResponseDTO);
+
+        byte[] sha256 = new byte[32];
+        when(fileVersionService.findVersionWithContent(10L, sha256, createFileCommand.getFileSize())).thenReturn(Optional.of(7L));
+
+        Optional<FileResponseDTO> result = fileService.createFileByReference(createFileCommand, sha256, userDTO);
+
+        assertTrue(result.isPresent());
         verify(fileRepository).save(any(File.class));
-        verify(fileJdbcRepository).upsertFileContent(eq(1L), eq(encryptedInputStream));
+        verify(fileVersionService).copyVersion(eq(7L), any(File.class), eq(1));
+        verify(fileChangeLogService).recordChange(any(), any(), eq(FileChangeType.CREATED), any());
+    }
+
+    @Test
+    void testCreateFileByReferenceUnknownContent() throws GeneralSecurityException {
+        User user = new User();
+        user.setId(10L);
+        when(userService.getOrCreateUser(any())).thenReturn(user);
+
+        byte[] sha256 = new byte[32];
+        when(fileVersionService.findVersionWithContent(10L, sha256, createFileCommand.getFileSize())).thenReturn(Optional.empty());
+
+        Optional<FileResponseDTO> result = fileService.createFileByReference(createFileCommand, sha256, userDTO);
+
+        assertTrue(result.isEmpty());
+        verify(fileRepository, never()).save(any());
+        verifyNoInteractions(fileChangeLogService);
+    }
+
+    @Test
+    void testCopyFile() {
+        when(fileRepository.findByIdAndUserUsernameAndDeletedDateIsNull(1L, "username")).thenReturn(Optional.of(fileEntity));
+        doAnswer(invocation -> {
+            File file = invocation.getArgument(0);
+            file.setId(2L);
+            return file;
+        }).when(fileRepository).save(any(File.class));
+        when(fileMapper.fileToFileDto(any())).thenReturn(fileResponseDTO);
+
+        FileResponseDTO result = fileService.copyFile(1L, "copy", "username");
+
+        assertNotNull(result);
+        verify(fileRepository).save(argThat(file -> file.getName().equals("copy") && file.getUser() == fileEntity.getUser()));
+        verify(fileVersionService).copyCurrentVersion(eq(fileEntity), argThat(file -> file.getId().equals(2L)), eq(1));
+        verify(fileChangeLogService).recordChange(10L, "username", FileChangeType.CREATED, 2L);
+    }
+
+    @Test
+    void testCopyFileNotFound() {
+        when(fileRepository.findByIdAndUserUsernameAndDeletedDateIsNull(1L, "username")).thenReturn(Optional.empty());
+
+        assertThrows(FileNotFoundException.class, () -> fileService.copyFile(1L, null, "username"));
+        verifyNoInteractions(fileVersionService);
     }
 
     @Test
     void testDownloadFile() throws IOException, GeneralSecurityException, SQLException {
-        InputStream encryptedInputStream = new ByteArrayInputStream(new byte[0]);
-        when(fileJdbcRepository.getFileContentStreamByFileId(anyLong())).thenReturn(encryptedInputStream);
+        when(fileVersionJdbcRepository.findCurrentVersionId(1L)).thenReturn(Optional.of(5L));
 
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         fileService.downloadFile(1L, outputStream);
 
-        verify(encryptionService).decryptStream(eq(encryptedInputStream), eq(outputStream));
+        verify(downloadCoalescer).download(5L, outputStream);
+    }
+
+    @Test
+    void testDownloadFileVersionNotFound() {
+        when(fileVersionJdbcRepository.findVersionId(1L, 3)).thenReturn(Optional.empty());
+
+        assertThrows(FileNotFoundException.class, () -> fileService.downloadFileVersion(1L, 3, new ByteArrayOutputStream()));
     }
 
     @Test
     void testUpdateFileWithContent() throws IOException, GeneralSecurityException {
-        when(fileRepository.findByIdAndUserUsername(anyLong(), anyString())).thenReturn(Optional.of(fileEntity));
+        when(fileRepository.findByIdAndUserUsernameAndDeletedDateIsNull(1L, "username")).thenReturn(Optional.of(fileEntity));
+        when(fileRepository.findForUpdateByIdAndUserUsernameAndDeletedDateIsNull(anyLong(), anyString())).thenReturn(Optional.of(fileEntity));
         when(fileRepository.save(any(File.class))).thenReturn(fileEntity);
         when(fileMapper.fileToFileDto(any())).thenReturn(fileResponseDTO);
 
-        InputStream encryptedInputStream = new ByteArrayInputStream(new byte[0]);
         BufferedInputStream bufferedInputStream = new BufferedInputStream(new ByteArrayInputStream(new byte[0]));
-        when(encryptionService.encryptStream(any())).thenReturn(encryptedInputStream);
+        StagedContent content = new StagedContent(List.of(), 0, new byte[32]);
+        when(fileVersionService.stageContent(10L, bufferedInputStream)).thenReturn(content);
 
         FileResponseDTO result = fileService.updateFileWithContent(1L, updateFileCommand, bufferedInputStream, "username");
 
         assertNotNull(result);
+        assertEquals(2, fileEntity.getCurrentVersion());
+        verify(fileVersionService).storeVersion(fileEntity, 2, content);
         verify(fileRepository).save(fileEntity);
-        verify(fileJdbcRepository).upsertFileContent(anyLong(), eq(encryptedInputStream));
+        verify(fileChangeLogService).recordChange(10L, "username", FileChangeType.UPDATED, 1L);
+    }
+
+    @Test
+    void testWriteFileContent() throws IOException, GeneralSecurityException {
+        when(fileRepository.findByIdAndUserUsernameAndDeletedDateIsNull(1L, "username")).thenReturn(Optional.of(fileEntity));
+        when(fileRepository.findForUpdateByIdAndUserUsernameAndDeletedDateIsNull(1L, "username")).thenReturn(Optional.of(fileEntity));
+        when(fileRepository.save(any(File.class))).thenReturn(fileEntity);
+        when(fileMapper.fileToFileDto(any())).thenReturn(fileResponseDTO);
+
+        InputStream inputStream = new ByteArrayInputStream(new byte[10]);
+        StagedContent content = new StagedContent(List.of(), 110L, null);
+        when(fileVersionService.stageRange(fileEntity, null, 10L, inputStream)).thenReturn(content);
+
+        FileResponseDTO result = fileService.writeFileContent(1L, null, 10L, inputStream, "username");
+
+        assertNotNull(result);
+        assertEquals(2, fileEntity.getCurrentVersion());
+        assertEquals(110L, fileEntity.getFileSize());
+        verify(fileVersionService).storeVersion(fileEntity, 2, content);
+        verify(fileChangeLogService).recordChange(10L, "username", FileChangeType.UPDATED, 1L);
+    }
+
+    @Test
+    void testWriteFileContentConflictsWithAConcurrentWrite() throws IOException, GeneralSecurityException {
+        File changed = new File();
+        changed.setId(1L);
+        changed.setUser(fileEntity.getUser());
+        changed.setCurrentVersion(2);
+        when(fileRepository.findByIdAndUserUsernameAndDeletedDateIsNull(1L, "username")).thenReturn(Optional.of(fileEntity));
+        when(fileRepository.findForUpdateByIdAndUserUsernameAndDeletedDateIsNull(1L, "username")).thenReturn(Optional.of(changed));
+
+        InputStream inputStream = new ByteArrayInputStream(new byte[10]);
+        when(fileVersionService.stageRange(fileEntity, null, 10L, inputStream)).thenReturn(new StagedContent(List.of(), 110L, null));
+
+        assertThrows(FileConflictException.class, () -> fileService.writeFileContent(1L, null, 10L, inputStream, "username"));
+        verify(fileVersionService, never()).storeVersion(any(), anyInt(), any());
+        verify(fileRepository, never()).save(any());
+        verifyNoInteractions(fileChangeLogService);
     }
 
     @Test
     void testUpdateFile() {
-        when(fileRepository.findByIdAndUserUsername(anyLong(), anyString())).thenReturn(Optional.of(fileEntity));
+        when(fileRepository.findByIdAndUserUsernameAndDeletedDateIsNull(anyLong(), anyString())).thenReturn(Optional.of(fileEntity));
         when(fileMapper.fileToFileDto(any())).thenReturn(fileResponseDTO);
 
         FileResponseDTO result = fileService.updateFile(1L, updateFileCommand, "username");
 
         assertNotNull(result);
         verify(fileRepository).save(fileEntity);
+        verify(fileChangeLogService).recordChange(10L, "username", FileChangeType.UPDATED, 1L);
     }
 
     @Test
     void testDeleteFile() {
-        when(fileRepository.findByIdAndUserUsername(anyLong(), anyString())).thenReturn(Optional.of(fileEntity));
+        when(fileRepository.findByIdAndUserUsernameAndDeletedDateIsNull(anyLong(), anyString())).thenReturn(Optional.of(fileEntity));
 
         fileService.deleteFile(1L, "username");
 
-        verify(fileContentRepository).deleteByFileId(1L);
-        verify(fileRepository).delete(fileEntity);
+        assertNotNull(fileEntity.getDeletedDate());
+        verify(fileRepository).save(fileEntity);
+        verifyNoInteractions(fileVersionService);
+        verify(fileChangeLogService).recordChange(10L, "username", FileChangeType.DELETED, 1L);
     }
 
     @Test
     void testDeleteFile_FileNotFound() {
-        when(fileRepository.findByIdAndUserUsername(anyLong(), anyString())).thenReturn(Optional.empty());
+        when(fileRepository.findByIdAndUserUsernameAndDeletedDateIsNull(anyLong(), anyString())).thenReturn(Optional.empty());
 
         assertThrows(FileNotFoundException.class, () -> fileService.deleteFile(1L, "username"));
-        verify(fileRepository).findByIdAndUserUsername(1L, "username");
+        verify(fileRepository).findByIdAndUserUsernameAndDeletedDateIsNull(1L, "username");
     }
 }
\ No newline at end of file
@@ -0,0 +1,294 @@
+package com.lucasdominato.securefilemanager.unit;
+
+import com.lucasdominato.securefilemanager.data.entity.File;
+import com.lucasdominato.securefilemanager.data.entity.FileVersion;
+import com.lucasdominato.securefilemanager.data.entity.FileVersionChunk;
+import com.lucasdominato.securefilemanager.data.entity.User;
+import com.lucasdominato.securefilemanager.data.repository.ContentDiskCache;
+import com.lucasdominato.securefilemanager.data.repository.EncryptedFileContent;
+import com.lucasdominato.securefilemanager.data.repository.FileJdbcRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileVersionJdbcRepository;
+import com.lucasdominato.securefilemanager.data.repository.FileVersionRepository;
+import com.lucasdominato.securefilemanager.mapper.FileMapper;
+import com.lucasdominato.securefilemanager.security.EncryptionService;
+import com.lucasdominato.securefilemanager.service.ContentAccessTracker;
+import com.lucasdominato.securefilemanager.service.FileContentService;
+import com.lucasdominato.securefilemanager.service.FileVersionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs FileVersionService over an in-memory store where "encryption" is the identity, to check the manifests
+ * it builds.
+ */
+@ExtendWith(MockitoExtension.class)
+public class FileVersionServiceTest {
+
+    @Mock
+    private FileVersionRepository fileVersionRepository;
+
+    @Mock
+    private FileVersionJdbcRepository fileVersionJdbcRepository;
+
+    @Mock
+    private FileJdbcRepository fileJdbcRepository;
+
+    @Mock
+    private FileContentService fileContentService;
+
+    @Mock
+    private EncryptionService encryptionService;
+
+    @Mock
+    private FileMapper fileMapper;
+
+    private FileVersionService fileVersionService;
+
+    private final Map<Long, byte[]> contents = new HashMap<>();
+    private final Map<Long, FileVersion> versions = new HashMap<>();
+    private final Map<Long, List<FileVersionChunk>> manifests = new HashMap<>();
+    private File file;
+
+    @BeforeEach
+    void setUp() throws GeneralSecurityException, IOException {
+        fileVersionService = new FileVersionService(fileVersionRepository, fileVersionJdbcRepository, fileJdbcRepository,
+                fileContentService, new ContentAccessTracker(false),
+                new ContentDiskCache(new SimpleMeterRegistry(), false, "content-cache", 0, 0), new SimpleAsyncTaskExecutor(),
+                encryptionService, fileMapper, new SimpleMeterRegistry(), 16, 64, 256, 2);
+
+        User user = new User();
+        user.setId(10L);
+        file = new File();
+        file.setId(1L);
+        file.setUser(user);
+        file.setName("file");
+        file.setContentType("application/octet-stream");
+        file.setCurrentVersion(1);
+
+        lenient().when(fileContentService.stageContent(eq(10L), any())).thenAnswer(invocation -> {
+            long contentId = contents.size() + 1;
+            contents.put(contentId, invocation.<byte[]>getArgument(1));
+            return contentId;
+        });
+        lenient().when(fileJdbcRepository.getFileContentById(eq(10L), anyLong())).thenAnswer(invocation ->
+                new EncryptedFileContent(1, new ByteArrayInputStream(contents.get(invocation.<Long>getArgument(1)))));
+        lenient().doAnswer(invocation -> {
+            invocation.<InputStream>getArgument(1).transferTo(invocation.<OutputStream>getArgument(2));
+            return null;
+        }).when(encryptionService).decryptStream(anyInt(), any(), any());
+        lenient().when(encryptionService.fingerprint(anyLong(), any(), anyLong())).thenReturn(new byte[32]);
+        lenient().when(fileVersionRepository.save(any())).thenAnswer(invocation -> {
+            FileVersion version = invocation.getArgument(0);
+            version.setId((long) versions.size() + 1);
+            versions.put(version.getId(), version);
+            return version;
+        });
+        lenient().when(fileVersionRepository.findByFileIdAndVersionNumber(eq(1L), anyInt())).thenAnswer(invocation ->
+                versions.values().stream().filter(version -> version.getVersionNumber().equals(invocation.getArgument(1))).findFirst());
+        lenient().doAnswer(invocation -> {
+            manifests.put(invocation.getArgument(0), new ArrayList<>(invocation.<List<FileVersionChunk>>getArgument(1)));
+            return null;
+        }).when(fileVersionJdbcRepository).insertChunks(anyLong(), any());
+        lenient().when(fileVersionJdbcRepository.findChunks(anyLong())).thenAnswer(invocation ->
+                manifests.get(invocation.<Long>getArgument(0)).stream().map(this::copy).toList());
+    }
+
+    @Test
+    void testReadChunksInOrderWhileReadingAhead() throws GeneralSecurityException, IOException {
+        byte[] content = randomContent(4000);
+        FileVersion version = storeVersion(1, content);
+        List<Long> contentIds = manifests.get(version.getId()).stream().map(FileVersionChunk::getContentId).toList();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        fileVersionService.writeContent(10L, contentIds, outputStream);
+
+        assertTrue(contentIds.size() > 3);
+        assertArrayEquals(content, outputStream.toByteArray());
+    }
+
+    @Test
+    void testReadChunksInlineWhenThePrefetchIsRejected() throws GeneralSecurityException, IOException {
+        fileVersionService = new FileVersionService(fileVersionRepository, fileVersionJdbcRepository, fileJdbcRepository,
+                fileContentService, new ContentAccessTracker(false),
+                new ContentDiskCache(new SimpleMeterRegistry(), false, "content-cache", 0, 0),
+                task -> {
+                    throw new TaskRejectedException("Prefetch queue full");
+                },
+                encryptionService, fileMapper, new SimpleMeterRegistry(), 16, 64, 256, 2);
+        byte[] content = randomContent(4000);
+        FileVersion version = storeVersion(1, content);
+        List<Long> contentIds = manifests.get(version.getId()).stream().map(FileVersionChunk::getContentId).toList();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        fileVersionService.writeContent(10L, contentIds, outputStream);
+
+        assertArrayEquals(content, outputStream.toByteArray());
+    }
+
+    @Test
+    void testReadChunksStopsWhenTheConsumerDoesNotWantMore() throws GeneralSecurityException, IOException {
+        byte[] content = randomContent(4000);
+        FileVersion version = storeVersion(1, content);
+        List<Long> contentIds = manifests.get(version.getId()).stream().map(FileVersionChunk::getContentId).toList();
+
+        List<byte[]> chunks = new ArrayList<>();
+        fileVersionService.readChunks(10L, contentIds, chunk -> {
+            chunks.add(chunk);
+            return false;
+        });
+
+        assertEquals(1, chunks.size());
+        assertArrayEquals(Arrays.copyOf(content, chunks.get(0).length), chunks.get(0));
+    }
+
+    @Test
+    void testAppendRewritesOnlyTheLastChunk() throws GeneralSecurityException, IOException {
+        byte[] content = randomContent(4000);
+        FileVersion first = storeVersion(1, content);
+        List<FileVersionChunk> firstManifest = manifests.get(first.getId());
+
+        byte[] data = randomContent(100);
+        FileVersion second = writeRange(null, data.length, new ByteArrayInputStream(data));
+
+        assertEquals(content.length + data.length, second.getFileSize());
+        assertArrayEquals(concat(content, data), read(second));
+        List<Long> sharedContentIds = firstManifest.subList(0, firstManifest.size() - 1).stream().map(FileVersionChunk::getContentId).toList();
+        List<Long> secondContentIds = manifests.get(second.getId()).stream().map(FileVersionChunk::getContentId).toList();
+        assertEquals(sharedContentIds, secondContentIds.subList(0, sharedContentIds.size()));
+        verify(fileVersionJdbcRepository).referenceContents(10L, secondContentIds);
+    }
+
+    @Test
+    void testOverwriteInTheMiddleKeepsTheOtherChunks() throws GeneralSecurityException, IOException {
+        byte[] content = randomContent(4000);
+        FileVersion first = storeVersion(1, content);
+
+        byte[] data = randomContent(10);
+        FileVersion second = writeRange(2000L, data.length, new ByteArrayInputStream(data));
+
+        byte[] expected = content.clone();
+        System.arraycopy(data, 0, expected, 2000, data.length);
+        assertEquals(content.length, second.getFileSize());
+        assertArrayEquals(expected, read(second));
+        assertNull(second.getFingerprint());
+        assertArrayEquals(content, read(first));
+
+        Set<Long> secondContentIds = manifests.get(second.getId()).stream().map(FileVersionChunk::getContentId).collect(Collectors.toSet());
+        for (FileVersionChunk chunk : manifests.get(first.getId())) {
+            if (chunk.getChunkOffset() + chunk.getChunkSize() <= 2000 || chunk.getChunkOffset() >= 2010) {
+                assertTrue(secondContentIds.contains(chunk.getContentId()), "chunk at " + chunk.getChunkOffset() + " not shared");
+            }
+        }
+    }
+
+    @Test
+    void testOverwritePastTheEndGrowsTheFile() throws GeneralSecurityException, IOException {
+        byte[] content = randomContent(1000);
+        storeVersion(1, content);
+
+        byte[] data = randomContent(300);
+        FileVersion second = writeRange(900L, data.length, new ByteArrayInputStream(data));
+
+        byte[] expected = concat(Arrays.copyOf(content, 900), data);
+        assertEquals(1200, second.getFileSize());
+        assertArrayEquals(expected, read(second));
+    }
+
+    @Test
+    void testAppendToEmptyFile() throws GeneralSecurityException, IOException {
+        storeVersion(1, new byte[0]);
+
+        byte[] data = randomContent(50);
+        FileVersion second = writeRange(null, data.length, new ByteArrayInputStream(data));
+
+        assertArrayEquals(data, read(second));
+    }
+
+    @Test
+    void testWriteBeyondTheEndFails() throws GeneralSecurityException, IOException {
+        storeVersion(1, randomContent(100));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> writeRange(101L, 1, new ByteArrayInputStream(new byte[1])));
+    }
+
+    @Test
+    void testWriteShorterThanDeclaredFails() throws GeneralSecurityException, IOException {
+        storeVersion(1, randomContent(1000));
+
+        assertThrows(IOException.class,
+                () -> writeRange(100L, 10, new ByteArrayInputStream(new byte[5])));
+    }
+
+    private FileVersion writeRange(Long offset, long length, InputStream inputStream) throws GeneralSecurityException, IOException {
+        return fileVersionService.storeVersion(file, 2, fileVersionService.stageRange(file, offset, length, inputStream));
+    }
+
+    private FileVersion storeVersion(int versionNumber, byte[] content) throws GeneralSecurityException, IOException {
+        return fileVersionService.storeVersion(file, versionNumber, fileVersionService.stageContent(10L, new ByteArrayInputStream(content)));
+    }
+
+    private byte[] read(FileVersion version) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long offset = 0;
+        for (FileVersionChunk chunk : manifests.get(version.getId())) {
+            assertEquals(offset, chunk.getChunkOffset());
+            byte[] chunkContent = contents.get(chunk.getContentId());
+            assertEquals(chunk.getChunkSize(), chunkContent.length);
+            outputStream.write(chunkContent);
+            offset += chunkContent.length;
+        }
+        return outputStream.toByteArray();
+    }
+
+    private FileVersionChunk copy(FileVersionChunk chunk) {
+        FileVersionChunk copy = new FileVersionChunk();
+        copy.setVersionId(chunk.getVersionId());
+        copy.setChunkIndex(chunk.getChunkIndex());
+        copy.setChunkOffset(chunk.getChunkOffset());
+        copy.setChunkSize(chunk.getChunkSize());
+        copy.setContentId(chunk.getContentId());
+        return copy;
+    }
+
+    private byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+}
@@ -11,7 +11,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -22,13 +25,16 @@ class EncryptionServiceTest {
     private static final String VALID_HMAC_KEY = Base64.getEncoder().encodeToString(new byte[32]);
     private static final String INVALID_AES_KEY = Base64.getEncoder().encodeToString(new byte[16]);
     private static final String INVALID_HMAC_KEY = Base64.getEncoder().encodeToString(new byte[16]);
+    private static final String NEW_AES_KEY = Base64.getEncoder().encodeToString("an-other-32-bytes-long-aes-key!!".getBytes());
+    private static final String NEW_HMAC_KEY = Base64.getEncoder().encodeToString("an-other-32-bytes-long-hmac-key!".getBytes());
+    private static final String FINGERPRINT_KEY = Base64.getEncoder().encodeToString("a-32-bytes-long-fingerprint-key!".getBytes());
     private static final int IV_SIZE = 16;
 
     private EncryptionService encryptionService;
 
     @BeforeEach
     void setUp() {
-        encryptionService = new EncryptionService(VALID_AES_KEY, VALID_HMAC_KEY);
+        encryptionService = new EncryptionService(VALID_AES_KEY, VALID_HMAC_KEY, FINGERPRINT_KEY);
     }
 
     @Test
@@ -80,17 +86,17 @@ class EncryptionServiceTest {
 
     @Test
     void testValidateKeySizeSuccess() {
-        assertDoesNotThrow(() -> new EncryptionService(VALID_AES_KEY, VALID_HMAC_KEY));
+        assertDoesNotThrow(() -> new EncryptionService(VALID_AES_KEY, VALID_HMAC_KEY, FINGERPRINT_KEY));
     }
 
     @Test
     void testInvalidAesKeySize() {
-        assertThrows(IllegalStateException.class, () -> new EncryptionService(INVALID_AES_KEY, VALID_HMAC_KEY));
+        assertThrows(IllegalStateException.class, () -> new EncryptionService(INVALID_AES_KEY, VALID_HMAC_KEY, FINGERPRINT_KEY));
     }
 
     @Test
     void testInvalidHmacKeySize() {
-        assertThrows(IllegalStateException.class, () -> new EncryptionService(VALID_AES_KEY, INVALID_HMAC_KEY));
+        assertThrows(IllegalStateException.class, () -> new EncryptionService(VALID_AES_KEY, INVALID_HMAC_KEY, FINGERPRINT_KEY));
     }
 
     @Test
@@ -119,4 +125,110 @@ class EncryptionServiceTest {
 
         assertThrows(IOException.class, () -> encryptionService.decryptStream(invalidIvInputStream, outputStream));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testDecryptStreamWithRetiredKeyVersion() throws GeneralSecurityException, IOException {
+        String testData = "Testing phrase for key rotation";
+        byte[] encryptedWithVersion1 = encryptionService.encryptStream(new ByteArrayInputStream(testData.getBytes())).readAllBytes();
+
+        EncryptionService rotatedEncryptionService = new EncryptionService(NEW_AES_KEY, NEW_HMAC_KEY, 2,
+                List.of("1:" + VALID_AES_KEY + ":" + VALID_HMAC_KEY), FINGERPRINT_KEY);
+
+        ByteArrayOutputStream decryptedOutputStream = new ByteArrayOutputStream();
+        rotatedEncryptionService.decryptStream(1, new ByteArrayInputStream(encryptedWithVersion1), decryptedOutputStream);
+
+        assertEquals(testData, decryptedOutputStream.toString());
+        assertThrows(SecurityException.class, () -> rotatedEncryptionService.decryptStream(
+                new ByteArrayInputStream(encryptedWithVersion1), new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void testReEncryptStreamWithCurrentKeyVersion() throws GeneralSecurityException, IOException {
+        String testData = "Testing phrase for re-encryption";
+        byte[] encryptedWithVersion1 = encryptionService.encryptStream(new ByteArrayInputStream(testData.getBytes())).readAllBytes();
+
+        EncryptionService rotatedEncryptionService = new EncryptionService(NEW_AES_KEY, NEW_HMAC_KEY, 2,
+                List.of("1:" + VALID_AES_KEY + ":" + VALID_HMAC_KEY), FINGERPRINT_KEY);
+
+        byte[] encryptedWithVersion2 = rotatedEncryptionService.reEncryptStream(1, new ByteArrayInputStream(encryptedWithVersion1)).readAllBytes();
+
+        ByteArrayOutputStream decryptedOutputStream = new ByteArrayOutputStream();
+        rotatedEncryptionService.decryptStream(2, new ByteArrayInputStream(encryptedWithVersion2), decryptedOutputStream);
+
+        assertEquals(testData, decryptedOutputStream.toString());
+    }
+
+    @Test
+    void testDecryptStreamWithUnknownKeyVersion() {
+        ByteArrayInputStream encryptedInputStream = new ByteArrayInputStream(new byte[64]);
+
+        assertThrows(GeneralSecurityException.class, () -> encryptionService.decryptStream(7, encryptedInputStream, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void testMissingFingerprintKey() {
+        assertThrows(IllegalStateException.class, () -> new EncryptionService(VALID_AES_KEY, VALID_HMAC_KEY, ""));
+    }
+
+    @Test
+    void testFingerprintKeyEqualToHmacKey() {
+        assertThrows(IllegalStateException.class, () -> new EncryptionService(VALID_AES_KEY, VALID_HMAC_KEY, VALID_HMAC_KEY));
+    }
+
+    @Test
+    void testFingerprintsSurviveHmacKeyRotation() throws GeneralSecurityException {
+        EncryptionService rotatedEncryptionService = new EncryptionService(NEW_AES_KEY, NEW_HMAC_KEY, 2,
+                List.of("1:" + VALID_AES_KEY + ":" + VALID_HMAC_KEY), FINGERPRINT_KEY);
+        byte[] sha256 = new byte[32];
+
+        assertArrayEquals(encryptionService.fingerprint(1L, sha256, 10), rotatedEncryptionService.fingerprint(1L, sha256, 10));
+    }
+
+    @Test
+    void testInvalidRetiredKey() {
+        assertThrows(IllegalStateException.class, () -> new EncryptionService(VALID_AES_KEY, VALID_HMAC_KEY, 2, List.of("1:" + VALID_AES_KEY), FINGERPRINT_KEY));
+    }
+
+    @Test
+    void testVerifyIntegritySuccess() throws GeneralSecurityException, IOException {
+        byte[] largeData = new byte[100_000];
+        byte[] encryptedData = encryptionService.encryptStream(new ByteArrayInputStream(largeData)).readAllBytes();
+
+        assertTrue(encryptionService.verifyIntegrity(1, new ByteArrayInputStream(encryptedData)));
+    }
+
+    @Test
+    void testVerifyIntegrityWithAlteredCiphertext() throws GeneralSecurityException, IOException {
+        byte[] encryptedData = encryptionService.encryptStream(new ByteArrayInputStream("Testing phrase for scrubbing".getBytes())).readAllBytes();
+        encryptedData[IV_SIZE] ^= 1;
+
+        assertFalse(encryptionService.verifyIntegrity(1, new ByteArrayInputStream(encryptedData)));
+    }
+
+    @Test
+    void testVerifyIntegrityWithTruncatedData() {
+        assertDoesNotThrow(() -> assertFalse(encryptionService.verifyIntegrity(1, new ByteArrayInputStream(new byte[IV_SIZE]))));
+    }
+
+    @Test
+    void testFingerprintIsScopedToTheUser() throws GeneralSecurityException {
+        byte[] data = "Testing phrase for deduplication".getBytes();
+
+        byte[] first = encryptionService.fingerprint(1L, data);
+        byte[] second = encryptionService.fingerprint(1L, data.clone());
+        byte[] otherUser = encryptionService.fingerprint(2L, data);
+
+        assertArrayEquals(first, second);
+        assertFalse(Arrays.equals(first, otherUser));
+        assertArrayEquals(first, encryptionService.fingerprint(1L, MessageDigest.getInstance("SHA-256").digest(data), data.length));
+    }
+
+    @Test
+    void testGetEncryptedSizeMatchesTheStoredForm() throws GeneralSecurityException, IOException {
+        byte[] data = "Testing phrase for the stored size".getBytes();
+
+        byte[] encryptedData = encryptionService.encryptStream(new ByteArrayInputStream(data)).readAllBytes();
+
+        assertEquals(encryptedData.length, encryptionService.getEncryptedSize(data.length));
+    }
+}